@@ -0,0 +1,186 @@
+package com.pdfmaster.reader;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress checks that bookmark and favorite changes made from many threads at once all
+ * reach the database through the library journal, in the order each was made. Runs on
+ * a device against the app's own database, with documents registered for the test.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LibraryJournalStressTest {
+
+    private static final int THREADS = 8;
+    private static final int PER_THREAD = 150;
+    // More than BookmarkManager keeps loaded, so documents are evicted and read back mid-test
+    private static final int DOCUMENTS = 6;
+
+    private Context context;
+    private LibraryDatabase database;
+    private final List<Integer> documentIds = new ArrayList<>();
+
+    @Before
+    public void registerDocuments() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        database = LibraryDatabase.getInstance(context);
+        SQLiteDatabase db = database.getWritableDatabase();
+        String run = "stress-" + System.nanoTime() + "-";
+        for (int i = 0; i < DOCUMENTS + THREADS; i++) {
+            String key = run + i;
+            documentIds.add(LibraryDatabase.documentId(db, key, "content://test/" + key, "test " + i));
+        }
+    }
+
+    @After
+    public void removeDocuments() {
+        database.getJournal().flush();
+        SQLiteDatabase db = database.getWritableDatabase();
+        for (int documentId : documentIds) {
+            new FavoriteManager(context).removeFromFavorites(documentId);
+            String[] args = {String.valueOf(documentId)};
+            db.delete(LibraryDatabase.TABLE_BOOKMARKS, LibraryDatabase.COLUMN_DOCUMENT_ID + " = ?", args);
+            db.delete(LibraryDatabase.TABLE_DOCUMENTS, LibraryDatabase.COLUMN_ID + " = ?", args);
+        }
+        database.getJournal().flush();
+    }
+
+    @Test
+    public void bookmarksFromManyThreadsArePersisted() throws Exception {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            tasks.add(() -> {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    // Pages interleave across threads, and every thread cycles through the documents
+                    int page = i * THREADS + thread;
+                    BookmarkManager bookmarks = new BookmarkManager(context, documentIds.get(i % DOCUMENTS));
+                    bookmarks.addBookmark(page, "page " + page);
+                    if (i % 3 == 0) {
+                        bookmarks.removeBookmark(page);
+                    }
+                }
+                return null;
+            });
+        }
+        runTogether(tasks);
+        database.getJournal().flush();
+
+        for (int d = 0; d < DOCUMENTS; d++) {
+            int documentId = documentIds.get(d);
+            TreeSet<Integer> expected = new TreeSet<>();
+            for (int t = 0; t < THREADS; t++) {
+                for (int i = d; i < PER_THREAD; i += DOCUMENTS) {
+                    if (i % 3 != 0) {
+                        expected.add(i * THREADS + t);
+                    }
+                }
+            }
+            List<Integer> stored = new ArrayList<>();
+            try (Cursor cursor = database.getReadableDatabase().rawQuery("SELECT " + LibraryDatabase.COLUMN_PAGE
+                    + ", " + LibraryDatabase.COLUMN_TITLE + " FROM " + LibraryDatabase.TABLE_BOOKMARKS
+                    + " WHERE " + LibraryDatabase.COLUMN_DOCUMENT_ID + " = ? ORDER BY " + LibraryDatabase.COLUMN_PAGE,
+                    new String[]{String.valueOf(documentId)})) {
+                while (cursor.moveToNext()) {
+                    assertEquals("page " + cursor.getInt(0), cursor.getString(1));
+                    stored.add(cursor.getInt(0));
+                }
+            }
+            assertEquals("document " + d, new ArrayList<>(expected), stored);
+
+            // What is in memory agrees with what was written
+            List<Integer> inMemory = new ArrayList<>();
+            for (BookmarkManager.Bookmark bookmark : new BookmarkManager(context, documentId).getBookmarks()) {
+                inMemory.add(bookmark.getPageNumber());
+            }
+            assertEquals("document " + d, stored, inMemory);
+        }
+    }
+
+    @Test
+    public void favoritesFromManyThreadsArePersisted() throws Exception {
+        final int shared = documentIds.get(0);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int documentId = documentIds.get(DOCUMENTS + t);
+            tasks.add(() -> {
+                FavoriteManager favorites = new FavoriteManager(context);
+                for (int i = 0; i < PER_THREAD; i++) {
+                    // Each thread toggles its own document and keeps re-adding a shared one
+                    if (i % 2 == 0) {
+                        favorites.addToFavorites(documentId, "content://test/" + documentId, "test");
+                    } else {
+                        favorites.removeFromFavorites(documentId);
+                    }
+                    favorites.addToFavorites(shared, "content://test/" + shared, "shared");
+                }
+                // PER_THREAD is even, so the last change removed it; documents with odd ids end up added
+                if (documentId % 2 != 0) {
+                    favorites.addToFavorites(documentId, "content://test/" + documentId, "test");
+                }
+                return null;
+            });
+        }
+        runTogether(tasks);
+        database.getJournal().flush();
+
+        FavoriteManager favorites = new FavoriteManager(context);
+        assertTrue(isStoredFavorite(shared));
+        assertTrue(favorites.isFavorite(shared));
+        for (int t = 0; t < THREADS; t++) {
+            int documentId = documentIds.get(DOCUMENTS + t);
+            boolean expected = documentId % 2 != 0;
+            assertEquals("document " + documentId, expected, isStoredFavorite(documentId));
+            assertEquals("document " + documentId, expected, favorites.isFavorite(documentId));
+        }
+    }
+
+    private boolean isStoredFavorite(int documentId) {
+        try (Cursor cursor = database.getReadableDatabase().rawQuery("SELECT 1 FROM " + LibraryDatabase.TABLE_FAVORITES
+                + " WHERE " + LibraryDatabase.COLUMN_DOCUMENT_ID + " = ?", new String[]{String.valueOf(documentId)})) {
+            return cursor.moveToFirst();
+        }
+    }
+
+    // Starts every task at the same moment and rethrows the first failure
+    private static void runTogether(List<Callable<Void>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (final Callable<Void> task : tasks) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(120, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -3,17 +3,29 @@ package com.pdfmaster.reader;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.widget.Toast;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class AllBookmarksActivity extends AppCompatActivity {
 
+    private static final int PAGE_SIZE = 50;
+
     private RecyclerView recyclerView;
     private AllBookmarksAdapter adapter;
     private GlobalBookmarkManager globalBookmarkManager;
+    private final ExecutorService loadExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private boolean loading;
+    private boolean allLoaded;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -30,20 +42,44 @@ public class AllBookmarksActivity extends AppCompatActivity {
         globalBookmarkManager = new GlobalBookmarkManager(this);
 
         recyclerView = findViewById(R.id.recycler_view_bookmarks);
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
+        adapter = new AllBookmarksAdapter(new ArrayList<>(), this::onBookmarkClick);
+        recyclerView.setAdapter(adapter);
 
-        loadBookmarks();
-    }
+        // Fetch the next page once the user scrolls within half a page of the end
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView view, int dx, int dy) {
+                if (layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - PAGE_SIZE / 2) {
+                    loadNextPage();
+                }
+            }
+        });
 
-    private void loadBookmarks() {
-        List<GlobalBookmarkManager.GlobalBookmark> bookmarks = globalBookmarkManager.getAllBookmarks();
+        loadNextPage();
+    }
 
-        if (bookmarks.isEmpty()) {
-            Toast.makeText(this, "No bookmarks found", Toast.LENGTH_SHORT).show();
+    private void loadNextPage() {
+        if (loading || allLoaded) {
+            return;
         }
-
-        adapter = new AllBookmarksAdapter(bookmarks, this::onBookmarkClick);
-        recyclerView.setAdapter(adapter);
+        loading = true;
+        final GlobalBookmarkManager.GlobalBookmark after = adapter.getLastBookmark();
+        loadExecutor.execute(() -> {
+            final List<GlobalBookmarkManager.GlobalBookmark> page = globalBookmarkManager.getBookmarksPage(after, PAGE_SIZE);
+            mainHandler.post(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                loading = false;
+                allLoaded = page.size() < PAGE_SIZE;
+                if (after == null && page.isEmpty()) {
+                    Toast.makeText(this, "No bookmarks found", Toast.LENGTH_SHORT).show();
+                }
+                adapter.appendBookmarks(page);
+            });
+        });
     }
 
     private void onBookmarkClick(GlobalBookmarkManager.GlobalBookmark bookmark) {
@@ -62,4 +98,10 @@ public class AllBookmarksActivity extends AppCompatActivity {
         onBackPressed();
         return true;
     }
+
+    @Override
+    protected void onDestroy() {
+        loadExecutor.shutdownNow();
+        super.onDestroy();
+    }
 }
@@ -54,6 +54,16 @@ public class AllBookmarksAdapter extends RecyclerView.Adapter<AllBookmarksAdapte
         return bookmarks.size();
     }
 
+    public void appendBookmarks(List<GlobalBookmarkManager.GlobalBookmark> page) {
+        int start = bookmarks.size();
+        bookmarks.addAll(page);
+        notifyItemRangeInserted(start, page.size());
+    }
+
+    public GlobalBookmarkManager.GlobalBookmark getLastBookmark() {
+        return bookmarks.isEmpty() ? null : bookmarks.get(bookmarks.size() - 1);
+    }
+
     static class BookmarkViewHolder extends RecyclerView.ViewHolder {
         private TextView titleText;
         private TextView fileNameText;
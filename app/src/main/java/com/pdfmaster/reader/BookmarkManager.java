@@ -1,97 +1,228 @@
 package com.pdfmaster.reader;
 
 import android.content.Context;
-import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.util.Log;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Set;
 
+/**
+ * Bookmarks of one document, stored under its registry id (see DocumentIdentity) so
+ * they are found whichever URI the file is opened through. The document's bookmarks
+ * are read from the database once and then kept in memory, shared by every
+ * BookmarkManager for the same document, so checking a page on every page flip is a
+ * bit lookup rather than a query.
+ */
 public class BookmarkManager {
 
     private static final String TAG = "BookmarkManager";
+    // Documents whose bookmarks stay loaded; the open one plus a few recently closed
+    private static final int MAX_LOADED_DOCUMENTS = 4;
+
+    // Most recently used first; too few to need more than a scan
+    private static final int[] loadedIds = new int[MAX_LOADED_DOCUMENTS];
+    private static final PageBookmarks[] loaded = new PageBookmarks[MAX_LOADED_DOCUMENTS];
+    private static int loadedCount;
+
+    // Loading and changing a document's bookmarks hold the lock for its id's stripe, so a
+    // reload after eviction cannot miss a change being made at the same time
+    private static final Object[] locks = new Object[16];
+
+    static {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
     private Context context;
-    private SharedPreferences preferences;
-    private String currentFileUri;
+    private LibraryDatabase database;
+    private int documentId;
 
-    public BookmarkManager(Context context, String fileUri) {
+    // The id comes from DocumentIdentity, which may read the file, so callers resolve it off
+    // the UI thread; constructing loads the document's bookmarks if they are not in memory
+    public BookmarkManager(Context context, int documentId) {
         this.context = context;
-        this.currentFileUri = fileUri;
-        this.preferences = context.getSharedPreferences("bookmarks_" + fileUri.hashCode(), Context.MODE_PRIVATE);
+        this.database = LibraryDatabase.getInstance(context);
+        this.documentId = documentId;
+        load(documentId);
     }
 
     public void addBookmark(int pageNumber, String title) {
-        try {
-            Set<String> existingBookmarks = preferences.getStringSet("bookmarks", new HashSet<>());
-            Set<String> bookmarks = existingBookmarks != null ? new HashSet<>(existingBookmarks) : new HashSet<>();
+        if (documentId == 0) {
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        synchronized (lockFor(documentId)) {
+            // Memory first so the page shows as bookmarked at once; the journal writes it later,
+            // in the same order as the changes were made
+            load(documentId).put(pageNumber, title, timestamp);
+            database.getJournal().putBookmark(documentId, pageNumber, title, timestamp);
+        }
+    }
+
+    public void removeBookmark(int pageNumber) {
+        if (documentId == 0) {
+            return;
+        }
+        synchronized (lockFor(documentId)) {
+            load(documentId).remove(pageNumber);
+            database.getJournal().deleteBookmark(documentId, pageNumber);
+        }
+    }
+
+    // Sorted by page number
+    public List<Bookmark> getBookmarks() {
+        return load(documentId).toList();
+    }
+
+    public boolean isBookmarked(int pageNumber) {
+        return load(documentId).contains(pageNumber);
+    }
+
+    // Called when the registry merges one document into another
+    static void documentMerged(int fromId, int toId) {
+        synchronized (loaded) {
+            // Loaded again from the merged rows
+            unload(fromId);
+            unload(toId);
+        }
+    }
 
-            String bookmark = pageNumber + "|" + title + "|" + System.currentTimeMillis();
-            bookmarks.add(bookmark);
+    private static Object lockFor(int documentId) {
+        return locks[documentId & (locks.length - 1)];
+    }
 
-            boolean success = preferences.edit().putStringSet("bookmarks", bookmarks).commit();
-            if (!success) {
-                Log.e(TAG, "Failed to save bookmark to SharedPreferences");
+    // Callers hold the loaded lock
+    private static PageBookmarks findLoaded(int documentId) {
+        for (int i = 0; i < loadedCount; i++) {
+            if (loadedIds[i] == documentId) {
+                PageBookmarks bookmarks = loaded[i];
+                System.arraycopy(loadedIds, 0, loadedIds, 1, i);
+                System.arraycopy(loaded, 0, loaded, 1, i);
+                loadedIds[0] = documentId;
+                loaded[0] = bookmarks;
+                return bookmarks;
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error adding bookmark", e);
         }
+        return null;
     }
 
-    public void removeBookmark(int pageNumber) {
-        try {
-            Set<String> existingBookmarks = preferences.getStringSet("bookmarks", new HashSet<>());
-            if (existingBookmarks != null) {
-                Set<String> bookmarks = new HashSet<>(existingBookmarks);
-                bookmarks.removeIf(bookmark -> bookmark != null && bookmark.startsWith(pageNumber + "|"));
-                preferences.edit().putStringSet("bookmarks", bookmarks).commit();
+    private static void unload(int documentId) {
+        for (int i = 0; i < loadedCount; i++) {
+            if (loadedIds[i] == documentId) {
+                System.arraycopy(loadedIds, i + 1, loadedIds, i, loadedCount - i - 1);
+                System.arraycopy(loaded, i + 1, loaded, i, loadedCount - i - 1);
+                loadedCount--;
+                loaded[loadedCount] = null;
+                return;
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error removing bookmark", e);
         }
     }
 
-    public List<Bookmark> getBookmarks() {
-        List<Bookmark> bookmarks = new ArrayList<>();
-        try {
-            Set<String> bookmarkStrings = preferences.getStringSet("bookmarks", new HashSet<>());
-            if (bookmarkStrings != null) {
-                for (String bookmarkString : bookmarkStrings) {
-                    if (bookmarkString != null && !bookmarkString.isEmpty()) {
-                        try {
-                            String[] parts = bookmarkString.split("\\|");
-                            if (parts.length >= 3) {
-                                int pageNumber = Integer.parseInt(parts[0]);
-                                String title = parts[1];
-                                long timestamp = Long.parseLong(parts[2]);
-                                bookmarks.add(new Bookmark(pageNumber, title, timestamp));
-                            }
-                        } catch (NumberFormatException e) {
-                            Log.w(TAG, "Invalid bookmark format: " + bookmarkString, e);
-                        }
+    private PageBookmarks load(int documentId) {
+        synchronized (loaded) {
+            PageBookmarks bookmarks = findLoaded(documentId);
+            if (bookmarks != null) {
+                return bookmarks;
+            }
+        }
+        synchronized (lockFor(documentId)) {
+            synchronized (loaded) {
+                // Loaded by another thread while this one waited for the lock
+                PageBookmarks bookmarks = findLoaded(documentId);
+                if (bookmarks != null) {
+                    return bookmarks;
+                }
+            }
+            PageBookmarks bookmarks = new PageBookmarks();
+            if (documentId != 0) {
+                database.getJournal().flush();
+                // The (document, page) key returns them already in page order
+                try (Cursor cursor = database.getReadableDatabase().query(LibraryDatabase.TABLE_BOOKMARKS,
+                        new String[]{LibraryDatabase.COLUMN_PAGE, LibraryDatabase.COLUMN_TITLE, LibraryDatabase.COLUMN_TIMESTAMP},
+                        LibraryDatabase.COLUMN_DOCUMENT_ID + " = ?", new String[]{String.valueOf(documentId)},
+                        null, null, LibraryDatabase.COLUMN_PAGE)) {
+                    while (cursor.moveToNext()) {
+                        bookmarks.put(cursor.getInt(0), cursor.getString(1), cursor.getLong(2));
                     }
+                } catch (Exception e) {
+                    Log.e(TAG, "Error loading bookmarks", e);
                 }
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error loading bookmarks", e);
+            synchronized (loaded) {
+                // The least recently used document drops off the end
+                int kept = Math.min(loadedCount, MAX_LOADED_DOCUMENTS - 1);
+                System.arraycopy(loadedIds, 0, loadedIds, 1, kept);
+                System.arraycopy(loaded, 0, loaded, 1, kept);
+                loadedIds[0] = documentId;
+                loaded[0] = bookmarks;
+                loadedCount = kept + 1;
+            }
+            return bookmarks;
         }
-
-        // Sort by page number
-        bookmarks.sort((a, b) -> Integer.compare(a.getPageNumber(), b.getPageNumber()));
-        return bookmarks;
     }
 
-    public boolean isBookmarked(int pageNumber) {
-        try {
-            Set<String> bookmarks = preferences.getStringSet("bookmarks", new HashSet<>());
-            if (bookmarks != null) {
-                return bookmarks.stream().anyMatch(bookmark ->
-                        bookmark != null && bookmark.startsWith(pageNumber + "|"));
+    /**
+     * A document's bookmarks as a bit per page for lookups, plus the bookmarked pages in
+     * ascending order with their titles and timestamps in parallel arrays.
+     */
+    static class PageBookmarks {
+        private final BitSet pages = new BitSet();
+        private int[] pageNumbers = new int[8];
+        private String[] titles = new String[8];
+        private long[] timestamps = new long[8];
+        private int count;
+
+        synchronized boolean contains(int pageNumber) {
+            return pageNumber >= 0 && pages.get(pageNumber);
+        }
+
+        synchronized void put(int pageNumber, String title, long timestamp) {
+            if (pageNumber < 0) {
+                return;
+            }
+            int index = Arrays.binarySearch(pageNumbers, 0, count, pageNumber);
+            if (index < 0) {
+                index = -index - 1;
+                if (count == pageNumbers.length) {
+                    int capacity = count * 2;
+                    pageNumbers = Arrays.copyOf(pageNumbers, capacity);
+                    titles = Arrays.copyOf(titles, capacity);
+                    timestamps = Arrays.copyOf(timestamps, capacity);
+                }
+                System.arraycopy(pageNumbers, index, pageNumbers, index + 1, count - index);
+                System.arraycopy(titles, index, titles, index + 1, count - index);
+                System.arraycopy(timestamps, index, timestamps, index + 1, count - index);
+                count++;
+                pageNumbers[index] = pageNumber;
+                pages.set(pageNumber);
+            }
+            titles[index] = title;
+            timestamps[index] = timestamp;
+        }
+
+        synchronized void remove(int pageNumber) {
+            int index = Arrays.binarySearch(pageNumbers, 0, count, pageNumber);
+            if (index < 0) {
+                return;
+            }
+            System.arraycopy(pageNumbers, index + 1, pageNumbers, index, count - index - 1);
+            System.arraycopy(titles, index + 1, titles, index, count - index - 1);
+            System.arraycopy(timestamps, index + 1, timestamps, index, count - index - 1);
+            count--;
+            titles[count] = null;
+            pages.clear(pageNumber);
+        }
+
+        synchronized List<Bookmark> toList() {
+            List<Bookmark> bookmarks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                bookmarks.add(new Bookmark(pageNumbers[i], titles[i], timestamps[i]));
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error checking bookmark status", e);
+            return bookmarks;
         }
-        return false;
     }
 
     public static class Bookmark {
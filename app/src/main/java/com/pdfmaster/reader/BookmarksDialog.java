@@ -18,7 +18,7 @@ public class BookmarksDialog extends DialogFragment {
 
     private static final String TAG = "BookmarksDialog";
     private static final String ARG_CURRENT_PAGE = "current_page";
-    private static final String ARG_FILE_URI = "file_uri";
+    private static final String ARG_DOCUMENT_ID = "document_id";
 
     private BookmarkManager bookmarkManager;
     private OnBookmarkClickListener bookmarkClickListener;
@@ -29,10 +29,11 @@ public class BookmarksDialog extends DialogFragment {
         void onBookmarkClick(int pageNumber);
     }
 
-    public static BookmarksDialog newInstance(String fileUri, int currentPage, OnBookmarkClickListener listener) {
+    // Takes the document's registry id, which the viewer resolved when it opened the file
+    public static BookmarksDialog newInstance(int documentId, int currentPage, OnBookmarkClickListener listener) {
         BookmarksDialog dialog = new BookmarksDialog();
         Bundle args = new Bundle();
-        args.putString(ARG_FILE_URI, fileUri);
+        args.putInt(ARG_DOCUMENT_ID, documentId);
         args.putInt(ARG_CURRENT_PAGE, currentPage);
         dialog.setArguments(args);
         dialog.bookmarkClickListener = listener;
@@ -43,10 +44,10 @@ public class BookmarksDialog extends DialogFragment {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         if (getArguments() != null) {
-            String fileUri = getArguments().getString(ARG_FILE_URI);
+            int documentId = getArguments().getInt(ARG_DOCUMENT_ID, 0);
             currentPage = getArguments().getInt(ARG_CURRENT_PAGE, 0);
-            if (fileUri != null && getContext() != null) {
-                bookmarkManager = new BookmarkManager(getContext(), fileUri);
+            if (documentId != 0 && getContext() != null) {
+                bookmarkManager = new BookmarkManager(getContext(), documentId);
             }
         }
     }
@@ -0,0 +1,84 @@
+package com.pdfmaster.reader;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * File handling shared by the on-disk caches, PDFTextCache and SpeechAudioCache:
+ * digest file names, marking entries as used, and trimming to a byte budget least
+ * recently used first. A file's modification time is its last use. Trimming lists and
+ * sorts the directory without holding the cache's lock.
+ */
+final class CacheFiles {
+
+    // Fraction of the budget a trim brings the cache down to
+    static final double TRIM_TARGET = 0.9;
+
+    private CacheFiles() {
+    }
+
+    static String sha1(String value) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+
+    // Touch the file so trimming treats it as recently used
+    static void touch(File file) {
+        file.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Once the files add up to more than maxBytes, deletes the least recently used until
+     * they are within TRIM_TARGET of it, so the next few writes do not trim again. Files
+     * in keep are left alone; each is checked and deleted holding lock, which the caller
+     * holds while adding to keep, and nothing else is done under it. Directories below
+     * root that are left empty are removed. Returns the bytes remaining.
+     */
+    static long trim(List<File> files, long maxBytes, Set<File> keep, Object lock, File root) {
+        final Map<File, Long> modified = new HashMap<>();
+        long totalBytes = 0;
+        for (File file : files) {
+            modified.put(file, file.lastModified());
+            totalBytes += file.length();
+        }
+        if (totalBytes <= maxBytes) {
+            return totalBytes;
+        }
+        long targetBytes = (long) (maxBytes * TRIM_TARGET);
+        Collections.sort(files, (a, b) -> Long.compare(modified.get(a), modified.get(b)));
+        for (File file : files) {
+            if (totalBytes <= targetBytes) {
+                break;
+            }
+            long size = file.length();
+            boolean deleted;
+            synchronized (lock) {
+                deleted = !keep.contains(file) && file.delete();
+            }
+            if (deleted) {
+                totalBytes -= size;
+                File dir = file.getParentFile();
+                String[] remaining = dir.list();
+                if (!dir.equals(root) && remaining != null && remaining.length == 0) {
+                    dir.delete();
+                }
+            }
+        }
+        return totalBytes;
+    }
+}
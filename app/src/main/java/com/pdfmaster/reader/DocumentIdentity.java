@@ -0,0 +1,266 @@
+package com.pdfmaster.reader;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.util.Log;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of documents, identified by their contents rather than by the URI they were
+ * opened through, so bookmarks, favorites and cached text follow a file across renames,
+ * moves and re-shares. Each document is given an integer id once, which every table and
+ * in-memory index refers to it by. The fingerprint hashes the file size, the first and
+ * last 64 KB and the trailer /ID, read with positional reads. Each URI's document is kept
+ * in the alias table with the size and date it was identified at, and the file is read
+ * again only when those change, or every time if the provider does not report them.
+ */
+public class DocumentIdentity {
+
+    private static final String TAG = "DocumentIdentity";
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final int MAX_ENTRIES = 128;
+
+    private static DocumentIdentity instance;
+
+    private Context context;
+    private LibraryDatabase database;
+    private UriMetadataResolver metadataResolver;
+    private final LinkedHashMap<String, Alias> aliases = new LinkedHashMap<String, Alias>(32, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Alias> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private DocumentIdentity(Context context) {
+        this.context = context;
+        this.database = LibraryDatabase.getInstance(context);
+        this.metadataResolver = UriMetadataResolver.getInstance(context);
+    }
+
+    public static synchronized DocumentIdentity getInstance(Context context) {
+        if (instance == null) {
+            instance = new DocumentIdentity(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the id per-document state is stored under, fingerprinting the document if
+     * its URI is new or the file changed. A document edited in place keeps its id.
+     * Documents that cannot be read keep their last known id, or are registered by
+     * their URI. Returns 0 only if the registry cannot be written.
+     */
+    public int getDocumentId(Uri uri) {
+        String uriString = uri.toString();
+        UriMetadataResolver.Metadata metadata = metadataResolver.get(uri);
+        Alias alias = findAlias(uriString);
+        if (alias != null && alias.matches(metadata)) {
+            return alias.documentId;
+        }
+        String fingerprint = fingerprint(uri);
+        if (fingerprint == null || (alias != null && alias.unchanged(fingerprint, metadata))) {
+            if (alias != null) {
+                return alias.documentId;
+            }
+            try {
+                return LibraryDatabase.documentId(database.getWritableDatabase(), uriString, uriString, null);
+            } catch (Exception e) {
+                Log.e(TAG, "Error registering " + uriString, e);
+                return 0;
+            }
+        }
+        return identify(uriString, alias, fingerprint, metadata);
+    }
+
+    // The id the URI was last known by, without reading the document; 0 if it never was
+    public int findDocumentId(Uri uri) {
+        String uriString = uri.toString();
+        Alias alias = findAlias(uriString);
+        if (alias != null) {
+            return alias.documentId;
+        }
+        try {
+            return LibraryDatabase.findDocumentId(database.getReadableDatabase(), uriString);
+        } catch (Exception e) {
+            Log.e(TAG, "Error finding " + uriString, e);
+            return 0;
+        }
+    }
+
+    // The fingerprint the URI's contents were last identified by, for content-addressed caches
+    public String getDocumentKey(Uri uri) {
+        getDocumentId(uri);
+        Alias alias = findAlias(uri.toString());
+        return alias != null ? alias.documentKey : uri.toString();
+    }
+
+    private synchronized int identify(String uriString, Alias alias, String fingerprint, UriMetadataResolver.Metadata metadata) {
+        int documentId;
+        int mergedId = 0;
+        try {
+            // Merging moves rows that changes still in the journal may refer to
+            database.getJournal().flush();
+            SQLiteDatabase db = database.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                int existingId = LibraryDatabase.findDocumentId(db, fingerprint);
+                // What the URI was known as: its previous contents, or the URI itself from
+                // before fingerprints
+                int previousId = alias != null ? alias.documentId : LibraryDatabase.findDocumentId(db, uriString);
+                if (existingId > 0) {
+                    documentId = existingId;
+                    if (previousId > 0 && previousId != existingId) {
+                        LibraryDatabase.mergeDocuments(db, previousId, existingId);
+                        mergedId = previousId;
+                    }
+                } else if (previousId > 0) {
+                    // New contents for a document already registered, which keeps its id
+                    ContentValues key = new ContentValues();
+                    key.put(LibraryDatabase.COLUMN_DOCUMENT_KEY, fingerprint);
+                    db.update(LibraryDatabase.TABLE_DOCUMENTS, key, LibraryDatabase.COLUMN_ID + " = ?",
+                            new String[]{String.valueOf(previousId)});
+                    documentId = previousId;
+                } else {
+                    documentId = LibraryDatabase.documentId(db, fingerprint, uriString, null);
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(LibraryDatabase.COLUMN_URI, uriString);
+                values.put(LibraryDatabase.COLUMN_DOCUMENT_ID, documentId);
+                values.put(LibraryDatabase.COLUMN_SIZE, metadata.getSize());
+                values.put(LibraryDatabase.COLUMN_MODIFIED, metadata.getLastModified());
+                db.insertWithOnConflict(LibraryDatabase.TABLE_DOCUMENT_ALIASES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                // Listings open the document through this URI from now on
+                ContentValues location = new ContentValues();
+                location.put(LibraryDatabase.COLUMN_URI, uriString);
+                db.update(LibraryDatabase.TABLE_DOCUMENTS, location, LibraryDatabase.COLUMN_ID + " = ?",
+                        new String[]{String.valueOf(documentId)});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error registering " + uriString, e);
+            return alias != null ? alias.documentId : 0;
+        }
+        synchronized (aliases) {
+            aliases.put(uriString, new Alias(documentId, fingerprint, metadata.getSize(), metadata.getLastModified()));
+            if (mergedId != 0) {
+                // Other URIs of the merged document now belong to this one
+                aliases.clear();
+            }
+        }
+        if (mergedId != 0) {
+            BookmarkManager.documentMerged(mergedId, documentId);
+            FavoriteManager.documentMerged(mergedId, documentId);
+        }
+        FavoriteManager.documentLocated(documentId, uriString);
+        return documentId;
+    }
+
+    private Alias findAlias(String uriString) {
+        synchronized (aliases) {
+            Alias alias = aliases.get(uriString);
+            if (alias != null) {
+                return alias;
+            }
+        }
+        Alias alias = null;
+        String sql = "SELECT a." + LibraryDatabase.COLUMN_DOCUMENT_ID + ", d." + LibraryDatabase.COLUMN_DOCUMENT_KEY
+                + ", a." + LibraryDatabase.COLUMN_SIZE + ", a." + LibraryDatabase.COLUMN_MODIFIED
+                + " FROM " + LibraryDatabase.TABLE_DOCUMENT_ALIASES + " a JOIN " + LibraryDatabase.TABLE_DOCUMENTS
+                + " d ON d." + LibraryDatabase.COLUMN_ID + " = a." + LibraryDatabase.COLUMN_DOCUMENT_ID
+                + " WHERE a." + LibraryDatabase.COLUMN_URI + " = ?";
+        try (Cursor cursor = database.getReadableDatabase().rawQuery(sql, new String[]{uriString})) {
+            if (cursor.moveToFirst()) {
+                alias = new Alias(cursor.getInt(0), cursor.getString(1), cursor.getLong(2), cursor.getLong(3));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading alias", e);
+        }
+        if (alias != null) {
+            synchronized (aliases) {
+                aliases.put(uriString, alias);
+            }
+        }
+        return alias;
+    }
+
+    private String fingerprint(Uri uri) {
+        try (PDFRandomAccessSource source = PDFRandomAccessSource.open(context, uri)) {
+            return fingerprint(source);
+        } catch (Exception e) {
+            Log.w(TAG, "Could not fingerprint " + uri, e);
+            return null;
+        }
+    }
+
+    static String fingerprint(PDFRandomAccessSource source) throws Exception {
+        long length = source.length();
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            digest.update((byte) (length >>> shift));
+        }
+        if (length > 0) {
+            digest.update(source.read(0, SAMPLE_SIZE));
+        }
+        if (length > SAMPLE_SIZE) {
+            // The last 64 KB, or whatever follows the first block in smaller files
+            long tailStart = Math.max(SAMPLE_SIZE, length - SAMPLE_SIZE);
+            digest.update(source.read(tailStart, (int) (length - tailStart)));
+        }
+        // The /ID is usually within the sampled bytes already, but it also tells apart
+        // documents whose first and last blocks are generated identically
+        try {
+            List<Object> id = PDFObjectParser.asArray(new PDFDocument(source).getTrailer().get("ID"));
+            if (id != null) {
+                for (Object part : id) {
+                    if (part instanceof byte[]) {
+                        digest.update((byte[]) part);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "No trailer ID: " + e.getMessage());
+        }
+        byte[] hash = digest.digest();
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static class Alias {
+        private final int documentId;
+        private final String documentKey;
+        private final long size;
+        private final long modified;
+
+        Alias(int documentId, String documentKey, long size, long modified) {
+            this.documentId = documentId;
+            this.documentKey = documentKey;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        // Only a known size and date can show the file is unchanged without reading it
+        boolean matches(UriMetadataResolver.Metadata metadata) {
+            return metadata.getSize() >= 0 && metadata.getLastModified() >= 0
+                    && size == metadata.getSize() && modified == metadata.getLastModified();
+        }
+
+        // Read again and found the same, with nothing new to store for it
+        boolean unchanged(String fingerprint, UriMetadataResolver.Metadata metadata) {
+            return documentKey.equals(fingerprint) && size == metadata.getSize() && modified == metadata.getLastModified();
+        }
+    }
+}
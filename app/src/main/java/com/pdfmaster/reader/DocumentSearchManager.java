@@ -0,0 +1,230 @@
+package com.pdfmaster.reader;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Find-in-document for the open PDF. Pages are scanned one at a time on a background
+ * thread, starting at the page being viewed, and each page with matches is reported on
+ * the main thread as soon as it is scanned. Starting a new search abandons the old one
+ * after the page in progress.
+ *
+ * Matching runs against a case- and diacritic-folded copy of each page's text. The
+ * folded pages are kept for the open document, so refining the query while typing
+ * scans memory rather than the PDF.
+ *
+ * Pages with matches can then be asked for highlight rectangles. These come from the
+ * page's PDFTextLayout, folded the same way with each folded character traced back to
+ * the one it came from, so highlights and match counts always agree.
+ */
+public class DocumentSearchManager {
+
+    private static final String TAG = "DocumentSearchManager";
+
+    public interface Listener {
+        void onPageMatched(int page, int matchCount);
+
+        void onSearchFinished(boolean complete);
+    }
+
+    public interface HighlightListener {
+        // Rectangles as consecutive left, top, right, bottom values, as fractions of the page size
+        void onHighlights(int page, float[] rectangles);
+    }
+
+    private PDFTextExtractor textExtractor;
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    // Separate from the scan, so the page on screen is highlighted without waiting for it
+    private final ExecutorService highlightExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Bumped by every search and cancel; a scan stops once it no longer matches
+    private volatile int generation;
+    private Uri foldedUri;
+    private String[] foldedPages;
+
+    public DocumentSearchManager(PDFTextExtractor textExtractor) {
+        this.textExtractor = textExtractor;
+    }
+
+    public void search(final Uri uri, final int pageCount, final int startPage, String query, final Listener listener) {
+        final int searchGeneration = ++generation;
+        final String folded = fold(query).trim();
+        if (folded.isEmpty() || pageCount <= 0) {
+            mainHandler.post(() -> {
+                if (searchGeneration == generation) {
+                    listener.onSearchFinished(true);
+                }
+            });
+            return;
+        }
+        searchExecutor.execute(() -> scan(uri, pageCount, startPage, folded, searchGeneration, listener));
+    }
+
+    // Finds where the current query matches on a page; reported only if no other search has started since
+    public void highlight(final Uri uri, final int page, String query, final HighlightListener listener) {
+        final int searchGeneration = generation;
+        final String folded = fold(query).trim();
+        if (folded.isEmpty()) {
+            return;
+        }
+        highlightExecutor.execute(() -> {
+            if (searchGeneration != generation) {
+                return;
+            }
+            PDFTextLayout layout = textExtractor.extractPageLayout(uri, page);
+            final float[] rectangles = layout != null ? matchRectangles(layout, folded) : new float[0];
+            mainHandler.post(() -> {
+                if (searchGeneration == generation) {
+                    listener.onHighlights(page, rectangles);
+                }
+            });
+        });
+    }
+
+    public void cancel() {
+        generation++;
+    }
+
+    // Stops the search and highlight threads without waiting for the page in progress
+    public void shutdown() {
+        cancel();
+        searchExecutor.shutdownNow();
+        highlightExecutor.shutdownNow();
+    }
+
+    // Returns once both threads have stopped after shutdown(), so the extractor can then be
+    // closed without a scan reopening the document behind it. Blocks, so not for the UI thread.
+    public void awaitTermination() throws InterruptedException {
+        searchExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        highlightExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    // Runs on the search thread, which alone touches the folded page cache
+    private void scan(Uri uri, int pageCount, int startPage, String query, final int searchGeneration,
+                      final Listener listener) {
+        if (foldedPages == null || !uri.equals(foldedUri) || foldedPages.length != pageCount) {
+            foldedUri = uri;
+            foldedPages = new String[pageCount];
+        }
+        int first = Math.max(0, Math.min(startPage, pageCount - 1));
+        boolean complete = true;
+        try {
+            // From the page being viewed to the end, then wrapping round to it
+            for (int i = 0; i < pageCount; i++) {
+                if (searchGeneration != generation) {
+                    complete = false;
+                    break;
+                }
+                final int page = (first + i) % pageCount;
+                String text = foldedPages[page];
+                if (text == null) {
+                    text = fold(textExtractor.extractPageText(uri, page));
+                    foldedPages[page] = text;
+                }
+                final int matches = countMatches(text, query);
+                if (matches > 0) {
+                    mainHandler.post(() -> {
+                        if (searchGeneration == generation) {
+                            listener.onPageMatched(page, matches);
+                        }
+                    });
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error searching document", e);
+            complete = false;
+        }
+        final boolean finished = complete;
+        mainHandler.post(() -> {
+            if (searchGeneration == generation) {
+                listener.onSearchFinished(finished);
+            }
+        });
+    }
+
+    static int countMatches(String text, String query) {
+        int count = 0;
+        for (int index = text.indexOf(query); index >= 0; index = text.indexOf(query, index + query.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    // Every match of query in the layout's text, scaled to fractions of the page size
+    static float[] matchRectangles(PDFTextLayout layout, String query) {
+        String text = layout.getText();
+        FoldedText folded = fold(text, true);
+        float[] rectangles = new float[0];
+        for (int index = folded.text.indexOf(query); index >= 0;
+             index = folded.text.indexOf(query, index + query.length())) {
+            float[] match = layout.getRectangles(folded.origin(index), folded.origin(index + query.length()));
+            int count = rectangles.length;
+            rectangles = Arrays.copyOf(rectangles, count + match.length);
+            System.arraycopy(match, 0, rectangles, count, match.length);
+        }
+        float width = layout.getPageWidth();
+        float height = layout.getPageHeight();
+        for (int i = 0; i < rectangles.length; i++) {
+            rectangles[i] /= (i & 1) == 0 ? width : height;
+        }
+        return rectangles;
+    }
+
+    // Line breaks in extracted text match spaces in the query
+    static String fold(String text) {
+        return fold(text, false).text;
+    }
+
+    // Folds a character at a time as PDFSearchIndex.fold() does, with each run of whitespace as one space
+    static FoldedText fold(String text, boolean trackOrigins) {
+        StringBuilder folded = new StringBuilder(text.length());
+        int[] origins = trackOrigins ? new int[text.length()] : null;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            int before = folded.length();
+            if (codePoint == ' ' || codePoint == '\t' || codePoint == '\n' || codePoint == 0x0B
+                    || codePoint == '\f' || codePoint == '\r') {
+                if (before == 0 || folded.charAt(before - 1) != ' ') {
+                    folded.append(' ');
+                }
+            } else if (codePoint < 0x80) {
+                folded.append(Character.toLowerCase((char) codePoint));
+            } else {
+                folded.append(PDFSearchIndex.fold(new String(Character.toChars(codePoint))));
+            }
+            if (origins != null) {
+                // A few characters fold to more than one
+                if (folded.length() > origins.length) {
+                    origins = Arrays.copyOf(origins, Math.max(origins.length * 2, folded.length()));
+                }
+                Arrays.fill(origins, before, folded.length(), i);
+            }
+            i += Character.charCount(codePoint);
+        }
+        return new FoldedText(folded.toString(), origins, text.length());
+    }
+
+    // Folded text, with the offset in the original of each folded character when tracked
+    static class FoldedText {
+        final String text;
+        private final int[] origins;
+        private final int originalLength;
+
+        FoldedText(String text, int[] origins, int originalLength) {
+            this.text = text;
+            this.origins = origins;
+            this.originalLength = originalLength;
+        }
+
+        // Offset in the original of the folded character at index; the end of it past the last
+        int origin(int index) {
+            return index < text.length() ? origins[index] : originalLength;
+        }
+    }
+}
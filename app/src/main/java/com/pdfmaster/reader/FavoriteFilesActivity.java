@@ -3,17 +3,23 @@ package com.pdfmaster.reader;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class FavoriteFilesActivity extends AppCompatActivity {
 
     private RecyclerView recyclerView;
     private FavoriteFilesAdapter adapter;
     private FavoriteManager favoriteManager;
+    private final ExecutorService loadExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -54,15 +60,24 @@ public class FavoriteFilesActivity extends AppCompatActivity {
         }
     }
 
+    // The first listing reads the database, so it runs in the background
     private void loadFavorites() {
-        try {
-            if (favoriteManager == null) {
-                Toast.makeText(this, "Favorite manager not initialized", Toast.LENGTH_SHORT).show();
-                return;
-            }
-
-            List<FavoriteManager.FavoriteFile> favorites = favoriteManager.getFavoriteFiles();
+        if (favoriteManager == null) {
+            Toast.makeText(this, "Favorite manager not initialized", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        loadExecutor.execute(() -> {
+            final List<FavoriteManager.FavoriteFile> favorites = favoriteManager.getFavoriteFiles();
+            mainHandler.post(() -> {
+                if (!isDestroyed()) {
+                    showFavorites(favorites);
+                }
+            });
+        });
+    }
 
+    private void showFavorites(List<FavoriteManager.FavoriteFile> favorites) {
+        try {
             if (favorites == null) {
                 favorites = new java.util.ArrayList<>();
             }
@@ -110,7 +125,9 @@ public class FavoriteFilesActivity extends AppCompatActivity {
                 return;
             }
 
-            favoriteManager.removeFromFavorites(favorite.getFileUri());
+            // Finding the document's id may query the database
+            final String fileUri = favorite.getFileUri();
+            loadExecutor.execute(() -> favoriteManager.removeFromFavorites(fileUri));
             loadFavorites(); // Refresh the list
             Toast.makeText(this, "Removed from favorites", Toast.LENGTH_SHORT).show();
         } catch (Exception e) {
@@ -123,4 +140,11 @@ public class FavoriteFilesActivity extends AppCompatActivity {
         onBackPressed();
         return true;
     }
+
+    @Override
+    protected void onDestroy() {
+        // Lets a removal already queued finish
+        loadExecutor.shutdown();
+        super.onDestroy();
+    }
 }
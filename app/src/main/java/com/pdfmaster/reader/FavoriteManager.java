@@ -1,93 +1,210 @@
 package com.pdfmaster.reader;
 
 import android.content.Context;
-import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
 import android.util.Log;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
+/**
+ * Favorite documents, keyed by registry id (see DocumentIdentity) and listed with the
+ * URI each was last opened through. They are read from the database once and then kept
+ * in memory, shared by every FavoriteManager, so checking whether the open file is a
+ * favorite needs no query; changes reach the database through the library journal.
+ */
 public class FavoriteManager {
 
     private static final String TAG = "FavoriteManager";
-    private static final String FAVORITES_PREF = "favorite_files";
+
+    // Null until first used
+    private static FavoriteSet favorites;
+
     private Context context;
-    private SharedPreferences preferences;
+    private LibraryDatabase database;
+    private DocumentIdentity identity;
 
     public FavoriteManager(Context context) {
         this.context = context;
-        this.preferences = context.getSharedPreferences(FAVORITES_PREF, Context.MODE_PRIVATE);
+        this.database = LibraryDatabase.getInstance(context);
+        this.identity = DocumentIdentity.getInstance(context);
     }
 
-    public void addToFavorites(String fileUri, String fileName) {
-        try {
-            Set<String> existingFavorites = preferences.getStringSet("favorites", new HashSet<>());
-            Set<String> favorites = existingFavorites != null ? new HashSet<>(existingFavorites) : new HashSet<>();
+    // Takes the registry id the caller resolved for the document, off the UI thread
+    public void addToFavorites(int documentId, String fileUri, String fileName) {
+        if (documentId == 0) {
+            return;
+        }
+        FavoriteSet set = load();
+        long timestamp = System.currentTimeMillis();
+        synchronized (set) {
+            // Journaled under the same lock so the database sees changes in the order they were made
+            set.put(documentId, new FavoriteFile(fileUri, fileName, timestamp));
+            database.getJournal().putFavorite(documentId, fileName, timestamp);
+        }
+    }
 
-            String favorite = fileUri + "|" + fileName + "|" + System.currentTimeMillis();
-            favorites.add(favorite);
+    public void removeFromFavorites(String fileUri) {
+        removeFromFavorites(identity.findDocumentId(Uri.parse(fileUri)));
+    }
 
-            preferences.edit().putStringSet("favorites", favorites).commit();
-        } catch (Exception e) {
-            Log.e(TAG, "Error adding to favorites", e);
+    public void removeFromFavorites(int documentId) {
+        if (documentId == 0) {
+            return;
+        }
+        FavoriteSet set = load();
+        synchronized (set) {
+            set.remove(documentId);
+            database.getJournal().deleteFavorite(documentId);
         }
     }
 
-    public void removeFromFavorites(String fileUri) {
-        try {
-            Set<String> existingFavorites = preferences.getStringSet("favorites", new HashSet<>());
-            if (existingFavorites != null) {
-                Set<String> favorites = new HashSet<>(existingFavorites);
-                favorites.removeIf(favorite -> favorite != null && favorite.startsWith(fileUri + "|"));
-                preferences.edit().putStringSet("favorites", favorites).commit();
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error removing from favorites", e);
+    // Reads the favorites from the database unless they are already in memory; for a
+    // background thread, so later checks on the UI thread need no query
+    public void preload() {
+        load();
+    }
+
+    public boolean isFavorite(int documentId) {
+        return documentId != 0 && load().contains(documentId);
+    }
+
+    // Most recent first
+    public List<FavoriteFile> getFavoriteFiles() {
+        return load().toList();
+    }
+
+    // Called when a document is identified at a URI, which listings open it through from now on
+    static void documentLocated(int documentId, String uri) {
+        FavoriteSet set = loaded();
+        if (set != null) {
+            set.relocate(documentId, uri);
         }
     }
 
-    public boolean isFavorite(String fileUri) {
-        try {
-            Set<String> favorites = preferences.getStringSet("favorites", new HashSet<>());
+    // Called when the registry merges one document into another
+    static void documentMerged(int fromId, int toId) {
+        FavoriteSet set = loaded();
+        if (set != null) {
+            set.move(fromId, toId);
+        }
+    }
+
+    private static synchronized FavoriteSet loaded() {
+        return favorites;
+    }
+
+    private FavoriteSet load() {
+        synchronized (FavoriteManager.class) {
             if (favorites != null) {
-                return favorites.stream().anyMatch(favorite ->
-                        favorite != null && favorite.startsWith(fileUri + "|"));
+                return favorites;
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error checking favorite status", e);
+            FavoriteSet set = new FavoriteSet();
+            database.getJournal().flush();
+            String sql = "SELECT f." + LibraryDatabase.COLUMN_DOCUMENT_ID + ", d." + LibraryDatabase.COLUMN_URI
+                    + ", f." + LibraryDatabase.COLUMN_NAME + ", f." + LibraryDatabase.COLUMN_TIMESTAMP
+                    + " FROM " + LibraryDatabase.TABLE_FAVORITES + " f JOIN " + LibraryDatabase.TABLE_DOCUMENTS
+                    + " d ON d." + LibraryDatabase.COLUMN_ID + " = f." + LibraryDatabase.COLUMN_DOCUMENT_ID;
+            try (Cursor cursor = database.getReadableDatabase().rawQuery(sql, null)) {
+                while (cursor.moveToNext()) {
+                    set.put(cursor.getInt(0), new FavoriteFile(cursor.getString(1), cursor.getString(2), cursor.getLong(3)));
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading favorites", e);
+            }
+            favorites = set;
+            return set;
         }
-        return false;
     }
 
-    public List<FavoriteFile> getFavoriteFiles() {
-        List<FavoriteFile> favoriteFiles = new ArrayList<>();
-        try {
-            Set<String> favoriteStrings = preferences.getStringSet("favorites", new HashSet<>());
-            if (favoriteStrings != null) {
-                for (String favoriteString : favoriteStrings) {
-                    if (favoriteString != null && !favoriteString.isEmpty()) {
-                        try {
-                            String[] parts = favoriteString.split("\\|");
-                            if (parts.length >= 3) {
-                                String fileUri = parts[0];
-                                String fileName = parts[1];
-                                long timestamp = Long.parseLong(parts[2]);
-                                favoriteFiles.add(new FavoriteFile(fileUri, fileName, timestamp));
-                            }
-                        } catch (NumberFormatException e) {
-                            Log.w(TAG, "Invalid favorite format: " + favoriteString, e);
-                        }
-                    }
-                }
+    /**
+     * Favorites as a sorted array of document ids with the files in a parallel array.
+     * Changes copy both and publish the copy, so lookups and listings read a consistent
+     * snapshot without taking the lock.
+     */
+    static class FavoriteSet {
+        private volatile Snapshot snapshot = new Snapshot(new int[0], new FavoriteFile[0]);
+
+        boolean contains(int documentId) {
+            return Arrays.binarySearch(snapshot.documentIds, documentId) >= 0;
+        }
+
+        synchronized void put(int documentId, FavoriteFile file) {
+            int[] ids = snapshot.documentIds;
+            FavoriteFile[] files = snapshot.files;
+            int index = Arrays.binarySearch(ids, documentId);
+            if (index >= 0) {
+                FavoriteFile[] copy = files.clone();
+                copy[index] = file;
+                snapshot = new Snapshot(ids, copy);
+                return;
+            }
+            index = -index - 1;
+            int[] newIds = new int[ids.length + 1];
+            FavoriteFile[] newFiles = new FavoriteFile[files.length + 1];
+            System.arraycopy(ids, 0, newIds, 0, index);
+            System.arraycopy(files, 0, newFiles, 0, index);
+            newIds[index] = documentId;
+            newFiles[index] = file;
+            System.arraycopy(ids, index, newIds, index + 1, ids.length - index);
+            System.arraycopy(files, index, newFiles, index + 1, files.length - index);
+            snapshot = new Snapshot(newIds, newFiles);
+        }
+
+        synchronized void remove(int documentId) {
+            int[] ids = snapshot.documentIds;
+            FavoriteFile[] files = snapshot.files;
+            int index = Arrays.binarySearch(ids, documentId);
+            if (index < 0) {
+                return;
+            }
+            int[] newIds = new int[ids.length - 1];
+            FavoriteFile[] newFiles = new FavoriteFile[files.length - 1];
+            System.arraycopy(ids, 0, newIds, 0, index);
+            System.arraycopy(files, 0, newFiles, 0, index);
+            System.arraycopy(ids, index + 1, newIds, index, ids.length - index - 1);
+            System.arraycopy(files, index + 1, newFiles, index, files.length - index - 1);
+            snapshot = new Snapshot(newIds, newFiles);
+        }
+
+        // Mirrors the registry's merge: a favorite the second document already has wins
+        synchronized void move(int fromId, int toId) {
+            Snapshot current = snapshot;
+            int index = Arrays.binarySearch(current.documentIds, fromId);
+            if (index < 0) {
+                return;
+            }
+            remove(fromId);
+            if (!contains(toId)) {
+                put(toId, current.files[index]);
+            }
+        }
+
+        synchronized void relocate(int documentId, String uri) {
+            int index = Arrays.binarySearch(snapshot.documentIds, documentId);
+            if (index >= 0 && !uri.equals(snapshot.files[index].getFileUri())) {
+                FavoriteFile file = snapshot.files[index];
+                put(documentId, new FavoriteFile(uri, file.getFileName(), file.getTimestamp()));
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error loading favorites", e);
         }
 
-        // Sort by timestamp (most recent first)
-        favoriteFiles.sort((a, b) -> Long.compare(b.getTimestamp(), a.getTimestamp()));
-        return favoriteFiles;
+        List<FavoriteFile> toList() {
+            List<FavoriteFile> list = new ArrayList<>(Arrays.asList(snapshot.files));
+            Collections.sort(list, (a, b) -> Long.compare(b.getTimestamp(), a.getTimestamp()));
+            return list;
+        }
+
+        private static class Snapshot {
+            private final int[] documentIds;
+            private final FavoriteFile[] files;
+
+            Snapshot(int[] documentIds, FavoriteFile[] files) {
+                this.documentIds = documentIds;
+                this.files = files;
+            }
+        }
     }
 
     public static class FavoriteFile {
@@ -0,0 +1,146 @@
+package com.pdfmaster.reader;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks whether stored document URIs can still be opened. Each probe opens a stream to
+ * the provider, which can take hundreds of milliseconds for cloud-backed documents, so
+ * probes run in parallel on a small pool and report back on the main thread. Results
+ * are remembered for a while so lists can be filtered without probing again.
+ */
+public class FileAccessChecker {
+
+    private static final String TAG = "FileAccessChecker";
+    private static final int PROBE_THREADS = 4;
+    private static final long RESULT_TTL_MS = 5 * 60 * 1000;
+
+    public interface Listener {
+        void onAccessChecked(String fileUri, boolean accessible);
+    }
+
+    private static FileAccessChecker instance;
+
+    private Context context;
+    private final ExecutorService probeExecutor = Executors.newFixedThreadPool(PROBE_THREADS);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Result> results = new HashMap<>();
+    // Listeners waiting on each probe in flight
+    private final Map<String, List<Listener>> pending = new HashMap<>();
+
+    private FileAccessChecker(Context context) {
+        this.context = context;
+    }
+
+    public static synchronized FileAccessChecker getInstance(Context context) {
+        if (instance == null) {
+            instance = new FileAccessChecker(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // True only if a recent probe found the URI could not be opened
+    public synchronized boolean isKnownInaccessible(String fileUri) {
+        Result result = freshResult(fileUri);
+        return result != null && !result.accessible;
+    }
+
+    /**
+     * Probes each URI that has no recent result. The listener hears about every URI
+     * whose probe finishes, on the main thread; URIs with a recent result are skipped.
+     */
+    public synchronized void checkInBackground(List<String> fileUris, Listener listener) {
+        for (String fileUri : fileUris) {
+            if (freshResult(fileUri) != null) {
+                continue;
+            }
+            List<Listener> listeners = pending.get(fileUri);
+            if (listeners != null) {
+                // Already being probed for someone else
+                if (!listeners.contains(listener)) {
+                    listeners.add(listener);
+                }
+                continue;
+            }
+            listeners = new ArrayList<>();
+            listeners.add(listener);
+            pending.put(fileUri, listeners);
+            probeExecutor.execute(() -> finishProbe(fileUri, probe(fileUri)));
+        }
+    }
+
+    // Stops delivering results to the listener; probes already running still update the cache
+    public synchronized void cancel(Listener listener) {
+        for (List<Listener> listeners : pending.values()) {
+            listeners.remove(listener);
+        }
+    }
+
+    // Probes on the calling thread, bypassing and refreshing the cache
+    public boolean checkNow(String fileUri) {
+        boolean accessible = probe(fileUri);
+        synchronized (this) {
+            results.put(fileUri, new Result(accessible, SystemClock.elapsedRealtime()));
+        }
+        return accessible;
+    }
+
+    public synchronized void invalidate(String fileUri) {
+        results.remove(fileUri);
+    }
+
+    private boolean probe(String fileUri) {
+        try (InputStream inputStream = context.getContentResolver().openInputStream(Uri.parse(fileUri))) {
+            return inputStream != null;
+        } catch (Exception e) {
+            Log.d(TAG, "URI not accessible: " + fileUri);
+            return false;
+        }
+    }
+
+    private void finishProbe(final String fileUri, final boolean accessible) {
+        final List<Listener> listeners;
+        synchronized (this) {
+            results.put(fileUri, new Result(accessible, SystemClock.elapsedRealtime()));
+            listeners = pending.remove(fileUri);
+        }
+        if (listeners == null || listeners.isEmpty()) {
+            return;
+        }
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                listener.onAccessChecked(fileUri, accessible);
+            }
+        });
+    }
+
+    private Result freshResult(String fileUri) {
+        Result result = results.get(fileUri);
+        if (result != null && SystemClock.elapsedRealtime() - result.checkedAt > RESULT_TTL_MS) {
+            results.remove(fileUri);
+            return null;
+        }
+        return result;
+    }
+
+    private static class Result {
+        private final boolean accessible;
+        private final long checkedAt;
+
+        Result(boolean accessible, long checkedAt) {
+            this.accessible = accessible;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
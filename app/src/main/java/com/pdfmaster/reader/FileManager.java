@@ -1,154 +1,137 @@
 package com.pdfmaster.reader;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.content.UriPermission;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.DocumentsContract;
-import android.provider.OpenableColumns;
 import android.util.Log;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class FileManager {
 
     private static final String TAG = "FileManager";
+    // Retention settings for the reading history
+    private static final String HISTORY_PREFS = "reading_history";
+    private static final String KEY_MAX_ENTRIES = "max_entries";
+    private static final String KEY_MAX_AGE_DAYS = "max_age_days";
+    public static final int DEFAULT_HISTORY_MAX_ENTRIES = 50000;
     private Context context;
-    private SharedPreferences preferences;
+    private LibraryDatabase database;
+    private FileAccessChecker accessChecker;
+    private UriMetadataResolver metadataResolver;
 
     public FileManager(Context context) {
         this.context = context;
-        this.preferences = context.getSharedPreferences("recent_files", Context.MODE_PRIVATE);
+        this.database = LibraryDatabase.getInstance(context);
+        this.accessChecker = FileAccessChecker.getInstance(context);
+        this.metadataResolver = UriMetadataResolver.getInstance(context);
+        applyHistoryRetention();
     }
 
-    public void addToRecentFiles(Uri uri, String fileName) {
-        addToRecentFiles(uri, fileName, 0);
+    /**
+     * Sets how much reading history is kept: at most maxEntries files, none opened more
+     * than maxAgeDays ago. 0 means no limit. Takes effect the next time a file is added.
+     */
+    public void setHistoryRetention(int maxEntries, int maxAgeDays) {
+        context.getSharedPreferences(HISTORY_PREFS, Context.MODE_PRIVATE).edit()
+                .putInt(KEY_MAX_ENTRIES, Math.max(0, maxEntries))
+                .putInt(KEY_MAX_AGE_DAYS, Math.max(0, maxAgeDays))
+                .apply();
+        applyHistoryRetention();
     }
 
-    public void addToRecentFiles(Uri uri, String fileName, int pageCount) {
-        try {
-            Set<String> recentFiles = new HashSet<>(preferences.getStringSet("files", new HashSet<>()));
-
-            // Get file size
-            long fileSize = getFileSize(uri);
-
-            String fileEntry = uri.toString() + "|" + fileName + "|" + System.currentTimeMillis() + "|" + fileSize + "|" + pageCount;
-
-            // Remove if already exists (to update timestamp)
-            recentFiles.removeIf(entry -> {
-                String[] parts = entry.split("\\|");
-                return parts.length > 0 && parts[0].equals(uri.toString());
-            });
-
-            // Add new entry
-            recentFiles.add(fileEntry);
-
-            // Keep only last 20 files
-            if (recentFiles.size() > 20) {
-                List<String> sortedFiles = new ArrayList<>(recentFiles);
-                sortedFiles.sort((a, b) -> {
-                    try {
-                        String[] partsA = a.split("\\|");
-                        String[] partsB = b.split("\\|");
-                        if (partsA.length >= 3 && partsB.length >= 3) {
-                            long timestampA = Long.parseLong(partsA[2]);
-                            long timestampB = Long.parseLong(partsB[2]);
-                            return Long.compare(timestampB, timestampA); // Newest first
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error sorting files", e);
-                    }
-                    return 0;
-                });
+    public int getHistoryMaxEntries() {
+        return context.getSharedPreferences(HISTORY_PREFS, Context.MODE_PRIVATE)
+                .getInt(KEY_MAX_ENTRIES, DEFAULT_HISTORY_MAX_ENTRIES);
+    }
 
-                // Keep only the 20 most recent
-                recentFiles = new HashSet<>(sortedFiles.subList(0, Math.min(20, sortedFiles.size())));
-            }
+    public int getHistoryMaxAgeDays() {
+        return context.getSharedPreferences(HISTORY_PREFS, Context.MODE_PRIVATE).getInt(KEY_MAX_AGE_DAYS, 0);
+    }
 
-            preferences.edit().putStringSet("files", recentFiles).apply();
-            Log.d(TAG, "Added file to recent: " + fileName);
-        } catch (Exception e) {
-            Log.e(TAG, "Error adding file to recent files", e);
-        }
+    private void applyHistoryRetention() {
+        database.getJournal().setRecentFilesRetention(getHistoryMaxEntries(),
+                TimeUnit.DAYS.toMillis(getHistoryMaxAgeDays()));
     }
 
     public List<PDFFile> getRecentFiles() {
-        Set<String> recentFiles = preferences.getStringSet("files", new HashSet<>());
-        List<PDFFile> pdfFiles = new ArrayList<>();
+        return getRecentFilesPage(null, -1);
+    }
 
-        for (String entry : recentFiles) {
-            try {
-                String[] parts = entry.split("\\|");
-                if (parts.length >= 5) {
-                    String uriString = parts[0];
-                    String fileName = parts[1];
-                    long timestamp = Long.parseLong(parts[2]);
-                    long fileSize = Long.parseLong(parts[3]);
-                    int pageCount = Integer.parseInt(parts[4]);
-
-                    Uri uri = Uri.parse(uriString);
-
-                    // Check if file is still accessible
-                    if (isUriAccessible(uri)) {
-                        pdfFiles.add(new PDFFile(fileName, uriString, fileSize, new Date(timestamp), pageCount));
+    /**
+     * Returns up to limit files from the reading history, most recently opened first,
+     * continuing after the given file (or from the start when it is null). A negative
+     * limit returns the rest. Pages are read from the timestamp index, so the cost does
+     * not grow with the length of the history.
+     */
+    public List<PDFFile> getRecentFilesPage(PDFFile after, int limit) {
+        List<PDFFile> pdfFiles = new ArrayList<>();
+        database.getJournal().flush();
+        long afterTimestamp = after != null ? after.getLastModified().getTime() : 0;
+        int afterId = after != null ? after.documentId : 0;
+        boolean more = after == null || afterId > 0;
+        while (more && (limit < 0 || pdfFiles.size() < limit)) {
+            // Ties on timestamp are broken by the document id, which the timestamp index also holds
+            String selection = afterId > 0 ? LibraryDatabase.COLUMN_TIMESTAMP + " <= ? AND (" + LibraryDatabase.COLUMN_TIMESTAMP
+                    + " < ? OR " + LibraryDatabase.COLUMN_DOCUMENT_ID + " < ?)" : null;
+            String[] args = afterId > 0 ? new String[]{String.valueOf(afterTimestamp), String.valueOf(afterTimestamp),
+                    String.valueOf(afterId)} : null;
+            String pageLimit = limit < 0 ? null : String.valueOf(limit - pdfFiles.size());
+            int read = 0;
+            try (Cursor cursor = database.getReadableDatabase().query(LibraryDatabase.TABLE_RECENT_FILES,
+                    new String[]{LibraryDatabase.COLUMN_DOCUMENT_ID, LibraryDatabase.COLUMN_URI, LibraryDatabase.COLUMN_NAME,
+                            LibraryDatabase.COLUMN_TIMESTAMP, LibraryDatabase.COLUMN_SIZE, LibraryDatabase.COLUMN_PAGE_COUNT},
+                    selection, args, null, null,
+                    LibraryDatabase.COLUMN_TIMESTAMP + " DESC, " + LibraryDatabase.COLUMN_DOCUMENT_ID + " DESC", pageLimit)) {
+                while (cursor.moveToNext()) {
+                    read++;
+                    afterId = cursor.getInt(0);
+                    afterTimestamp = cursor.getLong(3);
+                    String uriString = cursor.getString(1);
+                    String fileName = cursor.getString(2);
+
+                    // Only files a recent probe found missing are left out; see checkRecentFilesInBackground
+                    if (!accessChecker.isKnownInaccessible(uriString)) {
+                        PDFFile file = new PDFFile(fileName, uriString, cursor.getLong(4), new Date(afterTimestamp),
+                                cursor.getInt(5));
+                        file.documentId = afterId;
+                        pdfFiles.add(file);
                     } else {
                         Log.d(TAG, "File no longer accessible: " + fileName);
                     }
-                } else if (parts.length >= 4) {
-                    // Handle format without page count
-                    String uriString = parts[0];
-                    String fileName = parts[1];
-                    long timestamp = Long.parseLong(parts[2]);
-                    long fileSize = Long.parseLong(parts[3]);
-
-                    Uri uri = Uri.parse(uriString);
-                    if (isUriAccessible(uri)) {
-                        pdfFiles.add(new PDFFile(fileName, uriString, fileSize, new Date(timestamp), 0));
-                    }
-                } else if (parts.length >= 3) {
-                    // Handle old format without file size
-                    String uriString = parts[0];
-                    String fileName = parts[1];
-                    long timestamp = Long.parseLong(parts[2]);
-
-                    Uri uri = Uri.parse(uriString);
-                    if (isUriAccessible(uri)) {
-                        long fileSize = getFileSize(uri);
-                        pdfFiles.add(new PDFFile(fileName, uriString, fileSize, new Date(timestamp), 0));
-                    }
                 }
             } catch (Exception e) {
-                Log.e(TAG, "Error parsing recent file entry: " + entry, e);
+                Log.e(TAG, "Error loading recent files", e);
+                break;
             }
+            // Files left out make the page short; read on until it is full or the history ends
+            more = pageLimit != null && read == Integer.parseInt(pageLimit);
         }
 
-        // Sort by last modified date (newest first)
-        pdfFiles.sort((a, b) -> b.getLastModified().compareTo(a.getLastModified()));
-
         Log.d(TAG, "Loaded " + pdfFiles.size() + " recent files");
         return pdfFiles;
     }
 
-    public String getFileName(Uri uri) {
-        String result = null;
-        if (uri.getScheme() != null && uri.getScheme().equals("content")) {
-            try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
-                if (cursor != null && cursor.moveToFirst()) {
-                    int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                    if (nameIndex >= 0) {
-                        result = cursor.getString(nameIndex);
-                    }
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error getting file name", e);
-            }
+    // Verifies the files can still be opened without blocking the caller; see FileAccessChecker
+    public void checkRecentFilesInBackground(List<PDFFile> files, FileAccessChecker.Listener listener) {
+        List<String> fileUris = new ArrayList<>(files.size());
+        for (PDFFile file : files) {
+            fileUris.add(file.getPath());
         }
+        accessChecker.checkInBackground(fileUris, listener);
+    }
+
+    public void cancelAccessChecks(FileAccessChecker.Listener listener) {
+        accessChecker.cancel(listener);
+    }
+
+    public String getFileName(Uri uri) {
+        String result = metadataResolver.get(uri).getDisplayName();
         if (result == null) {
             result = uri.getPath();
             if (result != null) {
@@ -162,20 +145,7 @@ public class FileManager {
     }
 
     public long getFileSize(Uri uri) {
-        long size = 0;
-        if (uri.getScheme() != null && uri.getScheme().equals("content")) {
-            try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
-                if (cursor != null && cursor.moveToFirst()) {
-                    int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
-                    if (sizeIndex >= 0 && !cursor.isNull(sizeIndex)) {
-                        size = cursor.getLong(sizeIndex);
-                    }
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error getting file size", e);
-            }
-        }
-        return size;
+        return Math.max(0, metadataResolver.get(uri).getSize());
     }
 
     public boolean hasUriPermission(Uri uri) {
@@ -194,16 +164,7 @@ public class FileManager {
     }
 
     public boolean isUriAccessible(Uri uri) {
-        try {
-            InputStream inputStream = context.getContentResolver().openInputStream(uri);
-            if (inputStream != null) {
-                inputStream.close();
-                return true;
-            }
-        } catch (Exception e) {
-            Log.d(TAG, "URI not accessible: " + uri.toString());
-        }
-        return false;
+        return accessChecker.checkNow(uri.toString());
     }
 
     public boolean renameFile(Uri uri, String newName) {
@@ -236,8 +197,9 @@ public class FileManager {
                 // Attempt the rename operation
                 Uri renamedUri = DocumentsContract.renameDocument(context.getContentResolver(), uri, newName);
                 if (renamedUri != null) {
-                    // Update the recent files list with the new name
-                    updateRecentFileEntry(uri.toString(), newName);
+                    metadataResolver.invalidate(uri);
+                    // Update the recent files list and bookmark listings with the new name
+                    database.getJournal().renameDocument(uri.toString(), newName);
                     Log.d(TAG, "Successfully renamed file to: " + newName);
                     return true;
                 } else {
@@ -293,7 +255,9 @@ public class FileManager {
             if (DocumentsContract.isDocumentUri(context, uri)) {
                 boolean deleted = DocumentsContract.deleteDocument(context.getContentResolver(), uri);
                 if (deleted) {
+                    metadataResolver.invalidate(uri);
                     removeFromRecentFiles(uri.toString());
+                    PDFSearchIndex.getInstance(context).forgetInBackground(uri);
                 }
                 return deleted;
             }
@@ -305,24 +269,9 @@ public class FileManager {
 
     public void removeFromRecentFiles(String filePath) {
         try {
-            Set<String> recentFiles = new HashSet<>(preferences.getStringSet("files", new HashSet<>()));
-            Set<String> updatedFiles = new HashSet<>();
-
-            for (String entry : recentFiles) {
-                String[] parts = entry.split("\\|");
-                if (parts.length >= 2 && parts[0].equals(filePath)) {
-                    // Update the entry with new name
-                    String updatedEntry = parts[0] + "|" + parts[1];
-                    for (int i = 2; i < parts.length; i++) {
-                        updatedEntry += "|" + parts[i];
-                    }
-                    updatedFiles.add(updatedEntry);
-                } else {
-                    updatedFiles.add(entry);
-                }
-            }
-
-            preferences.edit().putStringSet("files", updatedFiles).apply();
+            database.getJournal().deleteRecentFile(filePath);
+            // Still searchable if it is a favorite or has bookmarks
+            PDFSearchIndex.getInstance(context).forgetUnlistedInBackground();
             Log.d(TAG, "Removed file from recent files: " + filePath);
         } catch (Exception e) {
             Log.e(TAG, "Error removing file from recent files", e);
@@ -330,33 +279,12 @@ public class FileManager {
     }
 
     public void clearRecentFiles() {
-        preferences.edit().remove("files").apply();
-        Log.d(TAG, "Cleared all recent files");
-    }
-
-    private void updateRecentFileEntry(String oldUri, String newName) {
         try {
-            Set<String> recentFiles = new HashSet<>(preferences.getStringSet("files", new HashSet<>()));
-            Set<String> updatedFiles = new HashSet<>();
-
-            for (String entry : recentFiles) {
-                String[] parts = entry.split("\\|");
-                if (parts.length >= 2 && parts[0].equals(oldUri)) {
-                    // Update the entry with new name
-                    String updatedEntry = parts[0] + "|" + newName;
-                    for (int i = 2; i < parts.length; i++) {
-                        updatedEntry += "|" + parts[i];
-                    }
-                    updatedFiles.add(updatedEntry);
-                } else {
-                    updatedFiles.add(entry);
-                }
-            }
-
-            preferences.edit().putStringSet("files", updatedFiles).apply();
-            Log.d(TAG, "Updated recent file entry with new name: " + newName);
+            database.getJournal().clearRecentFiles();
+            PDFSearchIndex.getInstance(context).forgetUnlistedInBackground();
+            Log.d(TAG, "Cleared all recent files");
         } catch (Exception e) {
-            Log.e(TAG, "Error updating recent file entry", e);
+            Log.e(TAG, "Error clearing recent files", e);
         }
     }
 
@@ -1,64 +1,81 @@
 package com.pdfmaster.reader;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
-import android.provider.OpenableColumns;
 import android.util.Log;
+import android.util.SparseArray;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 public class GlobalBookmarkManager {
 
     private static final String TAG = "GlobalBookmarkManager";
-    private static final String GLOBAL_BOOKMARKS_PREF = "global_bookmarks";
     private Context context;
-    private SharedPreferences preferences;
+    private LibraryDatabase database;
+    private UriMetadataResolver metadataResolver;
 
     public GlobalBookmarkManager(Context context) {
         this.context = context;
-        this.preferences = context.getSharedPreferences(GLOBAL_BOOKMARKS_PREF, Context.MODE_PRIVATE);
+        this.database = LibraryDatabase.getInstance(context);
+        this.metadataResolver = UriMetadataResolver.getInstance(context);
     }
 
     public List<GlobalBookmark> getAllBookmarks() {
-        List<GlobalBookmark> allBookmarks = new ArrayList<>();
-        try {
-            Set<String> fileUris = preferences.getStringSet("file_uris", new HashSet<>());
-            if (fileUris != null) {
-                for (String fileUri : fileUris) {
-                    BookmarkManager bookmarkManager = new BookmarkManager(context, fileUri);
-                    List<BookmarkManager.Bookmark> bookmarks = bookmarkManager.getBookmarks();
-
-                    String fileName = getFileNameFromUri(fileUri);
-                    for (BookmarkManager.Bookmark bookmark : bookmarks) {
-                        allBookmarks.add(new GlobalBookmark(
-                                fileUri, fileName, bookmark.getPageNumber(),
-                                bookmark.getTitle(), bookmark.getTimestamp()
-                        ));
+        return getBookmarksPage(null, -1);
+    }
+
+    /**
+     * Returns up to limit bookmarks, most recent first, continuing after the given
+     * bookmark (or from the start when it is null). A negative limit returns the rest.
+     * Pages are read from the bookmark timestamp index joined with the stored document
+     * names, so no provider is queried for names already known.
+     */
+    public List<GlobalBookmark> getBookmarksPage(GlobalBookmark after, int limit) {
+        List<GlobalBookmark> page = new ArrayList<>();
+        // Documents whose name was not stored yet, looked up once each
+        SparseArray<String> missingNames = new SparseArray<>();
+        String sql = "SELECT b.rowid, b." + LibraryDatabase.COLUMN_DOCUMENT_ID + ", b." + LibraryDatabase.COLUMN_PAGE
+                + ", b." + LibraryDatabase.COLUMN_TITLE + ", b." + LibraryDatabase.COLUMN_TIMESTAMP
+                + ", d." + LibraryDatabase.COLUMN_NAME + ", d." + LibraryDatabase.COLUMN_URI
+                + " FROM " + LibraryDatabase.TABLE_BOOKMARKS + " b LEFT JOIN " + LibraryDatabase.TABLE_DOCUMENTS
+                + " d ON d." + LibraryDatabase.COLUMN_ID + " = b." + LibraryDatabase.COLUMN_DOCUMENT_ID
+                // Ties on timestamp are broken by rowid, which the timestamp index also holds;
+                // the plain <= bound lets the index seek straight to the page
+                + (after != null ? " WHERE b." + LibraryDatabase.COLUMN_TIMESTAMP + " <= ? AND (b."
+                        + LibraryDatabase.COLUMN_TIMESTAMP + " < ? OR b.rowid < ?)" : "")
+                + " ORDER BY b." + LibraryDatabase.COLUMN_TIMESTAMP + " DESC, b.rowid DESC"
+                + " LIMIT " + limit;
+        String[] args = after != null ? new String[]{String.valueOf(after.getTimestamp()),
+                String.valueOf(after.getTimestamp()), String.valueOf(after.rowId)} : null;
+        database.getJournal().flush();
+        try (Cursor cursor = database.getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                int documentId = cursor.getInt(1);
+                String fileUri = cursor.isNull(6) ? "" : cursor.getString(6);
+                String fileName = cursor.getString(5);
+                if (fileName == null) {
+                    fileName = missingNames.get(documentId);
+                    if (fileName == null) {
+                        fileName = getFileNameFromUri(fileUri);
+                        missingNames.put(documentId, fileName);
                     }
                 }
+                String title = cursor.getString(3);
+                page.add(new GlobalBookmark(cursor.getLong(0), documentId, fileUri, fileName, cursor.getInt(2),
+                        title != null ? title : "Untitled", cursor.getLong(4)));
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error loading all bookmarks", e);
+            Log.e(TAG, "Error loading bookmarks", e);
         }
-
-        // Sort by timestamp (most recent first)
-        allBookmarks.sort((a, b) -> Long.compare(b.getTimestamp(), a.getTimestamp()));
-        return allBookmarks;
-    }
-
-    public void registerFile(String fileUri) {
-        try {
-            Set<String> existingUris = preferences.getStringSet("file_uris", new HashSet<>());
-            Set<String> fileUris = existingUris != null ? new HashSet<>(existingUris) : new HashSet<>();
-            fileUris.add(fileUri);
-            preferences.edit().putStringSet("file_uris", fileUris).commit();
-        } catch (Exception e) {
-            Log.e(TAG, "Error registering file", e);
+        // Store the names looked up so later pages and visits need no provider queries
+        for (GlobalBookmark bookmark : page) {
+            if (missingNames.indexOfKey(bookmark.documentId) >= 0) {
+                missingNames.remove(bookmark.documentId);
+                database.getJournal().putDocument(bookmark.documentId, bookmark.getFileUri(), bookmark.getFileName());
+            }
         }
+        return page;
     }
 
     private String getFileNameFromUri(String uriString) {
@@ -67,28 +84,11 @@ public class GlobalBookmarkManager {
                 return "Unknown File";
             }
 
-            // Handle content URIs using ContentResolver
+            // Handle content URIs using the provider's display name
             if (uriString.startsWith("content://")) {
-                try {
-                    Uri uri = Uri.parse(uriString);
-                    Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
-                    if (cursor != null) {
-                        try {
-                            if (cursor.moveToFirst()) {
-                                int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                                if (nameIndex != -1) {
-                                    String displayName = cursor.getString(nameIndex);
-                                    if (displayName != null && !displayName.isEmpty()) {
-                                        return displayName;
-                                    }
-                                }
-                            }
-                        } finally {
-                            cursor.close();
-                        }
-                    }
-                } catch (Exception e) {
-                    Log.w(TAG, "Could not query content resolver for URI: " + uriString, e);
+                String displayName = metadataResolver.get(Uri.parse(uriString)).getDisplayName();
+                if (displayName != null && !displayName.isEmpty()) {
+                    return displayName;
                 }
 
                 // Fallback: try to extract from URI path
@@ -143,8 +143,18 @@ public class GlobalBookmarkManager {
         private int pageNumber;
         private String title;
         private long timestamp;
+        // Position in the bookmark table, used to continue paging after this bookmark
+        private long rowId;
+        private int documentId;
 
         public GlobalBookmark(String fileUri, String fileName, int pageNumber, String title, long timestamp) {
+            this(Long.MAX_VALUE, 0, fileUri, fileName, pageNumber, title, timestamp);
+        }
+
+        GlobalBookmark(long rowId, int documentId, String fileUri, String fileName, int pageNumber, String title,
+                       long timestamp) {
+            this.rowId = rowId;
+            this.documentId = documentId;
             this.fileUri = fileUri;
             this.fileName = fileName;
             this.pageNumber = pageNumber;
@@ -0,0 +1,150 @@
+package com.pdfmaster.reader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The file behind LibraryJournal. Each record is the payload length, the payload and
+ * a CRC32 of it, appended in one write; reading stops at the first record that is
+ * missing or fails its checksum, which is where a crash cut the file short. Nothing
+ * here touches the database.
+ */
+class JournalFile {
+
+    // Far larger than any real record, so a bigger length means the tail is damaged
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    private final File file;
+    private FileOutputStream output;
+
+    JournalFile(File file) {
+        this.file = file;
+    }
+
+    // One write per record, so the kernel has it even if the process dies right after
+    synchronized void append(Change change) throws IOException {
+        if (output == null) {
+            output = new FileOutputStream(file, true);
+        }
+        output.write(encode(change));
+    }
+
+    // Every complete record, oldest first
+    synchronized List<Change> readAll() throws IOException {
+        List<Change> changes = new ArrayList<>();
+        if (!file.isFile()) {
+            return changes;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                Change change = read(input);
+                if (change == null) {
+                    break;
+                }
+                changes.add(change);
+            }
+        }
+        return changes;
+    }
+
+    synchronized void truncate() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+        new FileOutputStream(file, false).close();
+    }
+
+    static byte[] encode(Change change) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        DataOutputStream data = new DataOutputStream(payload);
+        data.writeByte(change.type);
+        data.writeInt(change.documentId);
+        data.writeUTF(change.uri);
+        data.writeInt(change.page);
+        data.writeBoolean(change.text != null);
+        data.writeUTF(change.text != null ? change.text : "");
+        data.writeLong(change.timestamp);
+        data.writeLong(change.size);
+        data.writeInt(change.lastPage);
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(bytes.length + 12);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeLong(crc.getValue());
+        return record.toByteArray();
+    }
+
+    // Returns null at the end of the file or at a record that was not completely written
+    static Change read(DataInputStream input) throws IOException {
+        try {
+            int length = input.readInt();
+            if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            input.readFully(bytes);
+            long expected = input.readLong();
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, length);
+            if (crc.getValue() != expected) {
+                return null;
+            }
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+            int type = data.readByte();
+            int documentId = data.readInt();
+            String uri = data.readUTF();
+            int page = data.readInt();
+            boolean hasText = data.readBoolean();
+            String text = data.readUTF();
+            long timestamp = data.readLong();
+            long size = data.readLong();
+            int lastPage = data.readInt();
+            return new Change(type, documentId, uri, page, hasText ? text : null, timestamp, size, lastPage);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    static class Change {
+        final int type;
+        // Registry id of the document; 0 for changes made by URI
+        final int documentId;
+        // URI the document was opened through, or that a delete or rename applies to; empty if none
+        final String uri;
+        // Page number for bookmarks, page count for recent files
+        final int page;
+        // Name or bookmark title
+        final String text;
+        final long timestamp;
+        final long size;
+        // Page a viewing was left on
+        final int lastPage;
+
+        Change(int type, int documentId, String uri, int page, String text, long timestamp, long size, int lastPage) {
+            this.type = type;
+            this.documentId = documentId;
+            this.uri = uri;
+            this.page = page;
+            this.text = text;
+            this.timestamp = timestamp;
+            this.size = size;
+            this.lastPage = lastPage;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.pdfmaster.reader;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * SQLite store behind FileManager, FavoriteManager, BookmarkManager and
+ * GlobalBookmarkManager, with one row per recent file, favorite, bookmark and
+ * document. The documents table is the registry: each document gets an integer id
+ * once, stored with its document key (see DocumentIdentity), and every other table
+ * refers to it by that id. Records used to be pipe-delimited strings in preference
+ * string sets; those are copied in once when the database is created.
+ */
+public class LibraryDatabase extends SQLiteOpenHelper {
+
+    private static final String TAG = "LibraryDatabase";
+    private static final String DATABASE_NAME = "library.db";
+    private static final String JOURNAL_NAME = "library.journal";
+    private static final int DATABASE_VERSION = 1;
+
+    public static final String TABLE_RECENT_FILES = "recent_files";
+    public static final String TABLE_FAVORITES = "favorites";
+    public static final String TABLE_BOOKMARKS = "bookmarks";
+    public static final String TABLE_DOCUMENTS = "documents";
+    public static final String TABLE_DOCUMENT_ALIASES = "document_aliases";
+
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_URI = "uri";
+    public static final String COLUMN_NAME = "name";
+    public static final String COLUMN_TIMESTAMP = "timestamp";
+    public static final String COLUMN_SIZE = "size";
+    public static final String COLUMN_PAGE_COUNT = "page_count";
+    public static final String COLUMN_LAST_PAGE = "last_page";
+    public static final String COLUMN_PAGE = "page";
+    public static final String COLUMN_TITLE = "title";
+    public static final String COLUMN_DOCUMENT_KEY = "document_key";
+    public static final String COLUMN_DOCUMENT_ID = "document_id";
+    public static final String COLUMN_MODIFIED = "modified";
+
+    // Preference files written by earlier versions
+    private static final String LEGACY_RECENT_PREF = "recent_files";
+    private static final String LEGACY_FAVORITES_PREF = "favorite_files";
+    private static final String LEGACY_GLOBAL_BOOKMARKS_PREF = "global_bookmarks";
+
+    private static LibraryDatabase instance;
+
+    private Context context;
+    private final LibraryJournal journal;
+    // Preference files copied in by onCreate, cleared once its transaction has committed
+    private List<SharedPreferences> migratedPreferences;
+
+    private LibraryDatabase(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.context = context;
+        this.journal = new LibraryJournal(this, context.getDatabasePath(JOURNAL_NAME));
+    }
+
+    public static synchronized LibraryDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new LibraryDatabase(context.getApplicationContext());
+            // Changes a previous process accepted but never wrote, applied in the background
+            instance.journal.replay();
+        }
+        return instance;
+    }
+
+    // Writes go through the journal; readers that query the database flush it first
+    public LibraryJournal getJournal() {
+        return journal;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        createTables(db);
+        migrateFromPreferences(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        // Only reached once the database was created, so the copies are safe to rely on
+        if (migratedPreferences != null) {
+            for (SharedPreferences prefs : migratedPreferences) {
+                prefs.edit().clear().apply();
+            }
+            migratedPreferences = null;
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Only one version so far
+    }
+
+    private static void createTables(SQLiteDatabase db) {
+        // Names are stored with the document so bookmark lists need no provider queries; the URI
+        // is the one it was last opened through, for opening it from a list
+        db.execSQL("CREATE TABLE " + TABLE_DOCUMENTS + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_DOCUMENT_KEY + " TEXT NOT NULL UNIQUE, "
+                + COLUMN_URI + " TEXT NOT NULL, "
+                + COLUMN_NAME + " TEXT)");
+        // Renames find a document by the URI it is listed under
+        db.execSQL("CREATE INDEX documents_uri ON " + TABLE_DOCUMENTS + " (" + COLUMN_URI + ")");
+
+        // One entry per document, remembering the URI it was last opened through
+        db.execSQL("CREATE TABLE " + TABLE_RECENT_FILES + " ("
+                + COLUMN_DOCUMENT_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_URI + " TEXT NOT NULL, "
+                + COLUMN_NAME + " TEXT, "
+                + COLUMN_TIMESTAMP + " INTEGER NOT NULL, "
+                + COLUMN_SIZE + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_PAGE_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_LAST_PAGE + " INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE INDEX recent_files_timestamp ON " + TABLE_RECENT_FILES + " (" + COLUMN_TIMESTAMP + ")");
+        // Removing or renaming an entry from the list goes by URI
+        db.execSQL("CREATE INDEX recent_files_uri ON " + TABLE_RECENT_FILES + " (" + COLUMN_URI + ")");
+
+        db.execSQL("CREATE TABLE " + TABLE_FAVORITES + " ("
+                + COLUMN_DOCUMENT_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_NAME + " TEXT, "
+                + COLUMN_TIMESTAMP + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX favorites_timestamp ON " + TABLE_FAVORITES + " (" + COLUMN_TIMESTAMP + ")");
+
+        // The primary key doubles as the index for a document's bookmarks in page order
+        db.execSQL("CREATE TABLE " + TABLE_BOOKMARKS + " ("
+                + COLUMN_DOCUMENT_ID + " INTEGER NOT NULL, "
+                + COLUMN_PAGE + " INTEGER NOT NULL, "
+                + COLUMN_TITLE + " TEXT, "
+                + COLUMN_TIMESTAMP + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_DOCUMENT_ID + ", " + COLUMN_PAGE + "))");
+        db.execSQL("CREATE INDEX bookmarks_timestamp ON " + TABLE_BOOKMARKS + " (" + COLUMN_TIMESTAMP + ")");
+
+        // Size and modification date the document was identified at; -1 when the provider did not say
+        db.execSQL("CREATE TABLE " + TABLE_DOCUMENT_ALIASES + " ("
+                + COLUMN_URI + " TEXT PRIMARY KEY NOT NULL, "
+                + COLUMN_DOCUMENT_ID + " INTEGER NOT NULL, "
+                + COLUMN_SIZE + " INTEGER NOT NULL, "
+                + COLUMN_MODIFIED + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX document_aliases_document ON " + TABLE_DOCUMENT_ALIASES + " (" + COLUMN_DOCUMENT_ID + ")");
+    }
+
+    // The id of the document with this key, or 0 if it is not registered
+    static int findDocumentId(SQLiteDatabase db, String documentKey) {
+        try (Cursor cursor = db.query(TABLE_DOCUMENTS, new String[]{COLUMN_ID},
+                COLUMN_DOCUMENT_KEY + " = ?", new String[]{documentKey}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    // The id of the document with this key, registering it under the URI if it is new
+    static int documentId(SQLiteDatabase db, String documentKey, String uri, String name) {
+        int documentId = findDocumentId(db, documentKey);
+        if (documentId > 0) {
+            return documentId;
+        }
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_DOCUMENT_KEY, documentKey);
+        values.put(COLUMN_URI, uri);
+        values.put(COLUMN_NAME, name);
+        return (int) db.insert(TABLE_DOCUMENTS, null, values);
+    }
+
+    // Moves everything stored for one document to another and drops the first; where both
+    // have a row, such as a bookmark on the same page, the second one's is kept
+    static void mergeDocuments(SQLiteDatabase db, int fromId, int toId) {
+        if (fromId <= 0 || fromId == toId) {
+            return;
+        }
+        String selection = COLUMN_DOCUMENT_ID + " = ?";
+        String[] args = {String.valueOf(fromId)};
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_DOCUMENT_ID, toId);
+        for (String table : new String[]{TABLE_RECENT_FILES, TABLE_FAVORITES, TABLE_BOOKMARKS, TABLE_DOCUMENT_ALIASES}) {
+            db.updateWithOnConflict(table, values, selection, args, SQLiteDatabase.CONFLICT_IGNORE);
+            db.delete(table, selection, args);
+        }
+        db.delete(TABLE_DOCUMENTS, COLUMN_ID + " = ?", args);
+    }
+
+    // Runs inside onCreate's transaction, so a failed migration is retried on the next open;
+    // the preferences are left as they are until onOpen. Documents are keyed by their URI
+    // until they are opened and fingerprinted.
+    private void migrateFromPreferences(SQLiteDatabase db) {
+        Set<String> documentUris = new HashSet<>();
+        List<SharedPreferences> migrated = new ArrayList<>();
+
+        SharedPreferences recentPrefs = context.getSharedPreferences(LEGACY_RECENT_PREF, Context.MODE_PRIVATE);
+        for (String entry : stringSet(recentPrefs, "files")) {
+            // uri|name|timestamp[|size[|pageCount]]
+            String[] parts = splitLegacy(entry, 3, 3);
+            if (parts == null) {
+                continue;
+            }
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_DOCUMENT_ID, documentId(db, parts[0], parts[0], parts[1]));
+            values.put(COLUMN_URI, parts[0]);
+            values.put(COLUMN_NAME, parts[1]);
+            values.put(COLUMN_TIMESTAMP, parseLong(parts[2]));
+            values.put(COLUMN_SIZE, parts.length > 3 ? parseLong(parts[3]) : 0);
+            values.put(COLUMN_PAGE_COUNT, parts.length > 4 ? (int) parseLong(parts[4]) : 0);
+            db.insertWithOnConflict(TABLE_RECENT_FILES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            documentUris.add(parts[0]);
+        }
+
+        SharedPreferences favoritePrefs = context.getSharedPreferences(LEGACY_FAVORITES_PREF, Context.MODE_PRIVATE);
+        for (String entry : stringSet(favoritePrefs, "favorites")) {
+            // uri|name|timestamp
+            String[] parts = splitLegacy(entry, 3, 1);
+            if (parts == null) {
+                continue;
+            }
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_DOCUMENT_ID, documentId(db, parts[0], parts[0], parts[1]));
+            values.put(COLUMN_NAME, parts[1]);
+            values.put(COLUMN_TIMESTAMP, parseLong(parts[2]));
+            db.insertWithOnConflict(TABLE_FAVORITES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            documentUris.add(parts[0]);
+        }
+
+        SharedPreferences globalPrefs = context.getSharedPreferences(LEGACY_GLOBAL_BOOKMARKS_PREF, Context.MODE_PRIVATE);
+        Set<String> registered = stringSet(globalPrefs, "file_uris");
+        for (String uri : registered) {
+            documentId(db, uri, uri, null);
+        }
+        documentUris.addAll(registered);
+
+        // Bookmarks were kept in a preference file per document, named by the URI's hash
+        int bookmarkCount = 0;
+        for (String uri : documentUris) {
+            SharedPreferences bookmarkPrefs = context.getSharedPreferences("bookmarks_" + uri.hashCode(), Context.MODE_PRIVATE);
+            Set<String> entries = stringSet(bookmarkPrefs, "bookmarks");
+            int documentId = entries.isEmpty() ? 0 : documentId(db, uri, uri, null);
+            for (String entry : entries) {
+                // page|title|timestamp
+                String[] parts = splitLegacy(entry, 3, 1);
+                if (parts == null) {
+                    continue;
+                }
+                try {
+                    ContentValues values = new ContentValues();
+                    values.put(COLUMN_DOCUMENT_ID, documentId);
+                    values.put(COLUMN_PAGE, Integer.parseInt(parts[0]));
+                    values.put(COLUMN_TITLE, parts[1]);
+                    values.put(COLUMN_TIMESTAMP, parseLong(parts[2]));
+                    db.insertWithOnConflict(TABLE_BOOKMARKS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                    bookmarkCount++;
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Skipping invalid bookmark: " + entry);
+                }
+            }
+            if (!entries.isEmpty()) {
+                migrated.add(bookmarkPrefs);
+            }
+        }
+
+        migrated.add(recentPrefs);
+        migrated.add(favoritePrefs);
+        migrated.add(globalPrefs);
+        migratedPreferences = migrated;
+        Log.d(TAG, "Migrated " + documentUris.size() + " documents and " + bookmarkCount + " bookmarks from preferences");
+    }
+
+    private static Set<String> stringSet(SharedPreferences preferences, String key) {
+        try {
+            Set<String> values = preferences.getStringSet(key, null);
+            if (values != null) {
+                return new HashSet<>(values);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading legacy " + key, e);
+        }
+        return new HashSet<>();
+    }
+
+    /**
+     * Splits a legacy record into at least minFields fields. The text field (the second)
+     * may itself contain '|', so the first field is taken from the front and up to
+     * trailingFields numeric fields from the back, and whatever is left is the text.
+     */
+    private static String[] splitLegacy(String entry, int minFields, int trailingFields) {
+        if (entry == null) {
+            return null;
+        }
+        String[] raw = entry.split("\\|", -1);
+        if (raw.length < minFields) {
+            return null;
+        }
+        // Count the numeric fields at the end, but always leave the first two
+        int trailing = 0;
+        while (trailing < trailingFields && raw.length - trailing - 1 >= 2 && isNumber(raw[raw.length - trailing - 1])) {
+            trailing++;
+        }
+        if (trailing == 0) {
+            return null;
+        }
+        String[] parts = new String[2 + trailing];
+        parts[0] = raw[0];
+        StringBuilder text = new StringBuilder(raw[1]);
+        for (int i = 2; i < raw.length - trailing; i++) {
+            text.append('|').append(raw[i]);
+        }
+        parts[1] = text.toString();
+        System.arraycopy(raw, raw.length - trailing, parts, 2, trailing);
+        return parts;
+    }
+
+    private static boolean isNumber(String value) {
+        if (value.isEmpty() || value.length() > 19) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i)) && !(i == 0 && value.charAt(i) == '-' && value.length() > 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.pdfmaster.reader;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind log for changes to the library database. Managers update their
+ * in-memory state and hand each change to the journal, which appends it to a small
+ * file and returns without waiting for the database. A background thread gathers the
+ * changes made over a short delay and writes them in one transaction, then empties
+ * the file.
+ *
+ * Every change is an upsert or delete keyed by URI or document id, so applying one
+ * twice is harmless. If the process dies before a batch is written, the file still
+ * holds it and replay() applies it the next time the database is opened. Each record
+ * carries a checksum, so one cut short by a crash is dropped along with anything
+ * after it.
+ */
+public class LibraryJournal {
+
+    private static final String TAG = "LibraryJournal";
+    private static final long WRITE_DELAY_MS = 300;
+
+    private static final int PUT_RECENT_FILE = 1;
+    private static final int DELETE_RECENT_FILE = 2;
+    private static final int CLEAR_RECENT_FILES = 3;
+    private static final int RENAME_DOCUMENT = 4;
+    private static final int PUT_FAVORITE = 5;
+    private static final int DELETE_FAVORITE = 6;
+    private static final int PUT_BOOKMARK = 7;
+    private static final int DELETE_BOOKMARK = 8;
+    private static final int PUT_DOCUMENT = 9;
+    private static final int RECORD_OPEN = 10;
+
+    private final LibraryDatabase database;
+    private final JournalFile file;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+    // Changes appended but not yet in the database, oldest first
+    private final List<JournalFile.Change> pending = new ArrayList<>();
+    private boolean writeScheduled;
+    // True while a batch taken from pending is being written
+    private boolean writing;
+    // True until what an earlier process left in the file has been applied
+    private boolean replaying;
+    // Reading history kept; 0 for no limit
+    private volatile int maxRecentFiles;
+    private volatile long maxRecentFileAgeMs;
+
+    LibraryJournal(LibraryDatabase database, File file) {
+        this.database = database;
+        this.file = new JournalFile(file);
+    }
+
+    public void putRecentFile(int documentId, String uri, String name, long timestamp, long size, int pageCount) {
+        append(new JournalFile.Change(PUT_RECENT_FILE, documentId, uri, pageCount, name, timestamp, size, 0));
+    }
+
+    public void deleteRecentFile(String uri) {
+        append(new JournalFile.Change(DELETE_RECENT_FILE, 0, uri, 0, null, 0, 0, 0));
+    }
+
+    public void clearRecentFiles() {
+        append(new JournalFile.Change(CLEAR_RECENT_FILES, 0, "", 0, null, 0, 0, 0));
+    }
+
+    // Renames the document wherever its name is stored for listing
+    public void renameDocument(String uri, String name) {
+        append(new JournalFile.Change(RENAME_DOCUMENT, 0, uri, 0, name, 0, 0, 0));
+    }
+
+    public void putFavorite(int documentId, String name, long timestamp) {
+        append(new JournalFile.Change(PUT_FAVORITE, documentId, "", 0, name, timestamp, 0, 0));
+    }
+
+    public void deleteFavorite(int documentId) {
+        append(new JournalFile.Change(DELETE_FAVORITE, documentId, "", 0, null, 0, 0, 0));
+    }
+
+    public void putBookmark(int documentId, int page, String title, long timestamp) {
+        append(new JournalFile.Change(PUT_BOOKMARK, documentId, "", page, title, timestamp, 0, 0));
+    }
+
+    public void deleteBookmark(int documentId, int page) {
+        append(new JournalFile.Change(DELETE_BOOKMARK, documentId, "", page, null, 0, 0, 0));
+    }
+
+    // Where the document was last opened from and what it is called, for listings
+    public void putDocument(int documentId, String uri, String name) {
+        append(new JournalFile.Change(PUT_DOCUMENT, documentId, uri, 0, name, 0, 0, 0));
+    }
+
+    /**
+     * Records one viewing of a document: its history entry with everything learned while
+     * it was open, and the name and URI it is listed under. One record, so both land in
+     * the same write. The viewer records as it is paused, so the file is appended to on
+     * the writer thread.
+     */
+    public void recordOpen(int documentId, String uri, String name, long openedAt, long size, int pageCount, int lastPage) {
+        appendInBackground(new JournalFile.Change(RECORD_OPEN, documentId, uri, pageCount, name, openedAt, size, lastPage));
+    }
+
+    // Applied whenever files are added to the history
+    public void setRecentFilesRetention(int maxEntries, long maxAgeMs) {
+        maxRecentFiles = maxEntries;
+        maxRecentFileAgeMs = maxAgeMs;
+    }
+
+    // Blocks until every change appended so far is in the database; for readers that query it
+    public void flush() {
+        synchronized (this) {
+            if (pending.isEmpty() && !writing && !replaying) {
+                return;
+            }
+        }
+        // The writer is a single thread, so this also waits for a batch already being written
+        // and for the replay
+        try {
+            writer.submit(this::writePending).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Error flushing journal", e);
+        }
+    }
+
+    // Applies whatever an earlier process left in the journal on the writer thread, ahead of
+    // any batch; called before any change is appended
+    synchronized void replay() {
+        replaying = true;
+        writer.execute(this::replayFile);
+    }
+
+    // Runs on the writer thread
+    private void replayFile() {
+        try {
+            List<JournalFile.Change> changes;
+            // Changes appended since are read too; applying them again later is harmless
+            synchronized (this) {
+                changes = file.readAll();
+            }
+            if (!changes.isEmpty()) {
+                apply(database.getWritableDatabase(), changes);
+                Log.d(TAG, "Replayed " + changes.size() + " changes");
+            }
+            synchronized (this) {
+                // Otherwise writePending empties it once the newer changes are written
+                if (pending.isEmpty()) {
+                    truncate();
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read journal", e);
+        } catch (Exception e) {
+            // Leave the file for the next start rather than lose the changes
+            Log.e(TAG, "Error replaying journal", e);
+        } finally {
+            synchronized (this) {
+                replaying = false;
+            }
+        }
+    }
+
+    private synchronized void append(JournalFile.Change change) {
+        pending.add(change);
+        try {
+            file.append(change);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not append to journal", e);
+        }
+        scheduleWrite();
+    }
+
+    // Takes the change's place among the pending ones straight away, so the database still
+    // sees changes in the order they were made, and leaves the file append to the writer
+    private synchronized void appendInBackground(final JournalFile.Change change) {
+        pending.add(change);
+        writer.execute(() -> {
+            synchronized (this) {
+                // Unless a batch has written it to the database already
+                if (!pending.contains(change)) {
+                    return;
+                }
+                try {
+                    file.append(change);
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not append to journal", e);
+                }
+            }
+        });
+        scheduleWrite();
+    }
+
+    // Callers hold the lock
+    private void scheduleWrite() {
+        if (!writeScheduled) {
+            writeScheduled = true;
+            writer.schedule(this::writePending, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Runs on the writer thread
+    private void writePending() {
+        List<JournalFile.Change> batch;
+        synchronized (this) {
+            writeScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+            writing = true;
+        }
+        try {
+            apply(database.getWritableDatabase(), batch);
+        } catch (Exception e) {
+            Log.e(TAG, "Error writing " + batch.size() + " changes", e);
+            synchronized (this) {
+                // Keep them ahead of newer changes; the journal file still has them too
+                pending.addAll(0, batch);
+                writing = false;
+            }
+            return;
+        }
+        synchronized (this) {
+            writing = false;
+            // Changes appended meanwhile are still only in the file, so keep it until they are written
+            if (pending.isEmpty()) {
+                truncate();
+            }
+        }
+    }
+
+    private void truncate() {
+        try {
+            file.truncate();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not truncate journal", e);
+        }
+    }
+
+    private void apply(SQLiteDatabase db, List<JournalFile.Change> changes) {
+        db.beginTransaction();
+        try {
+            boolean recentFilesAdded = false;
+            for (JournalFile.Change change : changes) {
+                recentFilesAdded |= apply(db, change);
+            }
+            if (recentFilesAdded) {
+                trimRecentFiles(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Drops history older than the retention allows; both bounds are found through the
+    // timestamp index, so this stays cheap however long the history is
+    private void trimRecentFiles(SQLiteDatabase db) {
+        String timestamp = LibraryDatabase.COLUMN_TIMESTAMP;
+        if (maxRecentFileAgeMs > 0) {
+            db.delete(LibraryDatabase.TABLE_RECENT_FILES, timestamp + " < ?",
+                    new String[]{String.valueOf(System.currentTimeMillis() - maxRecentFileAgeMs)});
+        }
+        if (maxRecentFiles <= 0) {
+            return;
+        }
+        // The newest entry past the limit; it and everything after it in listing order goes
+        try (Cursor cursor = db.query(LibraryDatabase.TABLE_RECENT_FILES,
+                new String[]{timestamp, LibraryDatabase.COLUMN_DOCUMENT_ID}, null, null, null, null,
+                timestamp + " DESC, " + LibraryDatabase.COLUMN_DOCUMENT_ID + " DESC", maxRecentFiles + ",1")) {
+            if (cursor.moveToFirst()) {
+                db.delete(LibraryDatabase.TABLE_RECENT_FILES,
+                        timestamp + " < ? OR (" + timestamp + " = ? AND " + LibraryDatabase.COLUMN_DOCUMENT_ID + " <= ?)",
+                        new String[]{cursor.getString(0), cursor.getString(0), cursor.getString(1)});
+            }
+        }
+    }
+
+    // Returns true if a recent file was added
+    private static boolean apply(SQLiteDatabase db, JournalFile.Change change) {
+        int documentId = change.documentId;
+        String uri = change.uri;
+        String[] uriArgs = {uri};
+        String[] idArgs = {String.valueOf(documentId)};
+        String uriSelection = LibraryDatabase.COLUMN_URI + " = ?";
+        String documentSelection = LibraryDatabase.COLUMN_DOCUMENT_ID + " = ?";
+        ContentValues values = new ContentValues();
+        switch (change.type) {
+            case RECORD_OPEN:
+                ContentValues document = new ContentValues();
+                document.put(LibraryDatabase.COLUMN_URI, uri);
+                document.put(LibraryDatabase.COLUMN_NAME, change.text);
+                db.update(LibraryDatabase.TABLE_DOCUMENTS, document, LibraryDatabase.COLUMN_ID + " = ?", idArgs);
+                values.put(LibraryDatabase.COLUMN_LAST_PAGE, change.lastPage);
+                // Then the same as adding it to the history
+            case PUT_RECENT_FILE:
+                values.put(LibraryDatabase.COLUMN_URI, uri);
+                values.put(LibraryDatabase.COLUMN_NAME, change.text);
+                values.put(LibraryDatabase.COLUMN_TIMESTAMP, change.timestamp);
+                values.put(LibraryDatabase.COLUMN_SIZE, change.size);
+                // A viewer paused before the document loaded records no page count yet, which
+                // must not overwrite the one known from an earlier viewing
+                if (change.page > 0) {
+                    values.put(LibraryDatabase.COLUMN_PAGE_COUNT, change.page);
+                }
+                if (db.update(LibraryDatabase.TABLE_RECENT_FILES, values, documentSelection, idArgs) == 0) {
+                    values.put(LibraryDatabase.COLUMN_DOCUMENT_ID, documentId);
+                    db.insert(LibraryDatabase.TABLE_RECENT_FILES, null, values);
+                }
+                return true;
+            case DELETE_RECENT_FILE:
+                db.delete(LibraryDatabase.TABLE_RECENT_FILES, uriSelection, uriArgs);
+                break;
+            case CLEAR_RECENT_FILES:
+                db.delete(LibraryDatabase.TABLE_RECENT_FILES, null, null);
+                break;
+            case RENAME_DOCUMENT:
+                values.put(LibraryDatabase.COLUMN_NAME, change.text);
+                db.update(LibraryDatabase.TABLE_RECENT_FILES, values, uriSelection, uriArgs);
+                db.update(LibraryDatabase.TABLE_DOCUMENTS, values, uriSelection, uriArgs);
+                break;
+            case PUT_FAVORITE:
+                values.put(LibraryDatabase.COLUMN_DOCUMENT_ID, documentId);
+                values.put(LibraryDatabase.COLUMN_NAME, change.text);
+                values.put(LibraryDatabase.COLUMN_TIMESTAMP, change.timestamp);
+                db.insertWithOnConflict(LibraryDatabase.TABLE_FAVORITES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                break;
+            case DELETE_FAVORITE:
+                db.delete(LibraryDatabase.TABLE_FAVORITES, documentSelection, idArgs);
+                break;
+            case PUT_BOOKMARK:
+                values.put(LibraryDatabase.COLUMN_DOCUMENT_ID, documentId);
+                values.put(LibraryDatabase.COLUMN_PAGE, change.page);
+                values.put(LibraryDatabase.COLUMN_TITLE, change.text);
+                values.put(LibraryDatabase.COLUMN_TIMESTAMP, change.timestamp);
+                db.insertWithOnConflict(LibraryDatabase.TABLE_BOOKMARKS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                break;
+            case DELETE_BOOKMARK:
+                db.delete(LibraryDatabase.TABLE_BOOKMARKS,
+                        documentSelection + " AND " + LibraryDatabase.COLUMN_PAGE + " = ?",
+                        new String[]{idArgs[0], String.valueOf(change.page)});
+                break;
+            case PUT_DOCUMENT:
+                values.put(LibraryDatabase.COLUMN_URI, uri);
+                values.put(LibraryDatabase.COLUMN_NAME, change.text);
+                db.update(LibraryDatabase.TABLE_DOCUMENTS, values, LibraryDatabase.COLUMN_ID + " = ?", idArgs);
+                break;
+            default:
+                Log.w(TAG, "Unknown change type " + change.type);
+                break;
+        }
+        return false;
+    }
+}
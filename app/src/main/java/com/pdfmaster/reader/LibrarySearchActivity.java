@@ -0,0 +1,124 @@
+package com.pdfmaster.reader;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Searches the text of every document in the index, listing matching pages best first
+public class LibrarySearchActivity extends AppCompatActivity {
+
+    private static final int MAX_HITS = 100;
+    // Wait for a pause in typing before searching
+    private static final long SEARCH_DELAY_MS = 300;
+
+    private SearchHitAdapter adapter;
+    private TextView emptyText;
+    private PDFSearchIndex searchIndex;
+    private final ExecutorService loadExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private String currentQuery = "";
+    private final Runnable searchRunnable = this::search;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_library_search);
+
+        androidx.appcompat.widget.Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setTitle("Search Documents");
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+
+        searchIndex = PDFSearchIndex.getInstance(this);
+        emptyText = findViewById(R.id.text_empty);
+
+        RecyclerView recyclerView = findViewById(R.id.recycler_view_hits);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        adapter = new SearchHitAdapter(this::onHitClick);
+        recyclerView.setAdapter(adapter);
+
+        SearchView searchView = findViewById(R.id.search_view);
+        searchView.setQueryHint("Search text in your documents");
+        searchView.setIconifiedByDefault(false);
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                scheduleSearch(query, 0);
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                scheduleSearch(newText, SEARCH_DELAY_MS);
+                return true;
+            }
+        });
+    }
+
+    private void scheduleSearch(String query, long delayMs) {
+        currentQuery = query.trim();
+        mainHandler.removeCallbacks(searchRunnable);
+        mainHandler.postDelayed(searchRunnable, delayMs);
+    }
+
+    private void search() {
+        final String query = currentQuery;
+        if (query.isEmpty()) {
+            adapter.setHits(new ArrayList<>());
+            emptyText.setVisibility(View.GONE);
+            return;
+        }
+        loadExecutor.execute(() -> {
+            final List<PDFSearchIndex.Hit> hits = searchIndex.search(query, MAX_HITS);
+            mainHandler.post(() -> {
+                // A newer query has been typed since
+                if (isDestroyed() || !query.equals(currentQuery)) {
+                    return;
+                }
+                adapter.setHits(hits);
+                emptyText.setText("No matches for \"" + query + "\"");
+                emptyText.setVisibility(hits.isEmpty() ? View.VISIBLE : View.GONE);
+            });
+        });
+    }
+
+    private void onHitClick(PDFSearchIndex.Hit hit) {
+        try {
+            Intent intent = new Intent(this, PDFViewActivity.class);
+            intent.setData(Uri.parse(hit.getFileUri()));
+            intent.putExtra("goto_page", hit.getPageNumber());
+            startActivity(intent);
+        } catch (Exception e) {
+            Toast.makeText(this, "Error opening PDF: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    @Override
+    public boolean onSupportNavigateUp() {
+        onBackPressed();
+        return true;
+    }
+
+    @Override
+    protected void onDestroy() {
+        mainHandler.removeCallbacks(searchRunnable);
+        loadExecutor.shutdownNow();
+        super.onDestroy();
+    }
+}
@@ -32,6 +32,7 @@ public class MainActivity extends AppCompatActivity {
 
     private MaterialCardView cardOpenFile, cardRecentFiles;
     private MaterialCardView cardBookmarks, cardFavorites;
+    private MaterialCardView cardSearch;
     private FileManager fileManager;
     private ImageView infoIcon;
     private AdView mAdView;
@@ -57,6 +58,9 @@ public class MainActivity extends AppCompatActivity {
         loadAds();
 
         fileManager = new FileManager(this);
+
+        // Catch the search index up with documents not opened since it was last updated
+        PDFSearchIndex.getInstance(this).indexKnownDocumentsInBackground();
     }
 
     private void handleIncomingIntent() {
@@ -85,6 +89,7 @@ public class MainActivity extends AppCompatActivity {
         cardRecentFiles = findViewById(R.id.card_recent_files);
         cardBookmarks = findViewById(R.id.card_bookmarks);
         cardFavorites = findViewById(R.id.card_favorites);
+        cardSearch = findViewById(R.id.card_search);
         infoIcon = findViewById(R.id.info_icon);
         mAdView = findViewById(R.id.adView);
 
@@ -98,6 +103,7 @@ public class MainActivity extends AppCompatActivity {
         cardRecentFiles.setOnClickListener(v -> openRecentFiles());
         cardBookmarks.setOnClickListener(v -> openAllBookmarks());
         cardFavorites.setOnClickListener(v -> openFavoriteFiles());
+        cardSearch.setOnClickListener(v -> openLibrarySearch());
         infoIcon.setOnClickListener(v -> showAppInfoDialog());
     }
 
@@ -161,6 +167,11 @@ public class MainActivity extends AppCompatActivity {
         startActivity(intent);
     }
 
+    private void openLibrarySearch() {
+        Intent intent = new Intent(this, LibrarySearchActivity.class);
+        startActivity(intent);
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
@@ -0,0 +1,91 @@
+package com.pdfmaster.reader;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * What one viewing of a document has learned about it: its name, size and page count,
+ * the page it was left on and when it was opened. The viewer fills it in as the
+ * document loads and is read, and record() writes it to the history and document
+ * registry as a single journal entry, rather than each step updating them on its own.
+ * The document's registry id is resolved off the UI thread and handed in once known;
+ * a record() asked for before then is written when it arrives.
+ */
+public class OpenSessionRecorder {
+
+    private static final String TAG = "OpenSessionRecorder";
+
+    private Context context;
+    private final Uri uri;
+    private final long openedAt;
+    private String fileName;
+    private int pageCount;
+    private int lastPage;
+    // 0 until the document is identified
+    private int documentId;
+    // Whether anything changed since the session was last recorded
+    private boolean dirty = true;
+    // Whether record() was called before the id was known
+    private boolean recordPending;
+
+    public OpenSessionRecorder(Context context, Uri uri, String fileName) {
+        this.context = context.getApplicationContext();
+        this.uri = uri;
+        this.fileName = fileName;
+        this.openedAt = System.currentTimeMillis();
+    }
+
+    public void setDocumentId(int documentId) {
+        this.documentId = documentId;
+        if (recordPending) {
+            record();
+        }
+    }
+
+    public void setFileName(String fileName) {
+        if (fileName != null && !fileName.equals(this.fileName)) {
+            this.fileName = fileName;
+            dirty = true;
+        }
+    }
+
+    public void setPageCount(int pageCount) {
+        if (pageCount != this.pageCount) {
+            this.pageCount = pageCount;
+            dirty = true;
+        }
+    }
+
+    public void setLastPage(int lastPage) {
+        if (lastPage != this.lastPage) {
+            this.lastPage = lastPage;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Hands the session to the library journal, which appends it to the journal file and
+     * writes it to the database on its own thread. Call when the viewer is paused.
+     */
+    public void record() {
+        if (!dirty) {
+            return;
+        }
+        if (documentId == 0) {
+            recordPending = true;
+            return;
+        }
+        recordPending = false;
+        try {
+            long size = Math.max(0, UriMetadataResolver.getInstance(context).get(uri).getSize());
+            LibraryDatabase.getInstance(context).getJournal()
+                    .recordOpen(documentId, uri.toString(), fileName, openedAt, size, pageCount, lastPage);
+            dirty = false;
+            // It was just opened, so any earlier failed probe is out of date
+            FileAccessChecker.getInstance(context).invalidate(uri.toString());
+        } catch (Exception e) {
+            Log.e(TAG, "Error recording " + uri, e);
+        }
+    }
+}
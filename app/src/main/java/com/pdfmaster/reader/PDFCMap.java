@@ -0,0 +1,252 @@
+package com.pdfmaster.reader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A parsed CMap: its codespace ranges and the bfchar/bfrange mappings from character
+ * codes to Unicode. Single-character mappings live in a dense char table indexed by
+ * code; mappings to several characters, such as ligatures, are kept in sorted arrays.
+ *
+ * Embedded fonts are often subset once and referenced by every page, so parsed CMaps
+ * are shared process-wide, keyed by a digest of the stream content.
+ */
+public class PDFCMap {
+
+    private static final int MAX_DENSE_CODE = 0xFFFF;
+    private static final int MAX_SHARED_CMAPS = 64;
+    private static final int MAX_RANGE_SIZE = 0x10000;
+    private static final int SECTION_NONE = 0;
+    private static final int SECTION_CODESPACE = 1;
+    private static final int SECTION_BFCHAR = 2;
+    private static final int SECTION_BFRANGE = 3;
+
+    private static final LinkedHashMap<String, PDFCMap> shared = new LinkedHashMap<String, PDFCMap>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PDFCMap> eldest) {
+            return size() > MAX_SHARED_CMAPS;
+        }
+    };
+
+    private int[] codespaceLows = new int[4];
+    private int[] codespaceHighs = new int[4];
+    private int[] codespaceLengths = new int[4];
+    private int codespaceCount;
+
+    private char[] singles = new char[256];
+    private int[] multiCodes = new int[8];
+    private String[] multiValues = new String[8];
+    private int multiCount;
+
+    PDFCMap() {
+    }
+
+    public static PDFCMap parse(byte[] data) throws IOException {
+        String key = digest(data);
+        synchronized (shared) {
+            PDFCMap cached = shared.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        PDFCMap cmap = new PDFCMap();
+        cmap.read(data);
+        synchronized (shared) {
+            shared.put(key, cmap);
+        }
+        return cmap;
+    }
+
+    // Length in bytes of the code starting at offset, per the codespace ranges
+    public int codeLength(byte[] bytes, int offset, int end, int defaultLength) {
+        if (codespaceCount == 0) {
+            return defaultLength;
+        }
+        int code = 0;
+        int shortest = 4;
+        for (int length = 1; length <= 4 && offset + length <= end; length++) {
+            code = (code << 8) | (bytes[offset + length - 1] & 0xFF);
+            for (int i = 0; i < codespaceCount; i++) {
+                if (codespaceLengths[i] == length && code >= codespaceLows[i] && code <= codespaceHighs[i]) {
+                    return length;
+                }
+            }
+        }
+        for (int i = 0; i < codespaceCount; i++) {
+            shortest = Math.min(shortest, codespaceLengths[i]);
+        }
+        return shortest;
+    }
+
+    // Appends the Unicode text for code; returns false if the CMap has no mapping for it
+    public boolean decode(int code, StringBuilder out) {
+        if (code < singles.length && singles[code] != 0) {
+            out.append(singles[code]);
+            return true;
+        }
+        int index = Arrays.binarySearch(multiCodes, 0, multiCount, code);
+        if (index >= 0) {
+            out.append(multiValues[index]);
+            return true;
+        }
+        return false;
+    }
+
+    private void read(byte[] data) throws IOException {
+        PDFContentLexer lexer = new PDFContentLexer(new ByteArrayInputStream(data));
+        // Codes read since the last keyword or completed entry
+        int[] codes = new int[2];
+        int pending = 0;
+        int section = SECTION_NONE;
+        int token;
+        while ((token = lexer.next()) != PDFContentLexer.END) {
+            if (token == PDFContentLexer.OPERATOR) {
+                if (lexer.operatorEquals("begincodespacerange")) {
+                    section = SECTION_CODESPACE;
+                } else if (lexer.operatorEquals("beginbfchar")) {
+                    section = SECTION_BFCHAR;
+                } else if (lexer.operatorEquals("beginbfrange")) {
+                    section = SECTION_BFRANGE;
+                } else if (lexer.operatorEquals("endcodespacerange") || lexer.operatorEquals("endbfchar")
+                        || lexer.operatorEquals("endbfrange")) {
+                    section = SECTION_NONE;
+                }
+                pending = 0;
+                continue;
+            }
+            if (section == SECTION_NONE) {
+                continue;
+            }
+            if (token == PDFContentLexer.ARRAY_START && section == SECTION_BFRANGE && pending == 2) {
+                readRangeArray(lexer, codes[0], codes[1]);
+                pending = 0;
+                continue;
+            }
+            if (token != PDFContentLexer.STRING) {
+                pending = 0;
+                continue;
+            }
+            byte[] bytes = lexer.getStringBuffer();
+            int length = lexer.getStringLength();
+            if (section == SECTION_CODESPACE) {
+                codes[pending++] = toCode(bytes, length);
+                if (pending == 2) {
+                    addCodespace(codes[0], codes[1], length);
+                    pending = 0;
+                }
+            } else if (section == SECTION_BFCHAR) {
+                if (pending == 0) {
+                    codes[pending++] = toCode(bytes, length);
+                } else {
+                    map(codes[0], utf16(bytes, length));
+                    pending = 0;
+                }
+            } else if (pending < 2) {
+                codes[pending++] = toCode(bytes, length);
+            } else {
+                mapRange(codes[0], codes[1], bytes, length);
+                pending = 0;
+            }
+        }
+    }
+
+    // <lo> <hi> [<dst1> <dst2> ...] form of bfrange
+    private void readRangeArray(PDFContentLexer lexer, int low, int high) throws IOException {
+        int code = low;
+        int token;
+        while ((token = lexer.next()) != PDFContentLexer.END && token != PDFContentLexer.ARRAY_END) {
+            if (token == PDFContentLexer.STRING && code <= high) {
+                map(code++, utf16(lexer.getStringBuffer(), lexer.getStringLength()));
+            }
+        }
+    }
+
+    private void mapRange(int low, int high, byte[] destination, int length) {
+        if (high < low || high - low >= MAX_RANGE_SIZE || length == 0) {
+            return;
+        }
+        // The last UTF-16 unit increments across the range
+        char[] chars = utf16(destination, length).toCharArray();
+        for (int code = low; code <= high; code++) {
+            map(code, new String(chars));
+            chars[chars.length - 1]++;
+        }
+    }
+
+    private void map(int code, String value) {
+        if (value.isEmpty()) {
+            return;
+        }
+        if (value.length() == 1 && code <= MAX_DENSE_CODE) {
+            if (code >= singles.length) {
+                singles = Arrays.copyOf(singles, Math.min(MAX_DENSE_CODE + 1, Math.max(code + 1, singles.length * 2)));
+            }
+            singles[code] = value.charAt(0);
+            return;
+        }
+        // Multi-character mappings are few, so keep them sorted by insertion
+        int index = Arrays.binarySearch(multiCodes, 0, multiCount, code);
+        if (index >= 0) {
+            multiValues[index] = value;
+            return;
+        }
+        index = -index - 1;
+        if (multiCount == multiCodes.length) {
+            multiCodes = Arrays.copyOf(multiCodes, multiCount * 2);
+            multiValues = Arrays.copyOf(multiValues, multiCount * 2);
+        }
+        System.arraycopy(multiCodes, index, multiCodes, index + 1, multiCount - index);
+        System.arraycopy(multiValues, index, multiValues, index + 1, multiCount - index);
+        multiCodes[index] = code;
+        multiValues[index] = value;
+        multiCount++;
+    }
+
+    private void addCodespace(int low, int high, int length) {
+        if (codespaceCount == codespaceLows.length) {
+            codespaceLows = Arrays.copyOf(codespaceLows, codespaceCount * 2);
+            codespaceHighs = Arrays.copyOf(codespaceHighs, codespaceCount * 2);
+            codespaceLengths = Arrays.copyOf(codespaceLengths, codespaceCount * 2);
+        }
+        codespaceLows[codespaceCount] = low;
+        codespaceHighs[codespaceCount] = high;
+        codespaceLengths[codespaceCount++] = Math.max(1, Math.min(4, length));
+    }
+
+    private static int toCode(byte[] bytes, int length) {
+        int code = 0;
+        for (int i = 0; i < length && i < 4; i++) {
+            code = (code << 8) | (bytes[i] & 0xFF);
+        }
+        return code;
+    }
+
+    private static String utf16(byte[] bytes, int length) {
+        if (length == 1) {
+            return String.valueOf((char) (bytes[0] & 0xFF));
+        }
+        char[] chars = new char[length / 2];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (((bytes[2 * i] & 0xFF) << 8) | (bytes[2 * i + 1] & 0xFF));
+        }
+        return new String(chars);
+    }
+
+    private static String digest(byte[] data) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return data.length + ":" + Arrays.hashCode(data);
+        }
+    }
+}
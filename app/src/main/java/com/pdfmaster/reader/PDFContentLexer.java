@@ -0,0 +1,386 @@
+package com.pdfmaster.reader;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Byte-level tokenizer for content streams. It reads incrementally from a decoded
+ * stream into a reusable sliding window and reports each token as a type plus
+ * offsets or a primitive value, so lexing allocates nothing once its buffers have
+ * grown to fit the largest token.
+ *
+ * Operators, numbers and names are read straight from the window; literal and hex
+ * strings and names with # escapes are decoded into a reusable string buffer.
+ */
+public class PDFContentLexer {
+
+    public static final int END = 0;
+    public static final int NUMBER = 1;
+    public static final int STRING = 2;
+    public static final int NAME = 3;
+    public static final int OPERATOR = 4;
+    public static final int ARRAY_START = 5;
+    public static final int ARRAY_END = 6;
+    public static final int DICT_START = 7;
+    public static final int DICT_END = 8;
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    private final InputStream in;
+    private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    private int tokenStart;
+    private int tokenLength;
+    private double number;
+    private byte[] stringBuffer = new byte[256];
+    private int stringLength;
+
+    public PDFContentLexer(InputStream in) {
+        this.in = in;
+    }
+
+    public byte[] getBuffer() { return buf; }
+    public int getTokenStart() { return tokenStart; }
+    public int getTokenLength() { return tokenLength; }
+    public double getNumber() { return number; }
+    public byte[] getStringBuffer() { return stringBuffer; }
+    public int getStringLength() { return stringLength; }
+
+    // Packs operators of up to three bytes into an int, matching operator(String); 0 otherwise
+    public int getOperator() {
+        if (tokenLength > 3) {
+            return 0;
+        }
+        int code = 0;
+        for (int i = 0; i < tokenLength; i++) {
+            code = (code << 8) | (buf[tokenStart + i] & 0xFF);
+        }
+        return (tokenLength << 24) | code;
+    }
+
+    public static int operator(String name) {
+        int code = 0;
+        for (int i = 0; i < name.length(); i++) {
+            code = (code << 8) | name.charAt(i);
+        }
+        return (name.length() << 24) | code;
+    }
+
+    public boolean operatorEquals(String keyword) {
+        if (tokenLength != keyword.length()) {
+            return false;
+        }
+        for (int i = 0; i < tokenLength; i++) {
+            if (buf[tokenStart + i] != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int next() throws IOException {
+        while (true) {
+            if (!skipWhitespace()) {
+                return END;
+            }
+            tokenStart = pos;
+            int type = scanToken();
+            if (type >= 0) {
+                tokenLength = pos - tokenStart;
+                return type;
+            }
+            if (eof) {
+                // Truncated final token
+                pos = limit;
+                return END;
+            }
+            // The token ran past the window; rescan it after refilling
+            pos = tokenStart;
+            refill();
+        }
+    }
+
+    // Returns false at the end of the stream
+    private boolean skipWhitespace() throws IOException {
+        boolean inComment = false;
+        while (true) {
+            if (pos >= limit) {
+                if (eof) {
+                    return false;
+                }
+                refill();
+                continue;
+            }
+            int c = buf[pos];
+            if (inComment) {
+                inComment = c != '\n' && c != '\r';
+            } else if (c == '%') {
+                inComment = true;
+            } else if (!PDFObjectParser.isWhitespace(c & 0xFF)) {
+                return true;
+            }
+            pos++;
+        }
+    }
+
+    // Returns the token type, or -1 if the window ended before the token did
+    private int scanToken() {
+        int c = buf[pos] & 0xFF;
+        switch (c) {
+            case '/':
+                return scanName();
+            case '(':
+                return scanLiteralString();
+            case '[':
+                pos++;
+                return ARRAY_START;
+            case ']':
+                pos++;
+                return ARRAY_END;
+            case '<':
+                if (pos + 1 >= limit) {
+                    return eof ? singleByteOperator() : -1;
+                }
+                if (buf[pos + 1] == '<') {
+                    pos += 2;
+                    return DICT_START;
+                }
+                return scanHexString();
+            case '>':
+                if (pos + 1 >= limit && !eof) {
+                    return -1;
+                }
+                if (pos + 1 < limit && buf[pos + 1] == '>') {
+                    pos += 2;
+                    return DICT_END;
+                }
+                return singleByteOperator();
+            default:
+                if ((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.') {
+                    return scanNumber();
+                }
+                if (!PDFObjectParser.isRegular(c)) {
+                    // Stray delimiter such as ')' or '{'
+                    return singleByteOperator();
+                }
+                return scanOperator();
+        }
+    }
+
+    private int singleByteOperator() {
+        pos++;
+        return OPERATOR;
+    }
+
+    private int scanOperator() {
+        while (pos < limit && PDFObjectParser.isRegular(buf[pos] & 0xFF)) {
+            pos++;
+        }
+        return pos < limit || eof ? OPERATOR : -1;
+    }
+
+    private int scanNumber() {
+        boolean negative = false;
+        boolean fraction = false;
+        double value = 0;
+        double scale = 1;
+        while (pos < limit && (buf[pos] == '+' || buf[pos] == '-')) {
+            negative = buf[pos] == '-';
+            pos++;
+        }
+        while (pos < limit) {
+            int c = buf[pos];
+            if (c >= '0' && c <= '9') {
+                if (fraction) {
+                    scale /= 10;
+                    value += (c - '0') * scale;
+                } else {
+                    value = value * 10 + (c - '0');
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (pos >= limit && !eof) {
+            return -1;
+        }
+        number = negative ? -value : value;
+        return NUMBER;
+    }
+
+    private int scanName() {
+        pos++;
+        stringLength = 0;
+        while (pos < limit && PDFObjectParser.isRegular(buf[pos] & 0xFF)) {
+            int b = buf[pos] & 0xFF;
+            if (b == '#') {
+                if (pos + 2 >= limit && !eof) {
+                    return -1;
+                }
+                int hi = pos + 1 < limit ? PDFObjectParser.hexValue(buf[pos + 1]) : -1;
+                int lo = pos + 2 < limit ? PDFObjectParser.hexValue(buf[pos + 2]) : -1;
+                if (hi >= 0 && lo >= 0) {
+                    appendString((hi << 4) | lo);
+                    pos += 3;
+                    continue;
+                }
+            }
+            appendString(b);
+            pos++;
+        }
+        return pos < limit || eof ? NAME : -1;
+    }
+
+    private int scanLiteralString() {
+        pos++;
+        stringLength = 0;
+        int depth = 1;
+        while (true) {
+            if (pos >= limit) {
+                return -1;
+            }
+            int c = buf[pos++] & 0xFF;
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                if (--depth == 0) {
+                    return STRING;
+                }
+            } else if (c == '\\') {
+                if (pos >= limit) {
+                    return -1;
+                }
+                c = buf[pos++] & 0xFF;
+                switch (c) {
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 't': c = '\t'; break;
+                    case 'b': c = '\b'; break;
+                    case 'f': c = '\f'; break;
+                    case '\r':
+                        if (pos >= limit) {
+                            return -1;
+                        }
+                        if (buf[pos] == '\n') {
+                            pos++;
+                        }
+                        continue;
+                    case '\n':
+                        continue;
+                    default:
+                        if (c >= '0' && c <= '7') {
+                            int value = c - '0';
+                            for (int i = 0; i < 2; i++) {
+                                if (pos >= limit) {
+                                    return -1;
+                                }
+                                if (buf[pos] < '0' || buf[pos] > '7') {
+                                    break;
+                                }
+                                value = value * 8 + (buf[pos++] - '0');
+                            }
+                            c = value & 0xFF;
+                        }
+                        break;
+                }
+            }
+            appendString(c);
+        }
+    }
+
+    private int scanHexString() {
+        pos++;
+        stringLength = 0;
+        int high = -1;
+        while (true) {
+            if (pos >= limit) {
+                return -1;
+            }
+            int c = buf[pos++] & 0xFF;
+            if (c == '>') {
+                break;
+            }
+            int value = PDFObjectParser.hexValue(c);
+            if (value < 0) {
+                continue;
+            }
+            if (high < 0) {
+                high = value;
+            } else {
+                appendString((high << 4) | value);
+                high = -1;
+            }
+        }
+        if (high >= 0) {
+            appendString(high << 4);
+        }
+        return STRING;
+    }
+
+    private void appendString(int b) {
+        if (stringLength == stringBuffer.length) {
+            byte[] larger = new byte[stringBuffer.length * 2];
+            System.arraycopy(stringBuffer, 0, larger, 0, stringLength);
+            stringBuffer = larger;
+        }
+        stringBuffer[stringLength++] = (byte) b;
+    }
+
+    // Inline image data is binary; skip past ID to the EI that follows whitespace
+    public void skipInlineImage() throws IOException {
+        if (skipPast('I', 'D')) {
+            skipPast('E', 'I');
+        }
+    }
+
+    // Advances past the next whitespace-delimited two-letter marker
+    private boolean skipPast(int first, int second) throws IOException {
+        int previous = ' ';
+        while (true) {
+            if (pos + 2 >= limit && !eof) {
+                refill();
+                continue;
+            }
+            if (pos + 1 >= limit) {
+                pos = limit;
+                return false;
+            }
+            if (buf[pos] == first && buf[pos + 1] == second && PDFObjectParser.isWhitespace(previous)
+                    && (pos + 2 >= limit || !PDFObjectParser.isRegular(buf[pos + 2] & 0xFF))) {
+                pos += 2;
+                return true;
+            }
+            previous = buf[pos++] & 0xFF;
+        }
+    }
+
+    // Keeps the unread tail, then tops the window up from the stream
+    private void refill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buf.length) {
+            if (buf.length >= MAX_BUFFER_SIZE) {
+                throw new IOException("Content token larger than " + MAX_BUFFER_SIZE + " bytes");
+            }
+            byte[] larger = new byte[Math.min(buf.length * 2, MAX_BUFFER_SIZE)];
+            System.arraycopy(buf, 0, larger, 0, limit);
+            buf = larger;
+        }
+        int count = in.read(buf, limit, buf.length - limit);
+        if (count < 0) {
+            eof = true;
+        } else {
+            limit += count;
+        }
+    }
+}
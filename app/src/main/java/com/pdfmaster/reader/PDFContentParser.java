@@ -0,0 +1,751 @@
+package com.pdfmaster.reader;
+
+import android.util.Log;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interprets a page's content streams and collects the text shown by the
+ * Tj, TJ, ' and " operators, following Form XObjects referenced with Do.
+ *
+ * Operands are held in parallel primitive arrays and reused from one operator to
+ * the next, so only the extracted text itself is allocated per page.
+ *
+ * extractText() still applies Tm, Td, cm and the other state operators, which is a
+ * few float operations each, but it never advances the text matrix glyph by glyph,
+ * looks up glyph widths or computes boxes. extractLayout() does all of that, giving
+ * each glyph a box from the font's widths, ascent and descent.
+ */
+public class PDFContentParser {
+
+    private static final String TAG = "PDFContentParser";
+    private static final int MAX_FORM_DEPTH = 8;
+    // TJ adjustments are in thousandths of a text space unit; larger gaps are word breaks
+    private static final float TJ_SPACE_THRESHOLD = 200f;
+    private static final int NAME_CACHE_SIZE = 16;
+    private static final String[] LIGATURES = {"ff", "fi", "fl", "ffi", "ffl"};
+    // CTM, then character spacing, word spacing, horizontal scale, leading, font size and rise
+    private static final int STATE_SIZE = 12;
+    private static final float[] DEFAULT_MEDIA_BOX = {0, 0, 612, 792};
+
+    // Operators packed as by PDFContentLexer.getOperator(): length in the top byte, then the bytes
+    private static final int OP_BT = (2 << 24) | ('B' << 8) | 'T';
+    private static final int OP_BI = (2 << 24) | ('B' << 8) | 'I';
+    private static final int OP_TF = (2 << 24) | ('T' << 8) | 'f';
+    private static final int OP_TJ_STRING = (2 << 24) | ('T' << 8) | 'j';
+    private static final int OP_TJ_ARRAY = (2 << 24) | ('T' << 8) | 'J';
+    private static final int OP_QUOTE = (1 << 24) | '\'';
+    private static final int OP_DOUBLE_QUOTE = (1 << 24) | '"';
+    private static final int OP_T_STAR = (2 << 24) | ('T' << 8) | '*';
+    private static final int OP_TD = (2 << 24) | ('T' << 8) | 'd';
+    private static final int OP_TD_LEADING = (2 << 24) | ('T' << 8) | 'D';
+    private static final int OP_TM = (2 << 24) | ('T' << 8) | 'm';
+    private static final int OP_DO = (2 << 24) | ('D' << 8) | 'o';
+    private static final int OP_SAVE = (1 << 24) | 'q';
+    private static final int OP_RESTORE = (1 << 24) | 'Q';
+    private static final int OP_CM = (2 << 24) | ('c' << 8) | 'm';
+    private static final int OP_TC = (2 << 24) | ('T' << 8) | 'c';
+    private static final int OP_TW = (2 << 24) | ('T' << 8) | 'w';
+    private static final int OP_TZ = (2 << 24) | ('T' << 8) | 'z';
+    private static final int OP_TL = (2 << 24) | ('T' << 8) | 'L';
+    private static final int OP_TS = (2 << 24) | ('T' << 8) | 's';
+
+    private static final int KIND_NUMBER = 0;
+    private static final int KIND_STRING = 1;
+    private static final int KIND_NAME = 2;
+    private static final int KIND_ARRAY_START = 3;
+    private static final int KIND_ARRAY_END = 4;
+    private static final int KIND_OTHER = 5;
+
+    private PDFDocument document;
+    private StringBuilder text;
+    private Map<String, Object> fontDicts;
+    private PDFFont font;
+    private final StringBuilder decoded = new StringBuilder();
+
+    // Operand stack; strings and names are copied into operandBytes
+    private int[] operandKinds = new int[32];
+    private float[] operandNumbers = new float[32];
+    private int[] operandOffsets = new int[32];
+    private int[] operandLengths = new int[32];
+    private int operandCount;
+    private byte[] operandBytes = new byte[1024];
+    private int operandBytesLength;
+
+    // Recently seen resource names, so Tf and Do do not allocate a String each time
+    private final byte[][] nameCacheBytes = new byte[NAME_CACHE_SIZE][];
+    private final String[] nameCacheStrings = new String[NAME_CACHE_SIZE];
+    private int nameCacheNext;
+
+    // Graphics and text state
+    private boolean trackLayout;
+    private final float[] ctm = new float[6];
+    private final float[] textMatrix = new float[6];
+    private final float[] lineMatrix = new float[6];
+    private final float[] glyphMatrix = new float[6];
+    private float charSpacing;
+    private float wordSpacing;
+    private float horizontalScale;
+    private float leading;
+    private float fontSize;
+    private float rise;
+    // States saved by q, STATE_SIZE floats per level, with the font alongside
+    private float[] savedStates = new float[STATE_SIZE * 8];
+    private PDFFont[] stateFonts = new PDFFont[8];
+    private int stateDepth;
+
+    // Glyph boxes in user space, parallel to text; characters past boxCount have none yet
+    private float[] boxLefts = new float[0];
+    private float[] boxBottoms = new float[0];
+    private float[] boxRights = new float[0];
+    private float[] boxTops = new float[0];
+    private int boxCount;
+    private int[] runStarts = new int[0];
+    private int runCount;
+
+    public PDFContentParser(PDFDocument document) {
+        this.document = document;
+    }
+
+    public String extractText(Map<String, Object> page) throws IOException {
+        trackLayout = false;
+        processPage(page);
+        return normalizeWhitespace(text);
+    }
+
+    // Text of the page with a box for each character
+    public PDFTextLayout extractLayout(Map<String, Object> page) throws IOException {
+        trackLayout = true;
+        boxLefts = new float[1024];
+        boxBottoms = new float[1024];
+        boxRights = new float[1024];
+        boxTops = new float[1024];
+        boxCount = 0;
+        runStarts = new int[64];
+        runCount = 0;
+        try {
+            processPage(page);
+            return buildLayout(mediaBox(page));
+        } finally {
+            trackLayout = false;
+        }
+    }
+
+    private void processPage(Map<String, Object> page) throws IOException {
+        text = new StringBuilder();
+        font = null;
+        setIdentity(ctm);
+        setIdentity(textMatrix);
+        setIdentity(lineMatrix);
+        charSpacing = 0;
+        wordSpacing = 0;
+        horizontalScale = 1;
+        leading = 0;
+        fontSize = 0;
+        rise = 0;
+        stateDepth = 0;
+        try (InputStream content = document.openPageContents(page)) {
+            processContent(content, document.resolveDict(page.get("Resources")), 0);
+        }
+    }
+
+    private void processContent(InputStream content, Map<String, Object> resources, int depth) throws IOException {
+        Map<String, Object> savedFonts = fontDicts;
+        fontDicts = resources != null ? document.resolveDict(resources.get("Font")) : null;
+
+        PDFContentLexer lexer = new PDFContentLexer(content);
+        operandCount = 0;
+        operandBytesLength = 0;
+
+        while (true) {
+            int token;
+            try {
+                token = lexer.next();
+            } catch (IOException e) {
+                Log.w(TAG, "Stopping at malformed content", e);
+                break;
+            }
+            if (token == PDFContentLexer.END) {
+                break;
+            }
+            switch (token) {
+                case PDFContentLexer.NUMBER:
+                    // pushOperand may grow the arrays, so take the index before indexing
+                    int index = pushOperand(KIND_NUMBER);
+                    operandNumbers[index] = (float) lexer.getNumber();
+                    continue;
+                case PDFContentLexer.STRING:
+                    pushBytes(KIND_STRING, lexer.getStringBuffer(), lexer.getStringLength());
+                    continue;
+                case PDFContentLexer.NAME:
+                    pushBytes(KIND_NAME, lexer.getStringBuffer(), lexer.getStringLength());
+                    continue;
+                case PDFContentLexer.ARRAY_START:
+                    pushOperand(KIND_ARRAY_START);
+                    continue;
+                case PDFContentLexer.ARRAY_END:
+                    pushOperand(KIND_ARRAY_END);
+                    continue;
+                case PDFContentLexer.DICT_START:
+                case PDFContentLexer.DICT_END:
+                    pushOperand(KIND_OTHER);
+                    continue;
+                default:
+                    break;
+            }
+            int operator = lexer.getOperator();
+            if (operator == 0 && (lexer.operatorEquals("true") || lexer.operatorEquals("false")
+                    || lexer.operatorEquals("null"))) {
+                pushOperand(KIND_OTHER);
+                continue;
+            }
+            switch (operator) {
+                case OP_BT:
+                    appendBreak(' ');
+                    setIdentity(textMatrix);
+                    setIdentity(lineMatrix);
+                    break;
+                case OP_TM:
+                    appendBreak(' ');
+                    if (hasNumbers(6)) {
+                        System.arraycopy(operandNumbers, operandCount - 6, lineMatrix, 0, 6);
+                        System.arraycopy(operandNumbers, operandCount - 6, textMatrix, 0, 6);
+                    }
+                    break;
+                case OP_TF:
+                    if (operandCount >= 2 && operandKinds[operandCount - 2] == KIND_NAME) {
+                        selectFont(operandName(operandCount - 2));
+                        if (operandKinds[operandCount - 1] == KIND_NUMBER) {
+                            fontSize = operandNumbers[operandCount - 1];
+                        }
+                    }
+                    break;
+                case OP_TJ_STRING:
+                    showLastString();
+                    break;
+                case OP_QUOTE:
+                    appendBreak('\n');
+                    moveToNextLine(0, -leading);
+                    showLastString();
+                    break;
+                case OP_DOUBLE_QUOTE:
+                    if (operandCount >= 3 && operandKinds[operandCount - 3] == KIND_NUMBER
+                            && operandKinds[operandCount - 2] == KIND_NUMBER) {
+                        wordSpacing = operandNumbers[operandCount - 3];
+                        charSpacing = operandNumbers[operandCount - 2];
+                    }
+                    appendBreak('\n');
+                    moveToNextLine(0, -leading);
+                    showLastString();
+                    break;
+                case OP_TJ_ARRAY:
+                    showTextArray();
+                    break;
+                case OP_T_STAR:
+                    appendBreak('\n');
+                    moveToNextLine(0, -leading);
+                    break;
+                case OP_TD:
+                case OP_TD_LEADING:
+                    if (hasNumbers(2)) {
+                        float ty = operandNumbers[operandCount - 1];
+                        appendBreak(ty != 0 ? '\n' : ' ');
+                        if (operator == OP_TD_LEADING) {
+                            leading = -ty;
+                        }
+                        moveToNextLine(operandNumbers[operandCount - 2], ty);
+                    }
+                    break;
+                case OP_TC:
+                    if (hasNumbers(1)) {
+                        charSpacing = operandNumbers[operandCount - 1];
+                    }
+                    break;
+                case OP_TW:
+                    if (hasNumbers(1)) {
+                        wordSpacing = operandNumbers[operandCount - 1];
+                    }
+                    break;
+                case OP_TZ:
+                    if (hasNumbers(1)) {
+                        horizontalScale = operandNumbers[operandCount - 1] / 100f;
+                    }
+                    break;
+                case OP_TL:
+                    if (hasNumbers(1)) {
+                        leading = operandNumbers[operandCount - 1];
+                    }
+                    break;
+                case OP_TS:
+                    if (hasNumbers(1)) {
+                        rise = operandNumbers[operandCount - 1];
+                    }
+                    break;
+                case OP_SAVE:
+                    saveState();
+                    break;
+                case OP_RESTORE:
+                    restoreState();
+                    break;
+                case OP_CM:
+                    if (hasNumbers(6)) {
+                        concatenate(operandNumbers, operandCount - 6, ctm);
+                    }
+                    break;
+                case OP_DO:
+                    if (operandCount >= 1 && operandKinds[operandCount - 1] == KIND_NAME && depth < MAX_FORM_DEPTH) {
+                        processXObject(operandName(operandCount - 1), resources, depth);
+                    }
+                    break;
+                case OP_BI:
+                    lexer.skipInlineImage();
+                    break;
+                default:
+                    break;
+            }
+            operandCount = 0;
+            operandBytesLength = 0;
+        }
+
+        fontDicts = savedFonts;
+    }
+
+    private boolean hasNumbers(int count) {
+        if (operandCount < count) {
+            return false;
+        }
+        for (int i = operandCount - count; i < operandCount; i++) {
+            if (operandKinds[i] != KIND_NUMBER) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int pushOperand(int kind) {
+        if (operandCount == operandKinds.length) {
+            int capacity = operandCount * 2;
+            operandKinds = Arrays.copyOf(operandKinds, capacity);
+            operandNumbers = Arrays.copyOf(operandNumbers, capacity);
+            operandOffsets = Arrays.copyOf(operandOffsets, capacity);
+            operandLengths = Arrays.copyOf(operandLengths, capacity);
+        }
+        operandKinds[operandCount] = kind;
+        return operandCount++;
+    }
+
+    private void pushBytes(int kind, byte[] bytes, int length) {
+        int index = pushOperand(kind);
+        if (operandBytesLength + length > operandBytes.length) {
+            operandBytes = Arrays.copyOf(operandBytes, Math.max(operandBytes.length * 2, operandBytesLength + length));
+        }
+        System.arraycopy(bytes, 0, operandBytes, operandBytesLength, length);
+        operandOffsets[index] = operandBytesLength;
+        operandLengths[index] = length;
+        operandBytesLength += length;
+    }
+
+    private String operandName(int index) {
+        int offset = operandOffsets[index];
+        int length = operandLengths[index];
+        for (int i = 0; i < NAME_CACHE_SIZE; i++) {
+            byte[] cached = nameCacheBytes[i];
+            if (cached != null && cached.length == length && regionMatches(cached, offset, length)) {
+                return nameCacheStrings[i];
+            }
+        }
+        byte[] bytes = Arrays.copyOfRange(operandBytes, offset, offset + length);
+        String name = new String(bytes, StandardCharsets.ISO_8859_1);
+        nameCacheBytes[nameCacheNext] = bytes;
+        nameCacheStrings[nameCacheNext] = name;
+        nameCacheNext = (nameCacheNext + 1) % NAME_CACHE_SIZE;
+        return name;
+    }
+
+    private boolean regionMatches(byte[] cached, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (cached[i] != operandBytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void selectFont(String name) {
+        font = fontDicts != null ? document.getFont(fontDicts.get(name)) : null;
+    }
+
+    private void showLastString() {
+        if (operandCount >= 1 && operandKinds[operandCount - 1] == KIND_STRING) {
+            showText(operandOffsets[operandCount - 1], operandLengths[operandCount - 1]);
+        }
+    }
+
+    private void showText(int offset, int length) {
+        if (trackLayout) {
+            showGlyphs(offset, length);
+            return;
+        }
+        if (font == null) {
+            for (int i = offset; i < offset + length; i++) {
+                appendChar((char) (operandBytes[i] & 0xFF));
+            }
+            return;
+        }
+        decoded.setLength(0);
+        font.decode(operandBytes, offset, length, decoded);
+        for (int i = 0; i < decoded.length(); i++) {
+            appendChar(decoded.charAt(i));
+        }
+    }
+
+    // Shows the strings of the last array operand, treating large negative adjustments as spaces
+    private void showTextArray() {
+        int end = operandCount - 1;
+        if (end < 0 || operandKinds[end] != KIND_ARRAY_END) {
+            return;
+        }
+        int start = end - 1;
+        while (start >= 0 && operandKinds[start] != KIND_ARRAY_START) {
+            start--;
+        }
+        if (start < 0) {
+            return;
+        }
+        for (int i = start + 1; i < end; i++) {
+            if (operandKinds[i] == KIND_STRING) {
+                showText(operandOffsets[i], operandLengths[i]);
+            } else if (operandKinds[i] == KIND_NUMBER) {
+                if (-operandNumbers[i] > TJ_SPACE_THRESHOLD) {
+                    appendBreak(' ');
+                }
+                // Plain text ignores glyph positions, so only the layout needs the gap
+                if (trackLayout) {
+                    advance(-operandNumbers[i] / 1000f * fontSize * horizontalScale);
+                }
+            }
+        }
+    }
+
+    // Shows a string glyph by glyph, giving each glyph's characters its box and advancing the text matrix
+    private void showGlyphs(int offset, int length) {
+        startRun();
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int codeLength = font != null ? font.codeLength(operandBytes, i, end) : 1;
+            if (i + codeLength > end) {
+                break;
+            }
+            int code = PDFFont.readCode(operandBytes, i, codeLength);
+            int before = text.length();
+            if (font != null) {
+                decoded.setLength(0);
+                font.decode(code, decoded);
+                for (int k = 0; k < decoded.length(); k++) {
+                    appendChar(decoded.charAt(k));
+                }
+            } else {
+                appendChar((char) code);
+            }
+            float width = font != null ? font.getWidth(code) : PDFFont.DEFAULT_WIDTH;
+            if (text.length() > before) {
+                addGlyphBox(before, width * fontSize * horizontalScale);
+            }
+            // Word spacing applies to the single-byte code 32 only
+            float spacing = charSpacing + (codeLength == 1 && code == ' ' ? wordSpacing : 0);
+            advance((width * fontSize + spacing) * horizontalScale);
+            i += codeLength;
+        }
+    }
+
+    private void addGlyphBox(int start, float width) {
+        float ascent = font != null ? font.getAscent() : PDFFont.DEFAULT_ASCENT;
+        float descent = font != null ? font.getDescent() : PDFFont.DEFAULT_DESCENT;
+        float bottom = descent * fontSize + rise;
+        float top = ascent * fontSize + rise;
+        // Text space to user space is the text matrix followed by the CTM
+        System.arraycopy(ctm, 0, glyphMatrix, 0, 6);
+        concatenate(textMatrix, 0, glyphMatrix);
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int corner = 0; corner < 4; corner++) {
+            float x = (corner & 1) == 0 ? 0 : width;
+            float y = (corner & 2) == 0 ? bottom : top;
+            float userX = x * glyphMatrix[0] + y * glyphMatrix[2] + glyphMatrix[4];
+            float userY = x * glyphMatrix[1] + y * glyphMatrix[3] + glyphMatrix[5];
+            minX = Math.min(minX, userX);
+            maxX = Math.max(maxX, userX);
+            minY = Math.min(minY, userY);
+            maxY = Math.max(maxY, userY);
+        }
+        int end = text.length();
+        ensureBoxCapacity(end);
+        fillEmptyBoxes(start);
+        // Characters from one glyph, such as a ligature, share its width
+        float step = (maxX - minX) / (end - start);
+        for (int i = start; i < end; i++) {
+            boxLefts[i] = minX + step * (i - start);
+            boxRights[i] = minX + step * (i - start + 1);
+            boxBottoms[i] = minY;
+            boxTops[i] = maxY;
+        }
+        boxCount = end;
+    }
+
+    private void ensureBoxCapacity(int length) {
+        if (length > boxLefts.length) {
+            int capacity = Math.max(length, boxLefts.length * 2);
+            boxLefts = Arrays.copyOf(boxLefts, capacity);
+            boxBottoms = Arrays.copyOf(boxBottoms, capacity);
+            boxRights = Arrays.copyOf(boxRights, capacity);
+            boxTops = Arrays.copyOf(boxTops, capacity);
+        }
+    }
+
+    // Characters added since the last glyph are separators without a box
+    private void fillEmptyBoxes(int end) {
+        ensureBoxCapacity(end);
+        for (int i = boxCount; i < end; i++) {
+            boxLefts[i] = 0;
+            boxBottoms[i] = 0;
+            boxRights[i] = 0;
+            boxTops[i] = 0;
+        }
+        boxCount = Math.max(boxCount, end);
+    }
+
+    private void startRun() {
+        int start = text.length();
+        if (runCount > 0 && runStarts[runCount - 1] == start) {
+            return;
+        }
+        if (runCount == runStarts.length) {
+            runStarts = Arrays.copyOf(runStarts, runCount * 2);
+        }
+        runStarts[runCount++] = start;
+    }
+
+    // Moves the text matrix along the baseline by tx text space units
+    private void advance(float tx) {
+        textMatrix[4] += tx * textMatrix[0];
+        textMatrix[5] += tx * textMatrix[1];
+    }
+
+    // Td: starts a new line offset from the start of the current one
+    private void moveToNextLine(float tx, float ty) {
+        lineMatrix[4] += tx * lineMatrix[0] + ty * lineMatrix[2];
+        lineMatrix[5] += tx * lineMatrix[1] + ty * lineMatrix[3];
+        System.arraycopy(lineMatrix, 0, textMatrix, 0, 6);
+    }
+
+    private void saveState() {
+        if ((stateDepth + 1) * STATE_SIZE > savedStates.length) {
+            savedStates = Arrays.copyOf(savedStates, savedStates.length * 2);
+            stateFonts = Arrays.copyOf(stateFonts, stateFonts.length * 2);
+        }
+        int base = stateDepth * STATE_SIZE;
+        System.arraycopy(ctm, 0, savedStates, base, 6);
+        savedStates[base + 6] = charSpacing;
+        savedStates[base + 7] = wordSpacing;
+        savedStates[base + 8] = horizontalScale;
+        savedStates[base + 9] = leading;
+        savedStates[base + 10] = fontSize;
+        savedStates[base + 11] = rise;
+        stateFonts[stateDepth++] = font;
+    }
+
+    private void restoreState() {
+        if (stateDepth == 0) {
+            return;
+        }
+        int base = --stateDepth * STATE_SIZE;
+        System.arraycopy(savedStates, base, ctm, 0, 6);
+        charSpacing = savedStates[base + 6];
+        wordSpacing = savedStates[base + 7];
+        horizontalScale = savedStates[base + 8];
+        leading = savedStates[base + 9];
+        fontSize = savedStates[base + 10];
+        rise = savedStates[base + 11];
+        font = stateFonts[stateDepth];
+        stateFonts[stateDepth] = null;
+    }
+
+    private static void setIdentity(float[] matrix) {
+        matrix[0] = 1;
+        matrix[1] = 0;
+        matrix[2] = 0;
+        matrix[3] = 1;
+        matrix[4] = 0;
+        matrix[5] = 0;
+    }
+
+    // target = m x target, where m is the six values of matrix starting at offset
+    private static void concatenate(float[] matrix, int offset, float[] target) {
+        float a = matrix[offset];
+        float b = matrix[offset + 1];
+        float c = matrix[offset + 2];
+        float d = matrix[offset + 3];
+        float e = matrix[offset + 4];
+        float f = matrix[offset + 5];
+        float a0 = target[0];
+        float b0 = target[1];
+        float c0 = target[2];
+        float d0 = target[3];
+        target[0] = a * a0 + b * c0;
+        target[1] = a * b0 + b * d0;
+        target[2] = c * a0 + d * c0;
+        target[3] = c * b0 + d * d0;
+        target[4] = e * a0 + f * c0 + target[4];
+        target[5] = e * b0 + f * d0 + target[5];
+    }
+
+    private void appendChar(char c) {
+        if (c < 0x20 || (c >= 0x7F && c < 0xA0)) {
+            return;
+        }
+        // Spell out ligatures so the text reads and searches naturally
+        if (c >= '\uFB00' && c <= '\uFB04') {
+            text.append(LIGATURES[c - '\uFB00']);
+            return;
+        }
+        text.append(c);
+    }
+
+    private void appendBreak(char separator) {
+        int length = text.length();
+        if (length == 0) {
+            return;
+        }
+        char last = text.charAt(length - 1);
+        if (last == '\n' || (last == ' ' && separator == ' ')) {
+            return;
+        }
+        if (last == ' ') {
+            text.setCharAt(length - 1, separator);
+        } else {
+            text.append(separator);
+        }
+    }
+
+    private void processXObject(String name, Map<String, Object> resources, int depth) throws IOException {
+        if (resources == null) {
+            return;
+        }
+        Map<String, Object> xObjects = document.resolveDict(resources.get("XObject"));
+        if (xObjects == null) {
+            return;
+        }
+        Object xObject = document.resolve(xObjects.get(name));
+        if (!(xObject instanceof PDFStream) || !"Form".equals(((PDFStream) xObject).get("Subtype"))) {
+            return;
+        }
+        PDFStream form = (PDFStream) xObject;
+        Map<String, Object> formResources = document.resolveDict(form.get("Resources"));
+        // A form runs in its own graphics state, under its /Matrix
+        int depthBefore = stateDepth;
+        saveState();
+        float[] matrix = numbers(form.get("Matrix"), 6);
+        if (matrix != null) {
+            concatenate(matrix, 0, ctm);
+        }
+        try (InputStream formContent = document.openStream(form)) {
+            processContent(formContent, formResources != null ? formResources : resources, depth + 1);
+        } finally {
+            while (stateDepth > depthBefore) {
+                restoreState();
+            }
+        }
+    }
+
+    private float[] numbers(Object value, int count) {
+        List<Object> list = document.resolveArray(value);
+        if (list == null || list.size() < count) {
+            return null;
+        }
+        float[] numbers = new float[count];
+        for (int i = 0; i < count; i++) {
+            numbers[i] = PDFObjectParser.asFloat(document.resolve(list.get(i)), 0);
+        }
+        return numbers;
+    }
+
+    private float[] mediaBox(Map<String, Object> page) {
+        float[] box = numbers(page.get("MediaBox"), 4);
+        return box != null ? box : DEFAULT_MEDIA_BOX;
+    }
+
+    // Normalizes whitespace as extractText() does, carrying each kept character's box along
+    private PDFTextLayout buildLayout(float[] mediaBox) {
+        fillEmptyBoxes(text.length());
+        float x0 = Math.min(mediaBox[0], mediaBox[2]);
+        float y1 = Math.max(mediaBox[1], mediaBox[3]);
+        int length = text.length();
+        StringBuilder result = new StringBuilder(length);
+        float[] lefts = new float[length];
+        float[] tops = new float[length];
+        float[] rights = new float[length];
+        float[] bottoms = new float[length];
+        int[] starts = new int[runCount];
+        int startsCount = 0;
+        int run = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || c == 0xA0) {
+                pendingSpace = result.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                result.append(' ');
+                pendingSpace = false;
+            }
+            // A run begins at its first kept character
+            boolean runStarted = false;
+            while (run < runCount && runStarts[run] <= i) {
+                runStarted = true;
+                run++;
+            }
+            int index = result.length();
+            if (runStarted && (startsCount == 0 || starts[startsCount - 1] < index)) {
+                starts[startsCount++] = index;
+            }
+            result.append(c);
+            if (boxRights[i] > boxLefts[i]) {
+                lefts[index] = boxLefts[i] - x0;
+                rights[index] = boxRights[i] - x0;
+                tops[index] = y1 - boxTops[i];
+                bottoms[index] = y1 - boxBottoms[i];
+            }
+        }
+        int resultLength = result.length();
+        return new PDFTextLayout(result.toString(), Arrays.copyOf(lefts, resultLength),
+                Arrays.copyOf(tops, resultLength), Arrays.copyOf(rights, resultLength),
+                Arrays.copyOf(bottoms, resultLength), starts, startsCount,
+                Math.abs(mediaBox[2] - mediaBox[0]), Math.abs(mediaBox[3] - mediaBox[1]));
+    }
+
+    private static String normalizeWhitespace(StringBuilder raw) {
+        StringBuilder result = new StringBuilder(raw.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (Character.isWhitespace(c) || c == 0xA0) {
+                pendingSpace = result.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    result.append(' ');
+                    pendingSpace = false;
+                }
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
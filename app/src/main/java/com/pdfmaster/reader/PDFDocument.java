@@ -0,0 +1,719 @@
+package com.pdfmaster.reader;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Random-access view of a PDF file. Only the trailer and the cross-reference section
+ * headers are read up front; xref entries, objects and streams are read on demand, so
+ * the cost of reaching a page does not grow with its position in the document.
+ */
+public class PDFDocument implements Closeable {
+
+    private static final String TAG = "PDFDocument";
+    private static final int TAIL_SIZE = 1024;
+    private static final int INITIAL_WINDOW = 1024;
+    private static final int MAX_WINDOW = 8 * 1024 * 1024;
+    private static final int MAX_XREF_SECTIONS = 64;
+    private static final int MAX_TREE_DEPTH = 32;
+    private static final long DEFAULT_CACHE_BYTES = 2 * 1024 * 1024;
+    private static final long OBJECT_STREAM_CACHE_BYTES = 1024 * 1024;
+    private static final int MAX_CACHED_FONTS = 128;
+    private static final String[] INHERITED_PAGE_KEYS = {"Resources", "MediaBox", "CropBox", "Rotate"};
+
+    private PDFRandomAccessSource source;
+    private long length;
+    private final PDFObjectCache objectCache;
+    private final LinkedHashMap<Integer, ObjectStream> objectStreams = new LinkedHashMap<>(16, 0.75f, true);
+    private long objectStreamBytes;
+    private final LinkedHashMap<Integer, PDFFont> fonts = new LinkedHashMap<Integer, PDFFont>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, PDFFont> eldest) {
+            return size() > MAX_CACHED_FONTS;
+        }
+    };
+    private boolean xrefLoaded;
+    private final List<XrefSection> xrefSections = new ArrayList<>();
+    private Map<String, Object> trailer;
+    private Map<String, Object> pagesRoot;
+
+    public PDFDocument(PDFRandomAccessSource source) throws IOException {
+        this(source, new PDFObjectCache(DEFAULT_CACHE_BYTES));
+    }
+
+    public PDFDocument(PDFRandomAccessSource source, PDFObjectCache objectCache) throws IOException {
+        this.source = source;
+        this.length = source.length();
+        this.objectCache = objectCache;
+        readCrossReferences(findStartXref());
+        Map<String, Object> catalog = PDFObjectParser.asDict(resolve(trailer.get("Root")));
+        if (catalog == null) {
+            throw new IOException("Document catalog not found");
+        }
+        pagesRoot = PDFObjectParser.asDict(resolve(catalog.get("Pages")));
+        if (pagesRoot == null) {
+            throw new IOException("Page tree not found");
+        }
+        if (trailer.containsKey("Encrypt")) {
+            throw new IOException("Encrypted documents are not supported");
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public PDFObjectCache getObjectCache() {
+        return objectCache;
+    }
+
+    public Map<String, Object> getTrailer() {
+        return trailer;
+    }
+
+    public int getPageCount() {
+        return PDFObjectParser.asInt(resolve(pagesRoot.get("Count")), 0);
+    }
+
+    // Raw file access
+
+    public byte[] read(long position, int size) throws IOException {
+        return source.read(position, size);
+    }
+
+    private interface WindowParser<T> {
+        T parse(PDFObjectParser parser) throws IOException;
+    }
+
+    // Parses starting at a file offset, growing the window until the object fits
+    private <T> T parseAt(long offset, WindowParser<T> windowParser) throws IOException {
+        int window = INITIAL_WINDOW;
+        while (true) {
+            byte[] data = read(offset, window);
+            PDFObjectParser parser = new PDFObjectParser(data, 0, data.length, offset);
+            parser.setComplete(offset + data.length >= length);
+            try {
+                return windowParser.parse(parser);
+            } catch (EOFException e) {
+                if (offset + data.length >= length || window >= MAX_WINDOW) {
+                    throw e;
+                }
+                window *= 4;
+            }
+        }
+    }
+
+    // Cross-reference table
+
+    private long findStartXref() throws IOException {
+        int tailSize = (int) Math.min(TAIL_SIZE, length);
+        long tailStart = length - tailSize;
+        byte[] tail = read(tailStart, tailSize);
+        for (int i = tail.length - 9; i >= 0; i--) {
+            if (tail[i] == 's' && matches(tail, i, "startxref")) {
+                PDFObjectParser parser = new PDFObjectParser(tail, i + 9, tail.length - i - 9, tailStart + i + 9);
+                parser.setComplete(true);
+                Object offset = parser.parseObject();
+                if (offset instanceof Integer) {
+                    return (Integer) offset;
+                }
+                break;
+            }
+        }
+        throw new IOException("startxref not found");
+    }
+
+    private void readCrossReferences(long offset) throws IOException {
+        while (offset > 0 && xrefSections.size() < MAX_XREF_SECTIONS) {
+            XrefSection section = readXrefSection(offset);
+            xrefSections.add(section);
+            if (trailer == null) {
+                trailer = section.trailer;
+            }
+            // Hybrid files list compressed objects in a stream alongside the classic table
+            Object xrefStm = section.trailer.get("XRefStm");
+            if (xrefStm instanceof Integer) {
+                try {
+                    section.hybridStream = readXrefStream((Integer) xrefStm);
+                } catch (IOException e) {
+                    Log.w(TAG, "Ignoring unreadable XRefStm", e);
+                }
+            }
+            Object prev = section.trailer.get("Prev");
+            offset = prev instanceof Integer ? (Integer) prev : -1;
+        }
+        if (trailer == null) {
+            throw new IOException("Trailer not found");
+        }
+        xrefLoaded = true;
+    }
+
+    private XrefSection readXrefSection(long offset) throws IOException {
+        byte[] head = read(offset, 64);
+        PDFObjectParser parser = new PDFObjectParser(head, 0, head.length, offset);
+        parser.skipWhitespace();
+        if (parser.matches("xref")) {
+            return readXrefTable(offset + parser.getPosition() + 4);
+        }
+        return readXrefStream(offset);
+    }
+
+    // Reads the subsection headers only; entries are fetched individually on lookup
+    private XrefSection readXrefTable(long cursor) throws IOException {
+        XrefSection section = new XrefSection();
+        while (true) {
+            final long headerOffset = cursor;
+            Object[] header = parseAt(headerOffset, p -> {
+                Object first = p.parseObject();
+                if (first instanceof PDFObjectParser.Keyword) {
+                    return new Object[]{first, p.parseObject()};
+                }
+                Object count = p.parseObject();
+                // Entries begin with a digit, so skipping whitespace lands on the first one
+                p.skipWhitespace();
+                return new Object[]{first, count, p.getFileOffset()};
+            });
+            if (header[0] instanceof PDFObjectParser.Keyword) {
+                if (!((PDFObjectParser.Keyword) header[0]).is("trailer")) {
+                    throw new IOException("Malformed cross-reference table");
+                }
+                Map<String, Object> trailerDict = PDFObjectParser.asDict(header[1]);
+                if (trailerDict == null) {
+                    throw new IOException("Malformed trailer");
+                }
+                section.trailer = trailerDict;
+                return section;
+            }
+            int start = PDFObjectParser.asInt(header[0], -1);
+            int count = PDFObjectParser.asInt(header[1], -1);
+            if (start < 0 || count < 0) {
+                throw new IOException("Malformed cross-reference subsection");
+            }
+            long entriesOffset = (Long) header[2];
+            int entryWidth = count > 0 ? detectEntryWidth(entriesOffset) : 20;
+            section.subsections.add(new long[]{start, count, entriesOffset, entryWidth});
+            cursor = entriesOffset + (long) count * entryWidth;
+        }
+    }
+
+    // The spec mandates 20-byte entries, but some writers emit a single-byte line ending
+    private int detectEntryWidth(long entriesOffset) throws IOException {
+        byte[] entry = read(entriesOffset, 20);
+        if (entry.length >= 20 && PDFObjectParser.isWhitespace(entry[18]) && PDFObjectParser.isWhitespace(entry[19])) {
+            return 20;
+        }
+        return 19;
+    }
+
+    // PDF 1.5 cross-reference stream: fixed-width binary rows described by /W and /Index
+    private XrefSection readXrefStream(long offset) throws IOException {
+        Object object = parseAt(offset, parser -> parser.parseIndirectObject(-1));
+        if (!(object instanceof PDFStream) || !"XRef".equals(((PDFStream) object).get("Type"))) {
+            throw new IOException("No cross-reference table or stream at " + offset);
+        }
+        PDFStream stream = (PDFStream) object;
+        List<Object> widths = PDFObjectParser.asArray(stream.get("W"));
+        if (widths == null || widths.size() < 3) {
+            throw new IOException("Cross-reference stream without /W");
+        }
+        XrefSection section = new XrefSection();
+        section.trailer = stream.getDictionary();
+        section.streamData = readStream(stream);
+        section.fieldWidths = new int[3];
+        for (int i = 0; i < 3; i++) {
+            section.fieldWidths[i] = PDFObjectParser.asInt(widths.get(i), 0);
+        }
+        int rowWidth = section.fieldWidths[0] + section.fieldWidths[1] + section.fieldWidths[2];
+
+        List<Object> index = PDFObjectParser.asArray(stream.get("Index"));
+        if (index == null) {
+            index = new ArrayList<>();
+            index.add(0);
+            index.add(PDFObjectParser.asInt(stream.get("Size"), 0));
+        }
+        long rowOffset = 0;
+        for (int i = 0; i + 1 < index.size(); i += 2) {
+            int start = PDFObjectParser.asInt(index.get(i), 0);
+            int count = PDFObjectParser.asInt(index.get(i + 1), 0);
+            section.subsections.add(new long[]{start, count, rowOffset, rowWidth});
+            rowOffset += (long) count * rowWidth;
+        }
+        return section;
+    }
+
+    private XrefEntry lookup(int objectNumber) throws IOException {
+        for (XrefSection section : xrefSections) {
+            XrefEntry entry = section.lookup(objectNumber);
+            if ((entry == null || entry.type == XrefEntry.FREE) && section.hybridStream != null) {
+                XrefEntry hybrid = section.hybridStream.lookup(objectNumber);
+                if (hybrid != null && hybrid.type != XrefEntry.FREE) {
+                    entry = hybrid;
+                }
+            }
+            if (entry != null) {
+                return entry.type == XrefEntry.FREE ? null : entry;
+            }
+        }
+        return null;
+    }
+
+    // Objects
+
+    // Objects are parsed on first dereference and kept in the shared object cache
+    public Object getObject(int objectNumber) throws IOException {
+        Object cached = objectCache.get(objectNumber);
+        if (cached != PDFObjectCache.MISSING) {
+            return cached;
+        }
+        Object object = null;
+        XrefEntry entry = lookup(objectNumber);
+        if (entry != null && entry.type == XrefEntry.COMPRESSED) {
+            object = getObjectStream((int) entry.value).getObject(entry.index, objectNumber);
+        } else if (entry != null && entry.value < length) {
+            object = parseAt(entry.value, parser -> parser.parseIndirectObject(objectNumber));
+        }
+        // Lookups made while the xref chain is still loading may be incomplete
+        if (xrefLoaded) {
+            objectCache.put(objectNumber, object);
+        }
+        return object;
+    }
+
+    // Each object stream is inflated once and its offset table kept for later lookups
+    private ObjectStream getObjectStream(int objectNumber) throws IOException {
+        synchronized (objectStreams) {
+            ObjectStream cached = objectStreams.get(objectNumber);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Object object = getObject(objectNumber);
+        if (!(object instanceof PDFStream)) {
+            throw new IOException("Object stream " + objectNumber + " not found");
+        }
+        ObjectStream objectStream = new ObjectStream((PDFStream) object, readStream((PDFStream) object));
+        synchronized (objectStreams) {
+            objectStreams.put(objectNumber, objectStream);
+            objectStreamBytes += objectStream.data.length;
+            Iterator<ObjectStream> iterator = objectStreams.values().iterator();
+            while (objectStreamBytes > OBJECT_STREAM_CACHE_BYTES && objectStreams.size() > 1 && iterator.hasNext()) {
+                objectStreamBytes -= iterator.next().data.length;
+                iterator.remove();
+            }
+        }
+        return objectStream;
+    }
+
+    // Dereferences indirect objects; unreadable objects resolve to null like missing ones
+    public Object resolve(Object value) {
+        if (value instanceof PDFRef) {
+            try {
+                return getObject(((PDFRef) value).getObjectNumber());
+            } catch (IOException e) {
+                Log.w(TAG, "Could not resolve " + value, e);
+                return null;
+            }
+        }
+        return value;
+    }
+
+    public Map<String, Object> resolveDict(Object value) {
+        return PDFObjectParser.asDict(resolve(value));
+    }
+
+    public List<Object> resolveArray(Object value) {
+        return PDFObjectParser.asArray(resolve(value));
+    }
+
+    // Fonts are shared by many pages, so their decoding tables are built once per font object
+    public PDFFont getFont(Object font) {
+        Map<String, Object> fontDict = resolveDict(font);
+        if (fontDict == null) {
+            return null;
+        }
+        if (!(font instanceof PDFRef)) {
+            return PDFFont.load(this, fontDict);
+        }
+        int objectNumber = ((PDFRef) font).getObjectNumber();
+        synchronized (fonts) {
+            PDFFont cached = fonts.get(objectNumber);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        PDFFont loaded = PDFFont.load(this, fontDict);
+        synchronized (fonts) {
+            fonts.put(objectNumber, loaded);
+        }
+        return loaded;
+    }
+
+    // Streams
+
+    // Decodes a stream incrementally through fixed-size buffers; callers must close it
+    public InputStream openStream(PDFStream stream) throws IOException {
+        long streamLength = PDFObjectParser.asInt(resolve(stream.get("Length")), -1);
+        if (streamLength < 0 || stream.getDataOffset() + streamLength > length) {
+            streamLength = findStreamEnd(stream.getDataOffset());
+        }
+        InputStream raw = source.openStream(stream.getDataOffset(), streamLength);
+        Object filter = resolve(stream.get("Filter"));
+        if (filter == null) {
+            return raw;
+        }
+        List<Object> filters = new ArrayList<>();
+        for (Object name : filter instanceof List ? PDFObjectParser.asArray(filter) : Collections.singletonList(filter)) {
+            filters.add(resolve(name));
+        }
+        Object parms = resolve(stream.get("DecodeParms"));
+        List<Map<String, Object>> filterParms = new ArrayList<>();
+        for (int i = 0; i < filters.size(); i++) {
+            filterParms.add(parms instanceof List
+                    ? resolveDict(i < ((List<?>) parms).size() ? ((List<?>) parms).get(i) : null)
+                    : PDFObjectParser.asDict(parms));
+        }
+        return PDFFilters.decode(raw, filters, filterParms);
+    }
+
+    // Fully decodes small structural streams such as xref and object streams
+    public byte[] readStream(PDFStream stream) throws IOException {
+        try (InputStream in = openStream(stream)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    // Used when /Length is missing or wrong; scans forward in fixed-size chunks
+    private long findStreamEnd(long dataOffset) throws IOException {
+        final int chunkSize = 64 * 1024;
+        final String marker = "endstream";
+        long position = dataOffset;
+        while (position < length) {
+            byte[] data = read(position, chunkSize);
+            for (int i = 0; i + marker.length() <= data.length; i++) {
+                if (data[i] == 'e' && matches(data, i, marker)) {
+                    return position + i - dataOffset;
+                }
+            }
+            if (position + data.length >= length) {
+                break;
+            }
+            // Overlap chunks so a marker split across the boundary is still found
+            position += data.length - marker.length();
+        }
+        return length - dataOffset;
+    }
+
+    // Page tree
+
+    public Map<String, Object> getPage(int pageIndex) throws IOException {
+        if (pageIndex < 0 || pageIndex >= getPageCount()) {
+            throw new IOException("Page " + pageIndex + " out of range");
+        }
+        Map<String, Object> inherited = new HashMap<>();
+        Map<String, Object> node = pagesRoot;
+        int remaining = pageIndex;
+
+        for (int depth = 0; depth < MAX_TREE_DEPTH; depth++) {
+            collectInherited(node, inherited);
+            List<Object> kids = resolveArray(node.get("Kids"));
+            if (kids == null) {
+                break;
+            }
+            int nodeCount = PDFObjectParser.asInt(resolve(node.get("Count")), -1);
+
+            // When /Count equals the number of kids every kid is a leaf, so jump straight to it
+            if (nodeCount == kids.size() && remaining < kids.size()) {
+                Map<String, Object> kid = resolveDict(kids.get(remaining));
+                if (kid != null && !isPagesNode(kid)) {
+                    return withInherited(kid, inherited);
+                }
+            }
+
+            Map<String, Object> next = null;
+            for (Object kidRef : kids) {
+                Map<String, Object> kid = resolveDict(kidRef);
+                if (kid == null) {
+                    continue;
+                }
+                if (isPagesNode(kid)) {
+                    int count = PDFObjectParser.asInt(resolve(kid.get("Count")), 0);
+                    if (remaining < count) {
+                        next = kid;
+                        break;
+                    }
+                    remaining -= count;
+                } else {
+                    if (remaining == 0) {
+                        return withInherited(kid, inherited);
+                    }
+                    remaining--;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            node = next;
+        }
+        throw new IOException("Page " + pageIndex + " not found in page tree");
+    }
+
+    private boolean isPagesNode(Map<String, Object> node) {
+        Object type = node.get("Type");
+        return "Pages".equals(type) || (type == null && node.containsKey("Kids"));
+    }
+
+    private void collectInherited(Map<String, Object> node, Map<String, Object> inherited) {
+        for (String key : INHERITED_PAGE_KEYS) {
+            Object value = node.get(key);
+            if (value != null) {
+                inherited.put(key, value);
+            }
+        }
+    }
+
+    private Map<String, Object> withInherited(Map<String, Object> page, Map<String, Object> inherited) {
+        Map<String, Object> result = new HashMap<>(page);
+        for (Map.Entry<String, Object> entry : inherited.entrySet()) {
+            if (!result.containsKey(entry.getKey())) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    // Streams the page's content streams one after another, separated by whitespace
+    public InputStream openPageContents(Map<String, Object> page) {
+        Object contents = resolve(page.get("Contents"));
+        List<Object> parts = contents instanceof List ? PDFObjectParser.asArray(contents) : Collections.singletonList(contents);
+        return new ContentInputStream(parts);
+    }
+
+    private static boolean matches(byte[] data, int at, String keyword) {
+        if (at + keyword.length() > data.length) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            if (data[at + i] != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (source != null) {
+            source.close();
+            source = null;
+        }
+    }
+
+    private class ContentInputStream extends InputStream {
+        private final List<Object> parts;
+        private int nextPart;
+        private InputStream current;
+        private boolean separatorPending;
+
+        ContentInputStream(List<Object> parts) {
+            this.parts = parts;
+        }
+
+        private boolean advance() throws IOException {
+            while (current == null) {
+                if (nextPart >= parts.size()) {
+                    return false;
+                }
+                Object part = resolve(parts.get(nextPart++));
+                if (part instanceof PDFStream) {
+                    current = openStream((PDFStream) part);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                if (separatorPending) {
+                    separatorPending = false;
+                    buffer[offset] = '\n';
+                    return 1;
+                }
+                if (!advance()) {
+                    return -1;
+                }
+                int count = current.read(buffer, offset, len);
+                if (count >= 0) {
+                    return count;
+                }
+                current.close();
+                current = null;
+                separatorPending = true;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            nextPart = parts.size();
+        }
+    }
+
+    private static class XrefEntry {
+        static final int FREE = 0;
+        static final int IN_USE = 1;
+        static final int COMPRESSED = 2;
+
+        final int type;
+        // File offset for in-use objects, object stream number for compressed ones
+        final long value;
+        final int index;
+
+        XrefEntry(int type, long value, int index) {
+            this.type = type;
+            this.value = value;
+            this.index = index;
+        }
+    }
+
+    private class XrefSection {
+        // Each subsection is {first object number, count, entries offset, entry width}. Offsets
+        // point into the file for classic tables and into streamData for xref streams.
+        final List<long[]> subsections = new ArrayList<>();
+        Map<String, Object> trailer;
+        XrefSection hybridStream;
+        byte[] streamData;
+        int[] fieldWidths;
+
+        XrefEntry lookup(int objectNumber) throws IOException {
+            for (long[] sub : subsections) {
+                long start = sub[0];
+                if (objectNumber < start || objectNumber >= start + sub[1]) {
+                    continue;
+                }
+                long entryOffset = sub[2] + (objectNumber - start) * sub[3];
+                return streamData != null ? streamEntry((int) entryOffset) : tableEntry(entryOffset, objectNumber);
+            }
+            return null;
+        }
+
+        private XrefEntry tableEntry(long entryOffset, int objectNumber) throws IOException {
+            byte[] entry = read(entryOffset, 18);
+            if (entry.length < 18 || entry[17] == 'f') {
+                return new XrefEntry(XrefEntry.FREE, 0, 0);
+            }
+            long offset = 0;
+            for (int i = 0; i < 10; i++) {
+                int c = entry[i];
+                if (c < '0' || c > '9') {
+                    throw new IOException("Malformed xref entry for object " + objectNumber);
+                }
+                offset = offset * 10 + (c - '0');
+            }
+            return new XrefEntry(XrefEntry.IN_USE, offset, 0);
+        }
+
+        private XrefEntry streamEntry(int entryOffset) {
+            if (entryOffset + fieldWidths[0] + fieldWidths[1] + fieldWidths[2] > streamData.length) {
+                return new XrefEntry(XrefEntry.FREE, 0, 0);
+            }
+            // A zero-width type field means every entry is type 1
+            int type = fieldWidths[0] == 0 ? 1 : (int) readField(entryOffset, fieldWidths[0]);
+            long second = readField(entryOffset + fieldWidths[0], fieldWidths[1]);
+            int third = (int) readField(entryOffset + fieldWidths[0] + fieldWidths[1], fieldWidths[2]);
+            if (type == 1) {
+                return new XrefEntry(XrefEntry.IN_USE, second, 0);
+            }
+            if (type == 2) {
+                return new XrefEntry(XrefEntry.COMPRESSED, second, third);
+            }
+            return new XrefEntry(XrefEntry.FREE, 0, 0);
+        }
+
+        private long readField(int offset, int width) {
+            long value = 0;
+            for (int i = 0; i < width; i++) {
+                value = (value << 8) | (streamData[offset + i] & 0xFF);
+            }
+            return value;
+        }
+    }
+
+    private static class ObjectStream {
+        final byte[] data;
+        final int first;
+        final int[] objectNumbers;
+        final int[] offsets;
+
+        ObjectStream(PDFStream stream, byte[] data) throws IOException {
+            this.data = data;
+            this.first = PDFObjectParser.asInt(stream.get("First"), -1);
+            int count = PDFObjectParser.asInt(stream.get("N"), -1);
+            if (first < 0 || first > data.length || count < 0) {
+                throw new IOException("Malformed object stream");
+            }
+            objectNumbers = new int[count];
+            offsets = new int[count];
+            PDFObjectParser parser = new PDFObjectParser(data, 0, first, 0);
+            parser.setComplete(true);
+            parser.setAllowReferences(false);
+            for (int i = 0; i < count; i++) {
+                objectNumbers[i] = PDFObjectParser.asInt(parser.parseObject(), -1);
+                offsets[i] = PDFObjectParser.asInt(parser.parseObject(), -1);
+            }
+        }
+
+        Object getObject(int index, int objectNumber) throws IOException {
+            // The xref index is a hint; fall back to scanning the offset table
+            if (index < 0 || index >= objectNumbers.length || objectNumbers[index] != objectNumber) {
+                index = -1;
+                for (int i = 0; i < objectNumbers.length; i++) {
+                    if (objectNumbers[i] == objectNumber) {
+                        index = i;
+                        break;
+                    }
+                }
+                if (index < 0) {
+                    return null;
+                }
+            }
+            int start = first + offsets[index];
+            if (start < first || start >= data.length) {
+                throw new IOException("Object " + objectNumber + " outside its object stream");
+            }
+            PDFObjectParser parser = new PDFObjectParser(data, start, data.length - start, 0);
+            parser.setComplete(true);
+            return parser.parseObject();
+        }
+    }
+}
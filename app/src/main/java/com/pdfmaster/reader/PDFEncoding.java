@@ -0,0 +1,213 @@
+package com.pdfmaster.reader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The standard single-byte font encodings as code-to-Unicode tables, and the glyph
+ * names used by /Differences arrays.
+ */
+public final class PDFEncoding {
+
+    // Upper halves of the encodings, codes 0x80-0xFF; a zero entry marks an unused code
+    private static final String WIN_ANSI_HIGH =
+              "\u20ac\u0000\u201a\u0192\u201e\u2026\u2020\u2021\u02c6\u2030\u0160\u2039\u0152\u0000\u017d\u0000"
+            + "\u0000\u2018\u2019\u201c\u201d\u2022\u2013\u2014\u02dc\u2122\u0161\u203a\u0153\u0000\u017e\u0178"
+            + "\u00a0\u00a1\u00a2\u00a3\u00a4\u00a5\u00a6\u00a7\u00a8\u00a9\u00aa\u00ab\u00ac\u002d\u00ae\u00af"
+            + "\u00b0\u00b1\u00b2\u00b3\u00b4\u00b5\u00b6\u00b7\u00b8\u00b9\u00ba\u00bb\u00bc\u00bd\u00be\u00bf"
+            + "\u00c0\u00c1\u00c2\u00c3\u00c4\u00c5\u00c6\u00c7\u00c8\u00c9\u00ca\u00cb\u00cc\u00cd\u00ce\u00cf"
+            + "\u00d0\u00d1\u00d2\u00d3\u00d4\u00d5\u00d6\u00d7\u00d8\u00d9\u00da\u00db\u00dc\u00dd\u00de\u00df"
+            + "\u00e0\u00e1\u00e2\u00e3\u00e4\u00e5\u00e6\u00e7\u00e8\u00e9\u00ea\u00eb\u00ec\u00ed\u00ee\u00ef"
+            + "\u00f0\u00f1\u00f2\u00f3\u00f4\u00f5\u00f6\u00f7\u00f8\u00f9\u00fa\u00fb\u00fc\u00fd\u00fe\u00ff";
+    private static final String MAC_ROMAN_HIGH =
+              "\u00c4\u00c5\u00c7\u00c9\u00d1\u00d6\u00dc\u00e1\u00e0\u00e2\u00e4\u00e3\u00e5\u00e7\u00e9\u00e8"
+            + "\u00ea\u00eb\u00ed\u00ec\u00ee\u00ef\u00f1\u00f3\u00f2\u00f4\u00f6\u00f5\u00fa\u00f9\u00fb\u00fc"
+            + "\u2020\u00b0\u00a2\u00a3\u00a7\u2022\u00b6\u00df\u00ae\u00a9\u2122\u00b4\u00a8\u2260\u00c6\u00d8"
+            + "\u221e\u00b1\u2264\u2265\u00a5\u00b5\u2202\u2211\u220f\u03c0\u222b\u00aa\u00ba\u03a9\u00e6\u00f8"
+            + "\u00bf\u00a1\u00ac\u221a\u0192\u2248\u2206\u00ab\u00bb\u2026\u00a0\u00c0\u00c3\u00d5\u0152\u0153"
+            + "\u2013\u2014\u201c\u201d\u2018\u2019\u00f7\u25ca\u00ff\u0178\u2044\u00a4\u2039\u203a\ufb01\ufb02"
+            + "\u2021\u00b7\u201a\u201e\u2030\u00c2\u00ca\u00c1\u00cb\u00c8\u00cd\u00ce\u00cf\u00cc\u00d3\u00d4"
+            + "\u0000\u00d2\u00da\u00db\u00d9\u0131\u02c6\u02dc\u00af\u02d8\u02d9\u02da\u00b8\u02dd\u02db\u02c7";
+    private static final String PDF_DOC_HIGH =
+              "\u2022\u2020\u2021\u2026\u2014\u2013\u0192\u2044\u2039\u203a\u2212\u2030\u201e\u201c\u201d\u2018"
+            + "\u2019\u201a\u2122\ufb01\ufb02\u0141\u0152\u0160\u0178\u017d\u0131\u0142\u0153\u0161\u017e\u0000"
+            + "\u20ac\u00a1\u00a2\u00a3\u00a4\u00a5\u00a6\u00a7\u00a8\u00a9\u00aa\u00ab\u00ac\u0000\u00ae\u00af"
+            + "\u00b0\u00b1\u00b2\u00b3\u00b4\u00b5\u00b6\u00b7\u00b8\u00b9\u00ba\u00bb\u00bc\u00bd\u00be\u00bf"
+            + "\u00c0\u00c1\u00c2\u00c3\u00c4\u00c5\u00c6\u00c7\u00c8\u00c9\u00ca\u00cb\u00cc\u00cd\u00ce\u00cf"
+            + "\u00d0\u00d1\u00d2\u00d3\u00d4\u00d5\u00d6\u00d7\u00d8\u00d9\u00da\u00db\u00dc\u00dd\u00de\u00df"
+            + "\u00e0\u00e1\u00e2\u00e3\u00e4\u00e5\u00e6\u00e7\u00e8\u00e9\u00ea\u00eb\u00ec\u00ed\u00ee\u00ef"
+            + "\u00f0\u00f1\u00f2\u00f3\u00f4\u00f5\u00f6\u00f7\u00f8\u00f9\u00fa\u00fb\u00fc\u00fd\u00fe\u00ff";
+    private static final String STANDARD_HIGH =
+              "\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000"
+            + "\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000"
+            + "\u0000\u00a1\u00a2\u00a3\u2044\u00a5\u0192\u00a7\u00a4\u0027\u201c\u00ab\u2039\u203a\ufb01\ufb02"
+            + "\u0000\u2013\u2020\u2021\u00b7\u0000\u00b6\u2022\u201a\u201e\u201d\u00bb\u2026\u2030\u0000\u00bf"
+            + "\u0000\u0060\u00b4\u02c6\u02dc\u00af\u02d8\u02d9\u00a8\u0000\u02da\u00b8\u0000\u02dd\u02db\u02c7"
+            + "\u2014\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000"
+            + "\u0000\u00c6\u0000\u00aa\u0000\u0000\u0000\u0000\u0141\u00d8\u0152\u00ba\u0000\u0000\u0000\u0000"
+            + "\u0000\u00e6\u0000\u0000\u0000\u0131\u0000\u0000\u0142\u00f8\u0153\u00df\u0000\u0000\u0000\u0000";
+    private static final String GLYPH_NAMES =
+              "space 20 exclam 21 quotedbl 22 numbersign 23 dollar 24 percent 25 ampersand 26 "
+            + "quotesingle 27 parenleft 28 parenright 29 asterisk 2a plus 2b comma 2c hyphen 2d "
+            + "period 2e slash 2f zero 30 one 31 two 32 three 33 four 34 five 35 six 36 seven 37 "
+            + "eight 38 nine 39 colon 3a semicolon 3b less 3c equal 3d greater 3e question 3f at 40 "
+            + "bracketleft 5b backslash 5c bracketright 5d asciicircum 5e underscore 5f grave 60 "
+            + "braceleft 7b bar 7c braceright 7d asciitilde 7e nbspace a0 exclamdown a1 cent a2 "
+            + "sterling a3 currency a4 yen a5 brokenbar a6 section a7 dieresis a8 copyright a9 "
+            + "copyrightserif a9 ordfeminine aa guillemotleft ab logicalnot ac sfthyphen ad "
+            + "registered ae registerserif ae macron af degree b0 plusminus b1 twosuperior b2 "
+            + "threesuperior b3 acute b4 mu b5 paragraph b6 periodcentered b7 cedilla b8 "
+            + "onesuperior b9 ordmasculine ba guillemotright bb onequarter bc onehalf bd "
+            + "threequarters be questiondown bf Agrave c0 Aacute c1 Acircumflex c2 Atilde c3 "
+            + "Adieresis c4 Aring c5 AE c6 Ccedilla c7 Egrave c8 Eacute c9 Ecircumflex ca Edieresis cb "
+            + "Igrave cc Iacute cd Icircumflex ce Idieresis cf Eth d0 Ntilde d1 Ograve d2 Oacute d3 "
+            + "Ocircumflex d4 Otilde d5 Odieresis d6 multiply d7 Oslash d8 Ugrave d9 Uacute da "
+            + "Ucircumflex db Udieresis dc Yacute dd Thorn de germandbls df agrave e0 aacute e1 "
+            + "acircumflex e2 atilde e3 adieresis e4 aring e5 ae e6 ccedilla e7 egrave e8 eacute e9 "
+            + "ecircumflex ea edieresis eb igrave ec iacute ed icircumflex ee idieresis ef eth f0 "
+            + "ntilde f1 ograve f2 oacute f3 ocircumflex f4 otilde f5 odieresis f6 divide f7 oslash f8 "
+            + "ugrave f9 uacute fa ucircumflex fb udieresis fc yacute fd thorn fe ydieresis ff "
+            + "Amacron 100 amacron 101 Abreve 102 abreve 103 Aogonek 104 aogonek 105 Cacute 106 "
+            + "cacute 107 Ccircumflex 108 ccircumflex 109 Cdotaccent 10a cdotaccent 10b Ccaron 10c "
+            + "ccaron 10d Dcaron 10e dcaron 10f Dcroat 110 dcroat 111 Emacron 112 emacron 113 "
+            + "Ebreve 114 ebreve 115 Edotaccent 116 edotaccent 117 Eogonek 118 eogonek 119 Ecaron 11a "
+            + "ecaron 11b Gcircumflex 11c gcircumflex 11d Gbreve 11e gbreve 11f Gdotaccent 120 "
+            + "gdotaccent 121 Gcommaaccent 122 gcommaaccent 123 Hcircumflex 124 hcircumflex 125 "
+            + "Hbar 126 hbar 127 Itilde 128 itilde 129 Imacron 12a imacron 12b Ibreve 12c ibreve 12d "
+            + "Iogonek 12e iogonek 12f Idotaccent 130 dotlessi 131 IJ 132 ij 133 Jcircumflex 134 "
+            + "jcircumflex 135 Kcommaaccent 136 kcommaaccent 137 kgreenlandic 138 Lacute 139 "
+            + "lacute 13a Lcommaaccent 13b lcommaaccent 13c Lcaron 13d lcaron 13e Ldot 13f ldot 140 "
+            + "Lslash 141 lslash 142 Nacute 143 nacute 144 Ncommaaccent 145 ncommaaccent 146 "
+            + "Ncaron 147 ncaron 148 napostrophe 149 Eng 14a eng 14b Omacron 14c omacron 14d "
+            + "Obreve 14e obreve 14f Ohungarumlaut 150 ohungarumlaut 151 OE 152 oe 153 Racute 154 "
+            + "racute 155 Rcommaaccent 156 rcommaaccent 157 Rcaron 158 rcaron 159 Sacute 15a "
+            + "sacute 15b Scircumflex 15c scircumflex 15d Scedilla 15e scedilla 15f Scaron 160 "
+            + "scaron 161 Tcommaaccent 162 tcommaaccent 163 Tcaron 164 tcaron 165 Tbar 166 tbar 167 "
+            + "Utilde 168 utilde 169 Umacron 16a umacron 16b Ubreve 16c ubreve 16d Uring 16e uring 16f "
+            + "Uhungarumlaut 170 uhungarumlaut 171 Uogonek 172 uogonek 173 Wcircumflex 174 "
+            + "wcircumflex 175 Ycircumflex 176 ycircumflex 177 Ydieresis 178 Zacute 179 zacute 17a "
+            + "Zdotaccent 17b zdotaccent 17c Zcaron 17d zcaron 17e longs 17f florin 192 dotlessj 237 "
+            + "circumflex 2c6 caron 2c7 breve 2d8 dotaccent 2d9 ring 2da ogonek 2db tilde 2dc "
+            + "hungarumlaut 2dd pi 3c0 figuredash 2012 endash 2013 emdash 2014 quoteleft 2018 "
+            + "quoteright 2019 quotesinglbase 201a quotedblleft 201c quotedblright 201d "
+            + "quotedblbase 201e dagger 2020 daggerdbl 2021 bullet 2022 onedotenleader 2024 "
+            + "twodotenleader 2025 ellipsis 2026 perthousand 2030 guilsinglleft 2039 "
+            + "guilsinglright 203a fraction 2044 Euro 20ac trademark 2122 trademarkserif 2122 "
+            + "Omega 2126 arrowleft 2190 arrowup 2191 arrowright 2192 arrowdown 2193 partialdiff 2202 "
+            + "Delta 2206 product 220f summation 2211 minus 2212 radical 221a infinity 221e "
+            + "integral 222b approxequal 2248 notequal 2260 lessequal 2264 greaterequal 2265 "
+            + "lozenge 25ca ff fb00 fi fb01 fl fb02 ffi fb03 ffl fb04 ";
+
+    private static final char[] WIN_ANSI = build(WIN_ANSI_HIGH);
+    private static final char[] MAC_ROMAN = build(MAC_ROMAN_HIGH);
+    private static final char[] PDF_DOC = build(PDF_DOC_HIGH);
+    private static final char[] STANDARD = build(STANDARD_HIGH);
+
+    static {
+        // PDFDocEncoding places spacing accents in the control range
+        String accents = "\u02d8\u02c7\u02c6\u02d9\u02dd\u02db\u02da\u02dc";
+        for (int i = 0; i < accents.length(); i++) {
+            PDF_DOC[0x18 + i] = accents.charAt(i);
+        }
+        STANDARD['\''] = '\u2019';
+        STANDARD['`'] = '\u2018';
+    }
+
+    private static Map<String, Integer> glyphs;
+
+    private PDFEncoding() {
+    }
+
+    // Returns a fresh table for the named encoding, or null if the name is not a known encoding
+    public static char[] forName(String name) {
+        if (name == null) {
+            return null;
+        }
+        switch (name) {
+            case "WinAnsiEncoding":
+                return WIN_ANSI.clone();
+            case "MacRomanEncoding":
+                return MAC_ROMAN.clone();
+            case "StandardEncoding":
+                return STANDARD.clone();
+            case "PDFDocEncoding":
+                return PDF_DOC.clone();
+            default:
+                return null;
+        }
+    }
+
+    public static char[] standard() {
+        return STANDARD.clone();
+    }
+
+    public static char[] winAnsi() {
+        return WIN_ANSI.clone();
+    }
+
+    // Maps a glyph name to its Unicode value, or returns -1 if the name is not recognised
+    public static int glyphToUnicode(String name) {
+        Integer known = glyphNames().get(name);
+        if (known != null) {
+            return known;
+        }
+        int dot = name.indexOf('.');
+        if (dot > 0) {
+            // Variants such as a.sc or one.oldstyle
+            return glyphToUnicode(name.substring(0, dot));
+        }
+        int underscore = name.indexOf('_');
+        if (underscore > 0) {
+            // Ligatures such as f_f_i: keep the standard ligature if there is one
+            int ligature = glyphToUnicode(name.replace("_", ""));
+            return ligature >= 0 ? ligature : glyphToUnicode(name.substring(0, underscore));
+        }
+        if (name.startsWith("uni") && name.length() >= 7) {
+            return parseHex(name, 3, 7);
+        }
+        if (name.startsWith("u") && name.length() >= 5 && name.length() <= 7) {
+            int value = parseHex(name, 1, name.length());
+            return value <= 0xFFFF ? value : -1;
+        }
+        return -1;
+    }
+
+    private static int parseHex(String name, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(name.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private static synchronized Map<String, Integer> glyphNames() {
+        if (glyphs == null) {
+            String[] parts = GLYPH_NAMES.trim().split(" ");
+            Map<String, Integer> map = new HashMap<>(parts.length);
+            for (int i = 0; i + 1 < parts.length; i += 2) {
+                map.put(parts[i], Integer.parseInt(parts[i + 1], 16));
+            }
+            for (char c = 'A'; c <= 'Z'; c++) {
+                map.put(String.valueOf(c), (int) c);
+                map.put(String.valueOf((char) (c + 32)), c + 32);
+            }
+            glyphs = map;
+        }
+        return glyphs;
+    }
+
+    private static char[] build(String high) {
+        char[] table = new char[256];
+        for (int c = 0x20; c < 0x7F; c++) {
+            table[c] = (char) c;
+        }
+        for (int i = 0; i < high.length(); i++) {
+            table[0x80 + i] = high.charAt(i);
+        }
+        return table;
+    }
+}
@@ -8,6 +8,8 @@ public class PDFFile {
     private long size;
     private Date lastModified;
     private int pageCount;
+    // Registry id for files from the reading history, used to continue paging after this file
+    int documentId;
 
     public PDFFile(String name, String path, long size, Date lastModified) {
         this.name = name;
@@ -0,0 +1,475 @@
+package com.pdfmaster.reader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Streaming implementations of the PDF stream filters. Each stage pulls from the one
+ * below through a fixed-size buffer, so decoding a stream of any size needs a constant
+ * amount of memory.
+ */
+public final class PDFFilters {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private PDFFilters() {
+    }
+
+    // Wraps raw stream data in one decoder per entry of /Filter, in order
+    public static InputStream decode(InputStream in, List<Object> filters, List<Map<String, Object>> parms) throws IOException {
+        for (int i = 0; i < filters.size(); i++) {
+            Object name = filters.get(i);
+            Map<String, Object> filterParms = i < parms.size() ? parms.get(i) : null;
+            if ("FlateDecode".equals(name) || "Fl".equals(name)) {
+                in = withPredictor(new FlateInputStream(in), filterParms);
+            } else if ("LZWDecode".equals(name) || "LZW".equals(name)) {
+                int earlyChange = filterParms != null ? PDFObjectParser.asInt(filterParms.get("EarlyChange"), 1) : 1;
+                in = withPredictor(new LZWInputStream(in, earlyChange), filterParms);
+            } else if ("ASCII85Decode".equals(name) || "A85".equals(name)) {
+                in = new ASCII85InputStream(in);
+            } else if ("ASCIIHexDecode".equals(name) || "AHx".equals(name)) {
+                in = new ASCIIHexInputStream(in);
+            } else if ("RunLengthDecode".equals(name) || "RL".equals(name)) {
+                in = new RunLengthInputStream(in);
+            } else {
+                in.close();
+                throw new IOException("Unsupported stream filter: " + name);
+            }
+        }
+        return in;
+    }
+
+    private static InputStream withPredictor(InputStream in, Map<String, Object> parms) throws IOException {
+        int predictor = parms != null ? PDFObjectParser.asInt(parms.get("Predictor"), 1) : 1;
+        if (predictor < 2) {
+            return in;
+        }
+        int colors = Math.max(1, PDFObjectParser.asInt(parms.get("Colors"), 1));
+        int bitsPerComponent = Math.max(1, PDFObjectParser.asInt(parms.get("BitsPerComponent"), 8));
+        int columns = Math.max(1, PDFObjectParser.asInt(parms.get("Columns"), 1));
+        if (predictor == 2 && bitsPerComponent != 8) {
+            throw new IOException("Unsupported TIFF predictor depth: " + bitsPerComponent);
+        }
+        return new PredictorInputStream(in, predictor, colors, bitsPerComponent, columns);
+    }
+
+    // Base class for decoders that fill a fixed output buffer one chunk at a time
+    private abstract static class DecodingInputStream extends InputStream {
+        protected final InputStream in;
+        protected final byte[] out = new byte[BUFFER_SIZE];
+        private int outPos;
+        private int outLimit;
+        private boolean finished;
+
+        DecodingInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        // Writes decoded bytes into out starting at 0; returns the count, or -1 when done
+        protected abstract int fill() throws IOException;
+
+        private boolean ensure() throws IOException {
+            while (outPos >= outLimit) {
+                if (finished) {
+                    return false;
+                }
+                int count = fill();
+                if (count < 0) {
+                    finished = true;
+                    return false;
+                }
+                outPos = 0;
+                outLimit = count;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return ensure() ? out[outPos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!ensure()) {
+                return -1;
+            }
+            int count = Math.min(length, outLimit - outPos);
+            System.arraycopy(out, outPos, buffer, offset, count);
+            outPos += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // Damaged or truncated deflate data ends the stream instead of failing it
+    private static class FlateInputStream extends InflaterInputStream {
+        FlateInputStream(InputStream in) {
+            super(in, new Inflater(), BUFFER_SIZE);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                return super.read(buffer, offset, length);
+            } catch (EOFException | ZipException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            inf.end();
+            super.close();
+        }
+    }
+
+    private static class LZWInputStream extends DecodingInputStream {
+        private static final int CLEAR_TABLE = 256;
+        private static final int END_OF_DATA = 257;
+        private static final int MAX_CODES = 4096;
+
+        private final int earlyChange;
+        private final int[] prefix = new int[MAX_CODES];
+        private final byte[] suffix = new byte[MAX_CODES];
+        private final byte[] first = new byte[MAX_CODES];
+        private final byte[] stack = new byte[MAX_CODES];
+        private int nextCode;
+        private int codeLength;
+        private int previous = -1;
+        private int bitBuffer;
+        private int bitCount;
+        private boolean ended;
+
+        LZWInputStream(InputStream in, int earlyChange) {
+            super(in);
+            this.earlyChange = earlyChange;
+            for (int i = 0; i < 256; i++) {
+                prefix[i] = -1;
+                suffix[i] = (byte) i;
+                first[i] = (byte) i;
+            }
+            resetTable();
+        }
+
+        private void resetTable() {
+            nextCode = 258;
+            codeLength = 9;
+            previous = -1;
+        }
+
+        private int readCode() throws IOException {
+            while (bitCount < codeLength) {
+                int b = in.read();
+                if (b < 0) {
+                    return -1;
+                }
+                bitBuffer = (bitBuffer << 8) | b;
+                bitCount += 8;
+            }
+            int code = (bitBuffer >>> (bitCount - codeLength)) & ((1 << codeLength) - 1);
+            bitCount -= codeLength;
+            return code;
+        }
+
+        @Override
+        protected int fill() throws IOException {
+            if (ended) {
+                return -1;
+            }
+            int count = 0;
+            // Stop early enough that the longest possible string still fits
+            while (count < out.length - MAX_CODES) {
+                int code = readCode();
+                if (code < 0 || code == END_OF_DATA) {
+                    ended = true;
+                    break;
+                }
+                if (code == CLEAR_TABLE) {
+                    resetTable();
+                    continue;
+                }
+                int entry = code;
+                byte firstByte;
+                if (code < nextCode) {
+                    firstByte = first[code];
+                } else if (code == nextCode && previous >= 0) {
+                    firstByte = first[previous];
+                } else {
+                    ended = true;
+                    break;
+                }
+                if (previous >= 0 && nextCode < MAX_CODES) {
+                    prefix[nextCode] = previous;
+                    suffix[nextCode] = firstByte;
+                    first[nextCode] = first[previous];
+                    nextCode++;
+                    if (nextCode + earlyChange >= (1 << codeLength) && codeLength < 12) {
+                        codeLength++;
+                    }
+                }
+                int depth = 0;
+                while (entry >= 0 && depth < stack.length) {
+                    stack[depth++] = suffix[entry];
+                    entry = prefix[entry];
+                }
+                while (depth > 0) {
+                    out[count++] = stack[--depth];
+                }
+                previous = code;
+            }
+            return count == 0 && ended ? -1 : count;
+        }
+    }
+
+    private static class ASCII85InputStream extends DecodingInputStream {
+        private final int[] group = new int[5];
+        private boolean ended;
+
+        ASCII85InputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        protected int fill() throws IOException {
+            if (ended) {
+                return -1;
+            }
+            int count = 0;
+            while (count <= out.length - 4 && !ended) {
+                int filled = 0;
+                while (filled < 5) {
+                    int c = in.read();
+                    if (c < 0 || c == '~') {
+                        ended = true;
+                        break;
+                    }
+                    if (c == 'z' && filled == 0) {
+                        out[count++] = 0;
+                        out[count++] = 0;
+                        out[count++] = 0;
+                        out[count++] = 0;
+                        break;
+                    }
+                    if (c >= '!' && c <= 'u') {
+                        group[filled++] = c - '!';
+                    }
+                }
+                if (filled == 0) {
+                    continue;
+                }
+                // A partial final group of n characters decodes to n - 1 bytes
+                int bytes = filled == 5 ? 4 : filled - 1;
+                for (int i = filled; i < 5; i++) {
+                    group[i] = 84;
+                }
+                long value = 0;
+                for (int i = 0; i < 5; i++) {
+                    value = value * 85 + group[i];
+                }
+                for (int i = 0; i < bytes; i++) {
+                    out[count++] = (byte) (value >>> (24 - 8 * i));
+                }
+            }
+            return count == 0 && ended ? -1 : count;
+        }
+    }
+
+    private static class ASCIIHexInputStream extends DecodingInputStream {
+        private boolean ended;
+
+        ASCIIHexInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        protected int fill() throws IOException {
+            if (ended) {
+                return -1;
+            }
+            int count = 0;
+            int high = -1;
+            while (count < out.length) {
+                int c = in.read();
+                if (c < 0 || c == '>') {
+                    ended = true;
+                    break;
+                }
+                int value = PDFObjectParser.hexValue(c);
+                if (value < 0) {
+                    continue;
+                }
+                if (high < 0) {
+                    high = value;
+                } else {
+                    out[count++] = (byte) ((high << 4) | value);
+                    high = -1;
+                }
+            }
+            if (high >= 0) {
+                out[count++] = (byte) (high << 4);
+            }
+            return count == 0 && ended ? -1 : count;
+        }
+    }
+
+    private static class RunLengthInputStream extends DecodingInputStream {
+        private boolean ended;
+
+        RunLengthInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        protected int fill() throws IOException {
+            if (ended) {
+                return -1;
+            }
+            int count = 0;
+            while (count <= out.length - 128) {
+                int length = in.read();
+                if (length < 0 || length == 128) {
+                    ended = true;
+                    break;
+                }
+                if (length < 128) {
+                    for (int i = 0; i <= length; i++) {
+                        int b = in.read();
+                        if (b < 0) {
+                            ended = true;
+                            break;
+                        }
+                        out[count++] = (byte) b;
+                    }
+                } else {
+                    int b = in.read();
+                    if (b < 0) {
+                        ended = true;
+                        break;
+                    }
+                    for (int i = 0; i < 257 - length; i++) {
+                        out[count++] = (byte) b;
+                    }
+                }
+            }
+            return count == 0 && ended ? -1 : count;
+        }
+    }
+
+    // Undoes PNG (10-15) and TIFF (2) predictors one row at a time
+    private static class PredictorInputStream extends InputStream {
+        private final InputStream in;
+        private final boolean png;
+        private final int bytesPerPixel;
+        private byte[] row;
+        private byte[] previousRow;
+        private int rowPos;
+        private int rowLimit;
+
+        PredictorInputStream(InputStream in, int predictor, int colors, int bitsPerComponent, int columns) {
+            this.in = in;
+            this.png = predictor >= 10;
+            this.bytesPerPixel = Math.max(1, (colors * bitsPerComponent + 7) / 8);
+            int rowLength = (colors * bitsPerComponent * columns + 7) / 8;
+            this.row = new byte[rowLength];
+            this.previousRow = new byte[rowLength];
+        }
+
+        private boolean nextRow() throws IOException {
+            int filterType = 0;
+            if (png) {
+                filterType = in.read();
+                if (filterType < 0) {
+                    return false;
+                }
+            }
+            byte[] swap = previousRow;
+            previousRow = row;
+            row = swap;
+            int filled = 0;
+            while (filled < row.length) {
+                int count = in.read(row, filled, row.length - filled);
+                if (count < 0) {
+                    break;
+                }
+                filled += count;
+            }
+            if (filled < row.length) {
+                return false;
+            }
+            for (int i = 0; i < row.length; i++) {
+                int raw = row[i] & 0xFF;
+                int left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+                int value;
+                if (!png) {
+                    value = raw + left;
+                } else {
+                    int up = previousRow[i] & 0xFF;
+                    int upLeft = i >= bytesPerPixel ? previousRow[i - bytesPerPixel] & 0xFF : 0;
+                    switch (filterType) {
+                        case 1: value = raw + left; break;
+                        case 2: value = raw + up; break;
+                        case 3: value = raw + ((left + up) >> 1); break;
+                        case 4: value = raw + paeth(left, up, upLeft); break;
+                        default: value = raw; break;
+                    }
+                }
+                row[i] = (byte) value;
+            }
+            rowPos = 0;
+            rowLimit = row.length;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (rowPos >= rowLimit && !nextRow()) {
+                return -1;
+            }
+            return row[rowPos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (rowPos >= rowLimit && !nextRow()) {
+                return -1;
+            }
+            int count = Math.min(length, rowLimit - rowPos);
+            System.arraycopy(row, rowPos, buffer, offset, count);
+            rowPos += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceUp = Math.abs(estimate - up);
+        int distanceUpLeft = Math.abs(estimate - upLeft);
+        if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+            return left;
+        }
+        return distanceUp <= distanceUpLeft ? up : upLeft;
+    }
+}
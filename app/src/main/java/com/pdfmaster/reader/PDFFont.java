@@ -0,0 +1,295 @@
+package com.pdfmaster.reader;
+
+import android.util.Log;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the character codes in a font's text strings to Unicode. Composite (Type0)
+ * fonts go through their ToUnicode CMap; simple fonts use ToUnicode where present and
+ * otherwise their base encoding with /Differences applied.
+ *
+ * Also carries the metrics needed to place glyphs: advance widths from /Widths or the
+ * descendant font's /W, and the ascent and descent from the font descriptor, all in
+ * text space units per unit of font size.
+ */
+public class PDFFont {
+
+    private static final String TAG = "PDFFont";
+    static final float DEFAULT_WIDTH = 0.5f;
+    static final float DEFAULT_ASCENT = 0.8f;
+    static final float DEFAULT_DESCENT = -0.2f;
+
+    private boolean composite;
+    private PDFCMap toUnicode;
+    // Codespace of an embedded encoding CMap, for composite fonts
+    private PDFCMap encodingCMap;
+    // Predefined Uni*-UCS2 and Uni*-UTF16 CMaps use UTF-16 values as codes
+    private boolean unicodeCodes;
+    private char[] encoding;
+
+    // Simple fonts: widths of codes firstChar onwards
+    private int firstChar;
+    private float[] widths;
+    // Composite fonts: width ranges from /W, sorted by first code
+    private int[] widthRangeFirsts;
+    private int[] widthRangeLasts;
+    private float[] widthRangeValues;
+    private int widthRangeCount;
+    private float defaultWidth = DEFAULT_WIDTH;
+    private float ascent = DEFAULT_ASCENT;
+    private float descent = DEFAULT_DESCENT;
+
+    private PDFFont() {
+    }
+
+    public static PDFFont load(PDFDocument document, Map<String, Object> fontDict) {
+        PDFFont font = new PDFFont();
+        font.composite = "Type0".equals(fontDict.get("Subtype"));
+        try {
+            Object toUnicode = document.resolve(fontDict.get("ToUnicode"));
+            if (toUnicode instanceof PDFStream) {
+                font.toUnicode = PDFCMap.parse(document.readStream((PDFStream) toUnicode));
+            }
+            Object encoding = document.resolve(fontDict.get("Encoding"));
+            if (font.composite) {
+                if (encoding instanceof PDFStream) {
+                    font.encodingCMap = PDFCMap.parse(document.readStream((PDFStream) encoding));
+                } else if (encoding instanceof String) {
+                    String name = (String) encoding;
+                    font.unicodeCodes = name.startsWith("Uni") && (name.contains("UCS2") || name.contains("UTF16"));
+                }
+            } else {
+                font.encoding = simpleEncoding(document, encoding, fontDict.get("Subtype"));
+            }
+            font.readMetrics(document, fontDict);
+        } catch (Exception e) {
+            Log.w(TAG, "Error reading font " + fontDict.get("BaseFont"), e);
+        }
+        if (!font.composite && font.encoding == null) {
+            font.encoding = PDFEncoding.standard();
+        }
+        return font;
+    }
+
+    private static char[] simpleEncoding(PDFDocument document, Object encoding, Object subtype) {
+        char[] table = null;
+        List<Object> differences = null;
+        if (encoding instanceof String) {
+            table = PDFEncoding.forName((String) encoding);
+        } else if (encoding instanceof Map) {
+            Map<String, Object> dict = PDFObjectParser.asDict(encoding);
+            Object base = document.resolve(dict.get("BaseEncoding"));
+            table = base instanceof String ? PDFEncoding.forName((String) base) : null;
+            differences = document.resolveArray(dict.get("Differences"));
+        }
+        if (table == null) {
+            // TrueType fonts without an encoding are almost always laid out as WinAnsi
+            table = "TrueType".equals(subtype) ? PDFEncoding.winAnsi() : PDFEncoding.standard();
+        }
+        if (differences != null) {
+            int code = 0;
+            for (Object entry : differences) {
+                entry = document.resolve(entry);
+                if (entry instanceof Number) {
+                    code = ((Number) entry).intValue();
+                } else if (entry instanceof String) {
+                    int unicode = PDFEncoding.glyphToUnicode((String) entry);
+                    if (code >= 0 && code < table.length && unicode > 0 && unicode <= 0xFFFF) {
+                        table[code] = (char) unicode;
+                    }
+                    code++;
+                }
+            }
+        }
+        return table;
+    }
+
+    private void readMetrics(PDFDocument document, Map<String, Object> fontDict) {
+        Map<String, Object> metricsDict = fontDict;
+        // Type3 glyph space is given by /FontMatrix rather than fixed at 1/1000
+        float scale = 0.001f;
+        if (composite) {
+            List<Object> descendants = document.resolveArray(fontDict.get("DescendantFonts"));
+            Map<String, Object> descendant = descendants != null && !descendants.isEmpty()
+                    ? document.resolveDict(descendants.get(0)) : null;
+            if (descendant != null) {
+                metricsDict = descendant;
+                defaultWidth = PDFObjectParser.asFloat(document.resolve(descendant.get("DW")), 1000) * scale;
+                readWidthRanges(document, document.resolveArray(descendant.get("W")), scale);
+            } else {
+                defaultWidth = 1;
+            }
+        } else {
+            if ("Type3".equals(fontDict.get("Subtype"))) {
+                List<Object> matrix = document.resolveArray(fontDict.get("FontMatrix"));
+                if (matrix != null && matrix.size() == 6) {
+                    scale = PDFObjectParser.asFloat(document.resolve(matrix.get(0)), scale);
+                }
+            }
+            List<Object> widthArray = document.resolveArray(fontDict.get("Widths"));
+            if (widthArray != null) {
+                firstChar = PDFObjectParser.asInt(document.resolve(fontDict.get("FirstChar")), 0);
+                widths = new float[widthArray.size()];
+                for (int i = 0; i < widths.length; i++) {
+                    widths[i] = PDFObjectParser.asFloat(document.resolve(widthArray.get(i)), 0) * scale;
+                }
+            }
+        }
+        Map<String, Object> descriptor = document.resolveDict(metricsDict.get("FontDescriptor"));
+        if (descriptor != null) {
+            float missingWidth = PDFObjectParser.asFloat(document.resolve(descriptor.get("MissingWidth")), 0);
+            if (!composite && missingWidth > 0) {
+                defaultWidth = missingWidth * scale;
+            }
+            float fontAscent = PDFObjectParser.asFloat(document.resolve(descriptor.get("Ascent")), 0);
+            float fontDescent = PDFObjectParser.asFloat(document.resolve(descriptor.get("Descent")), 0);
+            // Some producers write zero or swapped values; keep the defaults then
+            if (fontAscent > 0 && fontDescent <= 0) {
+                ascent = fontAscent * 0.001f;
+                descent = fontDescent * 0.001f;
+            }
+        }
+    }
+
+    // /W entries are either "first [w1 w2 ...]" or "first last w"
+    private void readWidthRanges(PDFDocument document, List<Object> entries, float scale) {
+        if (entries == null) {
+            return;
+        }
+        widthRangeFirsts = new int[16];
+        widthRangeLasts = new int[16];
+        widthRangeValues = new float[16];
+        int i = 0;
+        while (i + 1 < entries.size()) {
+            int first = PDFObjectParser.asInt(document.resolve(entries.get(i)), -1);
+            Object next = document.resolve(entries.get(i + 1));
+            if (first < 0) {
+                break;
+            }
+            if (next instanceof List) {
+                List<Object> values = PDFObjectParser.asArray(next);
+                for (int k = 0; k < values.size(); k++) {
+                    addWidthRange(first + k, first + k, PDFObjectParser.asFloat(document.resolve(values.get(k)), 0) * scale);
+                }
+                i += 2;
+            } else if (i + 2 < entries.size()) {
+                int last = PDFObjectParser.asInt(next, first);
+                addWidthRange(first, last, PDFObjectParser.asFloat(document.resolve(entries.get(i + 2)), 0) * scale);
+                i += 3;
+            } else {
+                break;
+            }
+        }
+        // Producers almost always write /W in code order; sort if one did not
+        for (int k = 1; k < widthRangeCount; k++) {
+            if (widthRangeFirsts[k] < widthRangeFirsts[k - 1]) {
+                sortWidthRanges();
+                break;
+            }
+        }
+    }
+
+    private void addWidthRange(int first, int last, float width) {
+        if (widthRangeCount == widthRangeFirsts.length) {
+            widthRangeFirsts = Arrays.copyOf(widthRangeFirsts, widthRangeCount * 2);
+            widthRangeLasts = Arrays.copyOf(widthRangeLasts, widthRangeCount * 2);
+            widthRangeValues = Arrays.copyOf(widthRangeValues, widthRangeCount * 2);
+        }
+        widthRangeFirsts[widthRangeCount] = first;
+        widthRangeLasts[widthRangeCount] = last;
+        widthRangeValues[widthRangeCount++] = width;
+    }
+
+    private void sortWidthRanges() {
+        Integer[] order = new Integer[widthRangeCount];
+        for (int k = 0; k < order.length; k++) {
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(widthRangeFirsts[a], widthRangeFirsts[b]));
+        int[] firsts = new int[widthRangeCount];
+        int[] lasts = new int[widthRangeCount];
+        float[] values = new float[widthRangeCount];
+        for (int k = 0; k < order.length; k++) {
+            firsts[k] = widthRangeFirsts[order[k]];
+            lasts[k] = widthRangeLasts[order[k]];
+            values[k] = widthRangeValues[order[k]];
+        }
+        widthRangeFirsts = firsts;
+        widthRangeLasts = lasts;
+        widthRangeValues = values;
+    }
+
+    // Advance width of a code in text space units per unit of font size
+    public float getWidth(int code) {
+        if (composite) {
+            if (widthRangeCount > 0) {
+                int index = Arrays.binarySearch(widthRangeFirsts, 0, widthRangeCount, code);
+                if (index < 0) {
+                    // The range starting closest below the code
+                    index = -index - 2;
+                }
+                if (index >= 0 && code <= widthRangeLasts[index]) {
+                    return widthRangeValues[index];
+                }
+            }
+            return defaultWidth;
+        }
+        int index = code - firstChar;
+        return widths != null && index >= 0 && index < widths.length ? widths[index] : defaultWidth;
+    }
+
+    public float getAscent() {
+        return ascent;
+    }
+
+    public float getDescent() {
+        return descent;
+    }
+
+    // Appends the text for the string bytes[offset, offset + length); unmapped codes are dropped
+    public void decode(byte[] bytes, int offset, int length, StringBuilder out) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int codeLength = codeLength(bytes, i, end);
+            if (i + codeLength > end) {
+                break;
+            }
+            decode(readCode(bytes, i, codeLength), out);
+            i += codeLength;
+        }
+    }
+
+    // Appends the text for a single code
+    public void decode(int code, StringBuilder out) {
+        if (toUnicode != null && toUnicode.decode(code, out)) {
+            return;
+        }
+        if (composite) {
+            if (unicodeCodes) {
+                out.append((char) code);
+            }
+        } else if (code < encoding.length && encoding[code] != 0) {
+            out.append(encoding[code]);
+        }
+    }
+
+    public static int readCode(byte[] bytes, int offset, int codeLength) {
+        int code = 0;
+        for (int k = 0; k < codeLength; k++) {
+            code = (code << 8) | (bytes[offset + k] & 0xFF);
+        }
+        return code;
+    }
+
+    // Number of bytes in the code starting at offset
+    public int codeLength(byte[] bytes, int offset, int end) {
+        if (!composite) {
+            return 1;
+        }
+        // Identity-H and nearly all predefined CMaps use two-byte codes
+        return encodingCMap != null ? encodingCMap.codeLength(bytes, offset, end, 2) : 2;
+    }
+}
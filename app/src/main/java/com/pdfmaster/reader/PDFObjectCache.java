@@ -0,0 +1,124 @@
+package com.pdfmaster.reader;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache of parsed indirect objects, bounded by an estimate of their heap size
+ * rather than by entry count. Page-tree nodes, fonts and resource dictionaries are
+ * shared between pages, so they tend to stay resident while pages are read in order.
+ */
+public class PDFObjectCache {
+
+    // Rough per-object heap costs used for the size estimate
+    private static final int OBJECT_OVERHEAD = 16;
+    private static final int REFERENCE_SIZE = 8;
+    private static final int MAP_ENTRY_SIZE = 40;
+    private static final int MAX_ESTIMATE_DEPTH = 8;
+
+    // Returned by get() on a miss, since null is itself a valid PDF object
+    public static final Object MISSING = new Object();
+
+    private final long maxBytes;
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public PDFObjectCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized Object get(int objectNumber) {
+        Entry entry = entries.get(objectNumber);
+        if (entry == null) {
+            missCount++;
+            return MISSING;
+        }
+        hitCount++;
+        return entry.value;
+    }
+
+    public synchronized void put(int objectNumber, Object value) {
+        int size = estimateSize(value, 0);
+        if (size > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(objectNumber, new Entry(value, size));
+        if (previous != null) {
+            currentBytes -= previous.size;
+        }
+        currentBytes += size;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            currentBytes -= iterator.next().size;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    public synchronized long getHitCount() { return hitCount; }
+    public synchronized long getMissCount() { return missCount; }
+    public synchronized long getEvictionCount() { return evictionCount; }
+    public synchronized long getSizeBytes() { return currentBytes; }
+    public synchronized int getEntryCount() { return entries.size(); }
+    public long getMaxBytes() { return maxBytes; }
+
+    @Override
+    public synchronized String toString() {
+        return "PDFObjectCache{hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount
+                + ", entries=" + entries.size() + ", bytes=" + currentBytes + "/" + maxBytes + "}";
+    }
+
+    static int estimateSize(Object value, int depth) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof byte[]) {
+            return OBJECT_OVERHEAD + ((byte[]) value).length;
+        }
+        if (value instanceof String) {
+            return OBJECT_OVERHEAD * 2 + ((String) value).length() * 2;
+        }
+        if (depth >= MAX_ESTIMATE_DEPTH) {
+            return OBJECT_OVERHEAD;
+        }
+        if (value instanceof List) {
+            int size = OBJECT_OVERHEAD * 2;
+            for (Object element : (List<?>) value) {
+                size += REFERENCE_SIZE + estimateSize(element, depth + 1);
+            }
+            return size;
+        }
+        if (value instanceof PDFStream) {
+            return OBJECT_OVERHEAD * 2 + estimateSize(((PDFStream) value).getDictionary(), depth + 1);
+        }
+        if (value instanceof Map) {
+            int size = OBJECT_OVERHEAD * 3;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += MAP_ENTRY_SIZE + estimateSize(entry.getKey(), depth + 1)
+                        + estimateSize(entry.getValue(), depth + 1);
+            }
+            return size;
+        }
+        return OBJECT_OVERHEAD;
+    }
+
+    private static class Entry {
+        final Object value;
+        final int size;
+
+        Entry(Object value, int size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
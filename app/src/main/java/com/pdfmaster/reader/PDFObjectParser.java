@@ -0,0 +1,480 @@
+package com.pdfmaster.reader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses PDF objects out of a byte window. Names are returned as {@link String},
+ * strings as {@code byte[]}, numbers as {@link Integer} or {@link Double}, arrays as
+ * {@link List}, dictionaries as {@link Map}, plus {@link PDFRef}, {@link PDFStream},
+ * {@link Boolean}, {@code null} and {@link Keyword} for bare operators.
+ *
+ * Running off the end of the window throws {@link EOFException} so callers can retry
+ * with a larger window.
+ */
+public class PDFObjectParser {
+
+    private static final int MAX_NESTING = 64;
+
+    private byte[] buf;
+    private int limit;
+    private long baseOffset;
+    private int pos;
+    private boolean allowReferences = true;
+    private boolean complete;
+    private int nesting;
+
+    public PDFObjectParser(byte[] buf, int offset, int length, long baseOffset) {
+        reset(buf, offset, length, baseOffset);
+    }
+
+    public PDFObjectParser(byte[] buf) {
+        this(buf, 0, buf.length, 0);
+        this.complete = true;
+    }
+
+    // Points the parser at a new window so one instance can be reused across refills
+    public void reset(byte[] buf, int offset, int length, long baseOffset) {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+        this.baseOffset = baseOffset - offset;
+        this.nesting = 0;
+    }
+
+    // Content streams never contain indirect references, so "0 0 R" style lookahead can be skipped
+    public void setAllowReferences(boolean allowReferences) {
+        this.allowReferences = allowReferences;
+    }
+
+    // When the window holds the whole input, a token ending at the limit is not truncated
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    public int getPosition() { return pos; }
+    public void setPosition(int position) { this.pos = position; }
+    public long getFileOffset() { return baseOffset + pos; }
+    public byte[] getBuffer() { return buf; }
+    public int getLimit() { return limit; }
+
+    public boolean atEnd() {
+        skipWhitespace();
+        return pos >= limit;
+    }
+
+    public static boolean isWhitespace(int c) {
+        return c == 0 || c == 9 || c == 10 || c == 12 || c == 13 || c == 32;
+    }
+
+    public static boolean isDelimiter(int c) {
+        return c == '(' || c == ')' || c == '<' || c == '>' || c == '[' || c == ']'
+                || c == '{' || c == '}' || c == '/' || c == '%';
+    }
+
+    public static boolean isRegular(int c) {
+        return !isWhitespace(c) && !isDelimiter(c);
+    }
+
+    public void skipWhitespace() {
+        while (pos < limit) {
+            int c = buf[pos] & 0xFF;
+            if (isWhitespace(c)) {
+                pos++;
+            } else if (c == '%') {
+                while (pos < limit && buf[pos] != '\n' && buf[pos] != '\r') {
+                    pos++;
+                }
+            } else {
+                break;
+            }
+        }
+    }
+
+    public Object parseIndirectObject(int expectedNumber) throws IOException {
+        Object number = parseObject();
+        Object generation = parseObject();
+        Object keyword = parseObject();
+        if (!(number instanceof Integer) || !(generation instanceof Integer)
+                || !(keyword instanceof Keyword) || !((Keyword) keyword).is("obj")) {
+            throw new IOException("Expected object header at offset " + getFileOffset());
+        }
+        if (expectedNumber >= 0 && (Integer) number != expectedNumber) {
+            throw new IOException("Expected object " + expectedNumber + " but found " + number);
+        }
+        return parseObject();
+    }
+
+    public Object parseObject() throws IOException {
+        skipWhitespace();
+        if (pos >= limit) {
+            throw new EOFException();
+        }
+        int c = buf[pos] & 0xFF;
+        switch (c) {
+            case '/':
+                return parseName();
+            case '(':
+                return parseLiteralString();
+            case '[':
+                return parseArray();
+            case '<':
+                if (pos + 1 >= limit) {
+                    throw new EOFException();
+                }
+                if (buf[pos + 1] == '<') {
+                    return parseDictionaryOrStream();
+                }
+                return parseHexString();
+            default:
+                if ((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.') {
+                    return parseNumberOrReference();
+                }
+                return parseKeyword();
+        }
+    }
+
+    private String parseName() throws EOFException {
+        pos++;
+        int start = pos;
+        boolean escaped = false;
+        while (pos < limit && isRegular(buf[pos] & 0xFF)) {
+            if (buf[pos] == '#') {
+                escaped = true;
+            }
+            pos++;
+        }
+        if (pos >= limit && !complete) {
+            throw new EOFException();
+        }
+        if (!escaped) {
+            return new String(buf, start, pos - start, StandardCharsets.ISO_8859_1);
+        }
+        StringBuilder name = new StringBuilder(pos - start);
+        for (int i = start; i < pos; i++) {
+            int b = buf[i] & 0xFF;
+            if (b == '#' && i + 2 < pos) {
+                int hi = hexValue(buf[i + 1]);
+                int lo = hexValue(buf[i + 2]);
+                if (hi >= 0 && lo >= 0) {
+                    name.append((char) ((hi << 4) | lo));
+                    i += 2;
+                    continue;
+                }
+            }
+            name.append((char) b);
+        }
+        return name.toString();
+    }
+
+    private byte[] parseLiteralString() throws EOFException {
+        pos++;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int depth = 1;
+        while (true) {
+            if (pos >= limit) {
+                throw new EOFException();
+            }
+            int c = buf[pos++] & 0xFF;
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                if (--depth == 0) {
+                    break;
+                }
+            } else if (c == '\\') {
+                if (pos >= limit) {
+                    throw new EOFException();
+                }
+                c = buf[pos++] & 0xFF;
+                switch (c) {
+                    case 'n': out.write('\n'); continue;
+                    case 'r': out.write('\r'); continue;
+                    case 't': out.write('\t'); continue;
+                    case 'b': out.write('\b'); continue;
+                    case 'f': out.write('\f'); continue;
+                    case '\r':
+                        if (pos < limit && buf[pos] == '\n') {
+                            pos++;
+                        }
+                        continue;
+                    case '\n':
+                        continue;
+                    default:
+                        if (c >= '0' && c <= '7') {
+                            int value = c - '0';
+                            for (int i = 0; i < 2 && pos < limit && buf[pos] >= '0' && buf[pos] <= '7'; i++) {
+                                value = value * 8 + (buf[pos++] - '0');
+                            }
+                            out.write(value & 0xFF);
+                            continue;
+                        }
+                        break;
+                }
+            }
+            out.write(c);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] parseHexString() throws EOFException {
+        pos++;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int high = -1;
+        while (true) {
+            if (pos >= limit) {
+                throw new EOFException();
+            }
+            int c = buf[pos++] & 0xFF;
+            if (c == '>') {
+                break;
+            }
+            int value = hexValue(c);
+            if (value < 0) {
+                continue;
+            }
+            if (high < 0) {
+                high = value;
+            } else {
+                out.write((high << 4) | value);
+                high = -1;
+            }
+        }
+        if (high >= 0) {
+            out.write(high << 4);
+        }
+        return out.toByteArray();
+    }
+
+    private List<Object> parseArray() throws IOException {
+        pos++;
+        enterNesting();
+        List<Object> array = new ArrayList<>();
+        while (true) {
+            skipWhitespace();
+            if (pos >= limit) {
+                throw new EOFException();
+            }
+            if (buf[pos] == ']') {
+                pos++;
+                break;
+            }
+            array.add(parseObject());
+        }
+        nesting--;
+        return array;
+    }
+
+    private Object parseDictionaryOrStream() throws IOException {
+        pos += 2;
+        enterNesting();
+        Map<String, Object> dict = new HashMap<>();
+        while (true) {
+            skipWhitespace();
+            if (pos >= limit) {
+                throw new EOFException();
+            }
+            if (buf[pos] == '>') {
+                if (pos + 1 >= limit) {
+                    throw new EOFException();
+                }
+                pos += 2;
+                break;
+            }
+            Object key = parseObject();
+            if (!(key instanceof String)) {
+                // Malformed entry; skip it rather than abandoning the whole dictionary
+                continue;
+            }
+            skipWhitespace();
+            if (pos < limit && buf[pos] == '>') {
+                continue;
+            }
+            Object value = parseObject();
+            if (value != null) {
+                dict.put((String) key, value);
+            }
+        }
+        nesting--;
+
+        int saved = pos;
+        skipWhitespace();
+        if (matches("stream")) {
+            pos += 6;
+            if (pos < limit && buf[pos] == '\r') {
+                pos++;
+            }
+            if (pos < limit && buf[pos] == '\n') {
+                pos++;
+            }
+            return new PDFStream(dict, getFileOffset());
+        }
+        pos = saved;
+        return dict;
+    }
+
+    private Object parseNumberOrReference() throws IOException {
+        int start = pos;
+        Object number = parseNumber();
+        if (!allowReferences || !(number instanceof Integer) || (Integer) number < 0
+                || buf[start] == '+' || buf[start] == '-') {
+            return number;
+        }
+        int saved = pos;
+        skipWhitespace();
+        if (pos < limit && buf[pos] >= '0' && buf[pos] <= '9') {
+            Object generation = parseNumber();
+            skipWhitespace();
+            if (generation instanceof Integer && pos < limit && buf[pos] == 'R'
+                    && (pos + 1 >= limit || !isRegular(buf[pos + 1] & 0xFF))) {
+                pos++;
+                return new PDFRef((Integer) number, (Integer) generation);
+            }
+        }
+        if (pos >= limit && !complete) {
+            // Cannot tell "12 0" from "12 0 R" without more input
+            throw new EOFException();
+        }
+        pos = saved;
+        return number;
+    }
+
+    private Object parseNumber() throws EOFException {
+        boolean negative = false;
+        boolean fraction = false;
+        long integer = 0;
+        double value = 0;
+        double scale = 0.1;
+        int digits = 0;
+        while (pos < limit && (buf[pos] == '+' || buf[pos] == '-')) {
+            negative = buf[pos] == '-';
+            pos++;
+        }
+        while (pos < limit) {
+            int c = buf[pos];
+            if (c >= '0' && c <= '9') {
+                if (fraction) {
+                    value += (c - '0') * scale;
+                    scale /= 10;
+                } else {
+                    integer = integer * 10 + (c - '0');
+                }
+                digits++;
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (pos >= limit && !complete) {
+            throw new EOFException();
+        }
+        if (!fraction && integer <= Integer.MAX_VALUE) {
+            return negative ? (int) -integer : (int) integer;
+        }
+        double result = integer + value;
+        if (digits == 0) {
+            result = 0;
+        }
+        return negative ? -result : result;
+    }
+
+    private Object parseKeyword() throws EOFException {
+        int start = pos;
+        while (pos < limit && isRegular(buf[pos] & 0xFF)) {
+            pos++;
+        }
+        if (pos == start) {
+            // Stray delimiter such as ')' or '}'; consume it as a one-character keyword
+            pos++;
+        } else if (pos >= limit && !complete) {
+            throw new EOFException();
+        }
+        int length = pos - start;
+        if (length == 4 && matchesAt(start, "true")) return Boolean.TRUE;
+        if (length == 5 && matchesAt(start, "false")) return Boolean.FALSE;
+        if (length == 4 && matchesAt(start, "null")) return null;
+        return new Keyword(new String(buf, start, length, StandardCharsets.ISO_8859_1));
+    }
+
+    private void enterNesting() throws IOException {
+        if (++nesting > MAX_NESTING) {
+            throw new IOException("Objects nested too deeply");
+        }
+    }
+
+    public boolean matches(String keyword) {
+        return matchesAt(pos, keyword);
+    }
+
+    private boolean matchesAt(int at, String keyword) {
+        if (at + keyword.length() > limit) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            if (buf[at + i] != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static int hexValue(int c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
+    // Helpers for reading typed values out of parsed objects
+
+    public static int asInt(Object value, int defaultValue) {
+        if (value instanceof Integer) return (Integer) value;
+        if (value instanceof Double) return (int) (double) (Double) value;
+        return defaultValue;
+    }
+
+    public static float asFloat(Object value, float defaultValue) {
+        if (value instanceof Integer) return (Integer) value;
+        if (value instanceof Double) return (float) (double) (Double) value;
+        return defaultValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> asDict(Object value) {
+        if (value instanceof Map) return (Map<String, Object>) value;
+        if (value instanceof PDFStream) return ((PDFStream) value).getDictionary();
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static List<Object> asArray(Object value) {
+        return value instanceof List ? (List<Object>) value : null;
+    }
+
+    public static class Keyword {
+        private final String name;
+
+        public Keyword(String name) {
+            this.name = name;
+        }
+
+        public String getName() { return name; }
+
+        public boolean is(String keyword) {
+            return name.equals(keyword);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
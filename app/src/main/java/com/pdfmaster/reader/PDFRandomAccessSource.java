@@ -0,0 +1,322 @@
+package com.pdfmaster.reader;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Positional, thread-safe byte access to a document. Seekable descriptors are memory
+ * mapped or read with FileChannel positional reads; providers that hand out pipes are
+ * copied into memory or a bounded cache file first.
+ */
+public abstract class PDFRandomAccessSource implements Closeable {
+
+    private static final String TAG = "PDFRandomAccessSource";
+    // Keep mappings small enough to fit the address space of 32-bit devices
+    private static final long MAX_MAPPED_SIZE = 64L * 1024 * 1024;
+    private static final int MAX_IN_MEMORY_SPILL = 4 * 1024 * 1024;
+    private static final long MAX_FILE_SPILL = 512L * 1024 * 1024;
+    private static final String SPILL_DIR = "pdf_spill";
+
+    public abstract long length();
+
+    // Reads up to len bytes at position; returns the number read, or -1 at end of file
+    public abstract int read(long position, byte[] buffer, int offset, int len) throws IOException;
+
+    public byte[] read(long position, int size) throws IOException {
+        if (position < 0 || position >= length()) {
+            throw new EOFException("Read past end of file at " + position);
+        }
+        size = (int) Math.min(size, length() - position);
+        byte[] data = new byte[size];
+        int filled = 0;
+        while (filled < size) {
+            int count = read(position + filled, data, filled, size - filled);
+            if (count < 0) {
+                break;
+            }
+            filled += count;
+        }
+        return data;
+    }
+
+    // Sequential view of [position, position + size) through a fixed-size buffer
+    public InputStream openStream(long position, long size) {
+        return new RangeInputStream(this, position, Math.min(size, Math.max(0, length() - position)));
+    }
+
+    public static PDFRandomAccessSource open(Context context, Uri uri) throws IOException {
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+        } catch (Exception e) {
+            Log.d(TAG, "No file descriptor for " + uri + ", falling back to stream copy");
+        }
+        if (descriptor != null) {
+            if (descriptor.getStatSize() >= 0) {
+                try {
+                    return fromDescriptor(descriptor);
+                } catch (IOException e) {
+                    Log.w(TAG, "Descriptor is not seekable, falling back to stream copy", e);
+                }
+            }
+            closeQuietly(descriptor);
+        }
+        return spill(context, uri);
+    }
+
+    private static PDFRandomAccessSource fromDescriptor(ParcelFileDescriptor descriptor) throws IOException {
+        FileChannel channel = new FileInputStream(descriptor.getFileDescriptor()).getChannel();
+        long size = channel.size();
+        if (size <= 0) {
+            throw new IOException("Descriptor reports no size");
+        }
+        if (size <= MAX_MAPPED_SIZE) {
+            try {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                // The mapping stays valid after the descriptor is closed
+                closeQuietly(descriptor);
+                return new MappedSource(mapped);
+            } catch (IOException e) {
+                Log.d(TAG, "Memory mapping failed, using positional reads");
+            }
+        }
+        return new ChannelSource(channel, size, descriptor, null);
+    }
+
+    // Copies a non-seekable stream into memory, or into the cache directory once it grows large
+    private static PDFRandomAccessSource spill(Context context, Uri uri) throws IOException {
+        InputStream input = context.getContentResolver().openInputStream(uri);
+        if (input == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        File spillFile = null;
+        OutputStream fileOut = null;
+        try {
+            ByteArrayOutputStream memory = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            long total = 0;
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                total += count;
+                if (total > MAX_FILE_SPILL) {
+                    throw new IOException("Document too large to copy: " + uri);
+                }
+                if (fileOut == null && total > MAX_IN_MEMORY_SPILL) {
+                    File dir = new File(context.getCacheDir(), SPILL_DIR);
+                    if (!dir.isDirectory() && !dir.mkdirs()) {
+                        throw new IOException("Cannot create " + dir);
+                    }
+                    spillFile = File.createTempFile("spill", ".pdf", dir);
+                    fileOut = new FileOutputStream(spillFile);
+                    memory.writeTo(fileOut);
+                    memory = null;
+                }
+                if (fileOut != null) {
+                    fileOut.write(buffer, 0, count);
+                } else {
+                    memory.write(buffer, 0, count);
+                }
+            }
+            if (fileOut == null) {
+                return new ByteArraySource(memory.toByteArray());
+            }
+            fileOut.close();
+            fileOut = null;
+            RandomAccessFile file = new RandomAccessFile(spillFile, "r");
+            FileChannel channel = file.getChannel();
+            PDFRandomAccessSource source = new ChannelSource(channel, channel.size(), file, spillFile);
+            spillFile = null;
+            return source;
+        } finally {
+            closeQuietly(input);
+            closeQuietly(fileOut);
+            if (spillFile != null && !spillFile.delete()) {
+                Log.w(TAG, "Could not delete " + spillFile);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing " + closeable, e);
+            }
+        }
+    }
+
+    private static class RangeInputStream extends InputStream {
+        private static final int BUFFER_SIZE = 8192;
+
+        private final PDFRandomAccessSource source;
+        private final byte[] buffer;
+        private long position;
+        private long remaining;
+        private int bufferPos;
+        private int bufferLimit;
+
+        RangeInputStream(PDFRandomAccessSource source, long position, long size) {
+            this.source = source;
+            this.position = position;
+            this.remaining = size;
+            this.buffer = new byte[(int) Math.max(1, Math.min(BUFFER_SIZE, size))];
+        }
+
+        private boolean fill() throws IOException {
+            if (remaining <= 0) {
+                return false;
+            }
+            int count = source.read(position, buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (count <= 0) {
+                remaining = 0;
+                return false;
+            }
+            position += count;
+            remaining -= count;
+            bufferPos = 0;
+            bufferLimit = count;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (bufferPos >= bufferLimit && !fill()) {
+                return -1;
+            }
+            return buffer[bufferPos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] dst, int offset, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (bufferPos >= bufferLimit && !fill()) {
+                return -1;
+            }
+            int count = Math.min(len, bufferLimit - bufferPos);
+            System.arraycopy(buffer, bufferPos, dst, offset, count);
+            bufferPos += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, bufferLimit - bufferPos + remaining);
+        }
+    }
+
+    public static class ByteArraySource extends PDFRandomAccessSource {
+        private final byte[] data;
+
+        public ByteArraySource(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public long length() {
+            return data.length;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int len) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int count = (int) Math.min(len, data.length - position);
+            System.arraycopy(data, (int) position, buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class MappedSource extends PDFRandomAccessSource {
+        private final MappedByteBuffer mapped;
+        private final long length;
+
+        MappedSource(MappedByteBuffer mapped) {
+            this.mapped = mapped;
+            this.length = mapped.capacity();
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int len) {
+            if (position >= length) {
+                return -1;
+            }
+            int count = (int) Math.min(len, length - position);
+            // Each reader gets its own cursor so concurrent reads never interfere
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) position);
+            view.get(buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class ChannelSource extends PDFRandomAccessSource {
+        private final FileChannel channel;
+        private final long length;
+        private final Closeable owner;
+        private final File deleteOnClose;
+
+        ChannelSource(FileChannel channel, long length, Closeable owner, File deleteOnClose) {
+            this.channel = channel;
+            this.length = length;
+            this.owner = owner;
+            this.deleteOnClose = deleteOnClose;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int len) throws IOException {
+            if (position >= length) {
+                return -1;
+            }
+            return channel.read(ByteBuffer.wrap(buffer, offset, len), position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+                owner.close();
+            } finally {
+                if (deleteOnClose != null && !deleteOnClose.delete()) {
+                    Log.w(TAG, "Could not delete " + deleteOnClose);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.pdfmaster.reader;
+
+public class PDFRef {
+    private final int objectNumber;
+    private final int generation;
+
+    public PDFRef(int objectNumber, int generation) {
+        this.objectNumber = objectNumber;
+        this.generation = generation;
+    }
+
+    public int getObjectNumber() { return objectNumber; }
+    public int getGeneration() { return generation; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PDFRef)) return false;
+        PDFRef other = (PDFRef) o;
+        return objectNumber == other.objectNumber && generation == other.generation;
+    }
+
+    @Override
+    public int hashCode() {
+        return objectNumber * 31 + generation;
+    }
+
+    @Override
+    public String toString() {
+        return objectNumber + " " + generation + " R";
+    }
+}
@@ -0,0 +1,996 @@
+package com.pdfmaster.reader;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Full-text index over the pages of every document the app knows about: recent files,
+ * favorites and documents with bookmarks. The viewer indexes a document once it has
+ * loaded, and a background pass after launch catches up with the rest a document at a
+ * time. Documents are tracked by registry id (see DocumentIdentity), so one opened
+ * through several URIs is indexed once. Queries are answered from the index alone, so
+ * no PDF is read at search time.
+ *
+ * The index is a list of immutable segment files. Each holds a sorted term dictionary
+ * and, per term, a posting list of (document, page, frequency) entries encoded as
+ * varint deltas. Indexing a document writes a segment for that document only; the
+ * newest segments are merged once they grow comparable in size to the one before, so
+ * the segment count stays logarithmic. Replaced or forgotten documents are marked dead
+ * in the document table and dropped when their segment is next merged.
+ */
+public class PDFSearchIndex {
+
+    private static final String TAG = "PDFSearchIndex";
+    private static final String INDEX_DIR = "search_index";
+    private static final String META_FILE = "index.meta";
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String SEGMENT_SUFFIX = ".idx";
+    private static final int META_VERSION = 2;
+    private static final int SEGMENT_MAGIC = 0x50534958;
+    private static final int MAX_SEGMENTS = 12;
+    // The newest segment is merged into the one before once it is more than 1/MERGE_FACTOR of its size
+    private static final int MERGE_FACTOR = 4;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    // The catch-up pass waits for startup to settle, then pauses between documents
+    private static final long SWEEP_DELAY_MS = 10 * 1000;
+    private static final long SWEEP_PAUSE_MS = 2 * 1000;
+    // A document that could not be indexed is tried again after this long
+    private static final long RETRY_FAILED_MS = 7L * 24 * 60 * 60 * 1000;
+
+    private static PDFSearchIndex instance;
+
+    private Context context;
+    private final File directory;
+    private final PDFTextExtractor textExtractor;
+    // Sweep steps are scheduled one document at a time, so a document opened meanwhile is not held up
+    private final ScheduledExecutorService indexExecutor = Executors.newSingleThreadScheduledExecutor();
+    // Oldest first; document ids increase from one segment to the next
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<Integer, Document> documents = new HashMap<>();
+    // Keyed by registry id
+    private final Map<Integer, Document> liveDocuments = new HashMap<>();
+    // When the catch-up pass last failed to index a document, by registry id
+    private final Map<Integer, Long> failedDocuments = new HashMap<>();
+    private boolean sweepStarted;
+    private int nextDocumentId;
+    private int nextSegmentId;
+    private boolean loaded;
+
+    private PDFSearchIndex(Context context) {
+        this.context = context;
+        this.directory = new File(context.getFilesDir(), INDEX_DIR);
+        this.textExtractor = new PDFTextExtractor(context);
+    }
+
+    public static synchronized PDFSearchIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new PDFSearchIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public void indexInBackground(final Uri uri) {
+        indexExecutor.execute(() -> indexDocument(uri));
+    }
+
+    /**
+     * Starts the catch-up pass, once per process. Documents already indexed are skipped
+     * without being opened, and each finished document is saved as it completes, so a
+     * pass cut short by the process ending carries on from there at the next launch.
+     */
+    public synchronized void indexKnownDocumentsInBackground() {
+        if (sweepStarted) {
+            return;
+        }
+        sweepStarted = true;
+        indexExecutor.schedule(this::startSweep, SWEEP_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void startSweep() {
+        Map<Integer, String> known = getKnownDocuments();
+        if (known == null) {
+            return;
+        }
+        List<Map.Entry<Integer, String>> pending = new ArrayList<>();
+        synchronized (this) {
+            ensureLoaded();
+            boolean changed = false;
+            // Dropped from the library since they were indexed
+            for (Document document : new ArrayList<>(liveDocuments.values())) {
+                if (!known.containsKey(document.documentId)) {
+                    forget(document);
+                    changed = true;
+                }
+            }
+            changed |= failedDocuments.keySet().retainAll(known.keySet());
+            long now = System.currentTimeMillis();
+            for (Map.Entry<Integer, String> entry : known.entrySet()) {
+                Long failed = failedDocuments.get(entry.getKey());
+                if (!liveDocuments.containsKey(entry.getKey()) && (failed == null || now - failed > RETRY_FAILED_MS)) {
+                    pending.add(entry);
+                }
+            }
+            if (changed) {
+                saveMeta();
+            }
+        }
+        Log.d(TAG, pending.size() + " of " + known.size() + " known documents to index");
+        sweepNext(pending.iterator());
+    }
+
+    private void sweepNext(final Iterator<Map.Entry<Integer, String>> pending) {
+        if (!pending.hasNext()) {
+            return;
+        }
+        Map.Entry<Integer, String> entry = pending.next();
+        try {
+            indexDocument(Uri.parse(entry.getValue()));
+        } catch (Exception e) {
+            Log.e(TAG, "Error indexing " + entry.getValue(), e);
+        }
+        synchronized (this) {
+            // Not indexed, or indexed under another id if identifying it merged two entries
+            if (!liveDocuments.containsKey(entry.getKey())) {
+                failedDocuments.put(entry.getKey(), System.currentTimeMillis());
+                saveMeta();
+            }
+        }
+        indexExecutor.schedule(() -> sweepNext(pending), SWEEP_PAUSE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Registry ids and URIs of recent files, favorites and bookmarked documents, most recently
+    // opened first; null if the library cannot be read, so nothing is forgotten by mistake
+    private Map<Integer, String> getKnownDocuments() {
+        Map<Integer, String> known = new LinkedHashMap<>();
+        LibraryDatabase database = LibraryDatabase.getInstance(context);
+        database.getJournal().flush();
+        String sql = "SELECT d." + LibraryDatabase.COLUMN_ID + ", d." + LibraryDatabase.COLUMN_URI
+                + " FROM " + LibraryDatabase.TABLE_DOCUMENTS + " d LEFT JOIN " + LibraryDatabase.TABLE_RECENT_FILES
+                + " r ON r." + LibraryDatabase.COLUMN_DOCUMENT_ID + " = d." + LibraryDatabase.COLUMN_ID
+                + " WHERE r." + LibraryDatabase.COLUMN_DOCUMENT_ID + " IS NOT NULL"
+                + " OR d." + LibraryDatabase.COLUMN_ID + " IN (SELECT " + LibraryDatabase.COLUMN_DOCUMENT_ID
+                + " FROM " + LibraryDatabase.TABLE_FAVORITES + ")"
+                + " OR d." + LibraryDatabase.COLUMN_ID + " IN (SELECT " + LibraryDatabase.COLUMN_DOCUMENT_ID
+                + " FROM " + LibraryDatabase.TABLE_BOOKMARKS + ")"
+                + " ORDER BY r." + LibraryDatabase.COLUMN_TIMESTAMP + " DESC";
+        try (Cursor cursor = database.getReadableDatabase().rawQuery(sql, null)) {
+            while (cursor.moveToNext()) {
+                known.put(cursor.getInt(0), cursor.getString(1));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error listing known documents", e);
+            return null;
+        }
+        return known;
+    }
+
+    // Indexes the document unless the index already holds its current contents
+    public boolean indexDocument(Uri uri) {
+        String uriString = uri.toString();
+        try {
+            // Identifies the document, so the registry id below is a cached lookup
+            String key = textExtractor.getTextCache().documentKey(uri);
+            int documentId = DocumentIdentity.getInstance(context).findDocumentId(uri);
+            if (documentId == 0) {
+                return false;
+            }
+            synchronized (this) {
+                ensureLoaded();
+                Document existing = liveDocuments.get(documentId);
+                if (existing != null && existing.key.equals(key)) {
+                    if (!existing.uri.equals(uriString)) {
+                        // Same contents opened through another URI; hits open it through this one
+                        relocate(existing, uriString);
+                    }
+                    return false;
+                }
+            }
+            int pageCount = textExtractor.getPageCount(uri);
+            if (pageCount <= 0) {
+                return false;
+            }
+            // Extraction runs outside the lock so searches are not held up by it
+            Map<String, PageCounts> postings = new HashMap<>();
+            for (int page = 0; page < pageCount; page++) {
+                for (String term : tokenize(textExtractor.extractPageText(uri, page))) {
+                    PageCounts counts = postings.get(term);
+                    if (counts == null) {
+                        counts = new PageCounts();
+                        postings.put(term, counts);
+                    }
+                    counts.add(page);
+                }
+            }
+            synchronized (this) {
+                try {
+                    addDocument(documentId, uriString, key, pageCount, postings);
+                    Log.d(TAG, "Indexed " + pageCount + " pages, " + postings.size() + " terms of " + uriString);
+                    return true;
+                } catch (IOException e) {
+                    Log.e(TAG, "Error indexing " + uriString, e);
+                    return false;
+                }
+            }
+        } finally {
+            textExtractor.close();
+        }
+    }
+
+    // Drops a deleted document from the index, whichever lists it is still in
+    public void forgetInBackground(final Uri uri) {
+        indexExecutor.execute(() -> {
+            String uriString = uri.toString();
+            int documentId = DocumentIdentity.getInstance(context).findDocumentId(uri);
+            synchronized (this) {
+                ensureLoaded();
+                boolean changed = false;
+                for (Document document : new ArrayList<>(liveDocuments.values())) {
+                    if (document.documentId == documentId || document.uri.equals(uriString)) {
+                        forget(document);
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    saveMeta();
+                }
+            }
+        });
+    }
+
+    // Drops documents that are no longer recent files, favorites or bookmarked, after entries were removed
+    public void forgetUnlistedInBackground() {
+        indexExecutor.execute(() -> {
+            Map<Integer, String> known = getKnownDocuments();
+            if (known == null) {
+                return;
+            }
+            synchronized (this) {
+                ensureLoaded();
+                boolean changed = false;
+                for (Document document : new ArrayList<>(liveDocuments.values())) {
+                    if (!known.containsKey(document.documentId)) {
+                        forget(document);
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    saveMeta();
+                }
+            }
+        });
+    }
+
+    /**
+     * Pages containing every term of the query, best first. Terms are matched after
+     * case and diacritic folding; pages score higher for repeated and rarer terms.
+     * Hits carry the name the document is listed under in the library.
+     */
+    public List<Hit> search(String query, int limit) {
+        List<Hit> hits = findHits(query, limit);
+        if (hits.isEmpty()) {
+            return hits;
+        }
+        Map<Integer, String> names = new HashMap<>();
+        StringBuilder ids = new StringBuilder();
+        for (Hit hit : hits) {
+            ids.append(ids.length() > 0 ? "," : "").append(hit.documentId);
+        }
+        LibraryDatabase database = LibraryDatabase.getInstance(context);
+        database.getJournal().flush();
+        // Documents are named as they open; ones only favorited or listed keep their name there
+        String sql = "SELECT d." + LibraryDatabase.COLUMN_ID + ", COALESCE(d." + LibraryDatabase.COLUMN_NAME
+                + ", r." + LibraryDatabase.COLUMN_NAME + ", f." + LibraryDatabase.COLUMN_NAME + ")"
+                + " FROM " + LibraryDatabase.TABLE_DOCUMENTS + " d LEFT JOIN " + LibraryDatabase.TABLE_RECENT_FILES
+                + " r ON r." + LibraryDatabase.COLUMN_DOCUMENT_ID + " = d." + LibraryDatabase.COLUMN_ID
+                + " LEFT JOIN " + LibraryDatabase.TABLE_FAVORITES
+                + " f ON f." + LibraryDatabase.COLUMN_DOCUMENT_ID + " = d." + LibraryDatabase.COLUMN_ID
+                + " WHERE d." + LibraryDatabase.COLUMN_ID + " IN (" + ids + ")";
+        try (Cursor cursor = database.getReadableDatabase().rawQuery(sql, null)) {
+            while (cursor.moveToNext()) {
+                names.put(cursor.getInt(0), cursor.getString(1));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading document names", e);
+        }
+        for (Hit hit : hits) {
+            String name = names.get(hit.documentId);
+            if (name == null) {
+                String segment = Uri.parse(hit.fileUri).getLastPathSegment();
+                name = segment != null ? segment.substring(segment.lastIndexOf('/') + 1) : "Unknown File";
+            }
+            hit.fileName = name;
+        }
+        return hits;
+    }
+
+    private synchronized List<Hit> findHits(String query, int limit) {
+        List<Hit> hits = new ArrayList<>();
+        ensureLoaded();
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (terms.isEmpty() || liveDocuments.isEmpty()) {
+            return hits;
+        }
+        final Map<String, Integer> frequencies = new HashMap<>();
+        for (String term : terms) {
+            int frequency = 0;
+            for (Segment segment : segments) {
+                int index = segment.find(term);
+                if (index >= 0) {
+                    frequency += segment.pageFrequencies[index];
+                }
+            }
+            if (frequency == 0) {
+                return hits;
+            }
+            frequencies.put(term, frequency);
+        }
+        long livePages = 0;
+        for (Document document : liveDocuments.values()) {
+            livePages += document.pageCount;
+        }
+        // Rarest term first keeps the candidate set small
+        Collections.sort(terms, (a, b) -> Integer.compare(frequencies.get(a), frequencies.get(b)));
+        PageScores scores = null;
+        try {
+            for (String term : terms) {
+                float idf = (float) Math.log(1 + (double) livePages / frequencies.get(term));
+                PageScores matched = new PageScores();
+                // Segments hold ascending document ids, so postings arrive in (document, page) order
+                int cursor = 0;
+                for (Segment segment : segments) {
+                    int index = segment.find(term);
+                    if (index >= 0) {
+                        cursor = scorePostings(segment.postings(index), idf, scores, cursor, matched);
+                    }
+                }
+                scores = matched;
+                if (scores.count == 0) {
+                    return hits;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading search index", e);
+            return hits;
+        }
+        // Keep the best pages in a bounded min-heap instead of sorting every match
+        PriorityQueue<Integer> best = new PriorityQueue<>(limit + 1, scores::compare);
+        for (int i = 0; i < scores.count; i++) {
+            best.add(i);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        while (!best.isEmpty()) {
+            int i = best.poll();
+            Document document = documents.get((int) (scores.keys[i] >>> 32));
+            hits.add(new Hit(document.documentId, document.uri, (int) scores.keys[i], scores.scores[i]));
+        }
+        Collections.reverse(hits);
+        return hits;
+    }
+
+    /**
+     * Scores this term on pages of live documents. After the first term, only pages
+     * already in candidates are kept; both lists are in key order, so this is a merge.
+     * Returns the position reached in candidates for the next segment to continue from.
+     */
+    private int scorePostings(byte[] postings, float idf, PageScores candidates, int cursor, PageScores matched) {
+        PostingsReader reader = new PostingsReader(postings);
+        int documentId = 0;
+        while (reader.hasMore()) {
+            documentId += reader.readVarint();
+            int pages = reader.readVarint();
+            Document document = documents.get(documentId);
+            boolean live = document != null && document.live;
+            int page = 0;
+            for (int i = 0; i < pages; i++) {
+                page += reader.readVarint();
+                int frequency = reader.readVarint();
+                if (!live) {
+                    continue;
+                }
+                long pageKey = ((long) documentId << 32) | page;
+                float score = (float) (1 + Math.log(frequency)) * idf;
+                if (candidates == null) {
+                    matched.add(pageKey, score);
+                    continue;
+                }
+                while (cursor < candidates.count && candidates.keys[cursor] < pageKey) {
+                    cursor++;
+                }
+                if (cursor < candidates.count && candidates.keys[cursor] == pageKey) {
+                    matched.add(pageKey, candidates.scores[cursor] + score);
+                }
+            }
+        }
+        return cursor;
+    }
+
+    private void addDocument(int documentId, String uri, String key, int pageCount, Map<String, PageCounts> postings)
+            throws IOException {
+        int id = nextDocumentId++;
+        if (!postings.isEmpty()) {
+            List<String> terms = new ArrayList<>(postings.keySet());
+            Collections.sort(terms);
+            SegmentWriter writer = new SegmentWriter(newSegmentFile(), id, id);
+            try {
+                PostingsWriter encoded = new PostingsWriter();
+                for (String term : terms) {
+                    PageCounts counts = postings.get(term);
+                    encoded.reset();
+                    encoded.startDocument(id, counts.count);
+                    for (int i = 0; i < counts.count; i++) {
+                        encoded.addPage(counts.pages[i], counts.frequencies[i]);
+                    }
+                    writer.addTerm(term, counts.count, encoded);
+                }
+            } finally {
+                writer.close();
+            }
+            segments.add(Segment.open(writer.file));
+        }
+        Document previous = liveDocuments.get(documentId);
+        if (previous != null) {
+            forget(previous);
+        }
+        Document document = new Document(id, documentId, uri, key, pageCount, true);
+        documents.put(id, document);
+        liveDocuments.put(documentId, document);
+        failedDocuments.remove(documentId);
+        List<Segment> obsolete = mergeSegments();
+        writeMeta();
+        for (Segment segment : obsolete) {
+            segment.delete();
+        }
+    }
+
+    private void relocate(Document document, String uri) {
+        Document moved = new Document(document.id, document.documentId, uri, document.key, document.pageCount, true);
+        documents.put(moved.id, moved);
+        liveDocuments.put(moved.documentId, moved);
+        saveMeta();
+    }
+
+    private void forget(Document document) {
+        document.live = false;
+        liveDocuments.remove(document.documentId);
+        if (findSegment(document.id) == null) {
+            // Nothing on disk refers to it
+            documents.remove(document.id);
+        }
+    }
+
+    private Segment findSegment(int documentId) {
+        for (Segment segment : segments) {
+            if (documentId >= segment.firstDocumentId && documentId <= segment.lastDocumentId) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    // Merges the newest segments while they are comparable in size; returns the replaced segments
+    private List<Segment> mergeSegments() throws IOException {
+        List<Segment> obsolete = new ArrayList<>();
+        while (segments.size() > 1) {
+            Segment newer = segments.get(segments.size() - 1);
+            Segment older = segments.get(segments.size() - 2);
+            if (segments.size() <= MAX_SEGMENTS && older.file.length() > newer.file.length() * MERGE_FACTOR) {
+                break;
+            }
+            Segment merged = merge(older, newer);
+            segments.remove(segments.size() - 1);
+            segments.set(segments.size() - 1, merged);
+            obsolete.add(older);
+            obsolete.add(newer);
+            // Dead documents in the merged range no longer have postings anywhere
+            Iterator<Document> iterator = documents.values().iterator();
+            while (iterator.hasNext()) {
+                Document document = iterator.next();
+                if (!document.live && document.id >= merged.firstDocumentId && document.id <= merged.lastDocumentId) {
+                    iterator.remove();
+                }
+            }
+        }
+        return obsolete;
+    }
+
+    private Segment merge(Segment older, Segment newer) throws IOException {
+        SegmentWriter writer = new SegmentWriter(newSegmentFile(), older.firstDocumentId, newer.lastDocumentId);
+        try {
+            PostingsWriter encoded = new PostingsWriter();
+            int i = 0;
+            int j = 0;
+            while (i < older.terms.length || j < newer.terms.length) {
+                int order = i == older.terms.length ? 1
+                        : j == newer.terms.length ? -1 : older.terms[i].compareTo(newer.terms[j]);
+                String term = order <= 0 ? older.terms[i] : newer.terms[j];
+                encoded.reset();
+                int pages = 0;
+                // Older documents have lower ids, so appending keeps the list in document order
+                if (order <= 0) {
+                    pages += copyLivePostings(older.postings(i++), encoded);
+                }
+                if (order >= 0) {
+                    pages += copyLivePostings(newer.postings(j++), encoded);
+                }
+                if (pages > 0) {
+                    writer.addTerm(term, pages, encoded);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        return Segment.open(writer.file);
+    }
+
+    private int copyLivePostings(byte[] postings, PostingsWriter out) {
+        PostingsReader reader = new PostingsReader(postings);
+        int copied = 0;
+        int documentId = 0;
+        while (reader.hasMore()) {
+            documentId += reader.readVarint();
+            int pages = reader.readVarint();
+            Document document = documents.get(documentId);
+            boolean live = document != null && document.live;
+            if (live) {
+                out.startDocument(documentId, pages);
+                copied += pages;
+            }
+            int page = 0;
+            for (int i = 0; i < pages; i++) {
+                page += reader.readVarint();
+                int frequency = reader.readVarint();
+                if (live) {
+                    out.addPage(page, frequency);
+                }
+            }
+        }
+        return copied;
+    }
+
+    private File newSegmentFile() {
+        return new File(directory, SEGMENT_PREFIX + (nextSegmentId++) + SEGMENT_SUFFIX);
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Cannot create " + directory);
+        }
+        File meta = new File(directory, META_FILE);
+        if (!meta.isFile()) {
+            return;
+        }
+        Set<String> referenced = new HashSet<>();
+        referenced.add(META_FILE);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)))) {
+            if (in.readInt() != META_VERSION) {
+                throw new IOException("Unknown index version");
+            }
+            nextDocumentId = in.readInt();
+            nextSegmentId = in.readInt();
+            int segmentCount = in.readInt();
+            for (int i = 0; i < segmentCount; i++) {
+                String name = in.readUTF();
+                segments.add(Segment.open(new File(directory, name)));
+                referenced.add(name);
+            }
+            int documentCount = in.readInt();
+            for (int i = 0; i < documentCount; i++) {
+                Document document = new Document(in.readInt(), in.readInt(), in.readUTF(), in.readUTF(), in.readInt(),
+                        in.readBoolean());
+                documents.put(document.id, document);
+                if (document.live) {
+                    liveDocuments.put(document.documentId, document);
+                }
+            }
+            int failedCount = in.readInt();
+            for (int i = 0; i < failedCount; i++) {
+                failedDocuments.put(in.readInt(), in.readLong());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Search index is unreadable, starting over", e);
+            reset();
+            return;
+        }
+        // Segments left behind by an interrupted merge
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!referenced.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private void reset() {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+        documents.clear();
+        liveDocuments.clear();
+        failedDocuments.clear();
+        nextDocumentId = 0;
+        nextSegmentId = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private void saveMeta() {
+        try {
+            writeMeta();
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving search index", e);
+        }
+    }
+
+    // Written to a temporary file and renamed, so a crash leaves the previous table intact
+    private void writeMeta() throws IOException {
+        File temp = new File(directory, META_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(META_VERSION);
+            out.writeInt(nextDocumentId);
+            out.writeInt(nextSegmentId);
+            out.writeInt(segments.size());
+            for (Segment segment : segments) {
+                out.writeUTF(segment.file.getName());
+            }
+            out.writeInt(documents.size());
+            for (Document document : documents.values()) {
+                out.writeInt(document.id);
+                out.writeInt(document.documentId);
+                out.writeUTF(document.uri);
+                out.writeUTF(document.key);
+                out.writeInt(document.pageCount);
+                out.writeBoolean(document.live);
+            }
+            out.writeInt(failedDocuments.size());
+            for (Map.Entry<Integer, Long> entry : failedDocuments.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        }
+        if (!temp.renameTo(new File(directory, META_FILE))) {
+            throw new IOException("Could not replace " + META_FILE);
+        }
+    }
+
+    // Lower-cased words with diacritics removed, in text order
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        String folded = fold(text);
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean word = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                if (i - start <= MAX_TERM_LENGTH) {
+                    terms.add(folded.substring(start, i));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    static String fold(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    public static class Hit {
+        private int documentId;
+        private String fileUri;
+        private String fileName;
+        private int pageNumber;
+        private float score;
+
+        public Hit(int documentId, String fileUri, int pageNumber, float score) {
+            this.documentId = documentId;
+            this.fileUri = fileUri;
+            this.pageNumber = pageNumber;
+            this.score = score;
+        }
+
+        public String getFileUri() { return fileUri; }
+        public String getFileName() { return fileName; }
+        public int getPageNumber() { return pageNumber; }
+        public float getScore() { return score; }
+    }
+
+    private static class Document {
+        // Position in the index's own posting order
+        final int id;
+        // Registry id
+        final int documentId;
+        // URI it was last indexed through, which hits open it by
+        final String uri;
+        final String key;
+        final int pageCount;
+        boolean live;
+
+        Document(int id, int documentId, String uri, String key, int pageCount, boolean live) {
+            this.id = id;
+            this.documentId = documentId;
+            this.uri = uri;
+            this.key = key;
+            this.pageCount = pageCount;
+            this.live = live;
+        }
+    }
+
+    // Pages a term occurs on, in page order, with its count on each
+    private static class PageCounts {
+        int[] pages = new int[4];
+        int[] frequencies = new int[4];
+        int count;
+
+        void add(int page) {
+            if (count > 0 && pages[count - 1] == page) {
+                frequencies[count - 1]++;
+                return;
+            }
+            if (count == pages.length) {
+                pages = Arrays.copyOf(pages, count * 2);
+                frequencies = Arrays.copyOf(frequencies, count * 2);
+            }
+            pages[count] = page;
+            frequencies[count++] = 1;
+        }
+    }
+
+    // Matching pages in key order, the document id in the high half of the key and the page in the low
+    private static class PageScores {
+        long[] keys = new long[64];
+        float[] scores = new float[64];
+        int count;
+
+        void add(long key, float score) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                scores = Arrays.copyOf(scores, count * 2);
+            }
+            keys[count] = key;
+            scores[count++] = score;
+        }
+
+        // Lower score first; ties go to the later page so earlier pages rank higher
+        int compare(int a, int b) {
+            int byScore = Float.compare(scores[a], scores[b]);
+            return byScore != 0 ? byScore : Long.compare(keys[b], keys[a]);
+        }
+    }
+
+    /**
+     * Posting list encoder. Per document: the id as a delta from the previous document,
+     * the number of pages, then for each page its delta from the previous page and the
+     * term frequency. Every number is a little-endian base-128 varint.
+     */
+    private static class PostingsWriter extends ByteArrayOutputStream {
+        private int lastDocumentId;
+        private int lastPage;
+
+        @Override
+        public void reset() {
+            super.reset();
+            lastDocumentId = 0;
+        }
+
+        void startDocument(int documentId, int pages) {
+            writeVarint(documentId - lastDocumentId);
+            writeVarint(pages);
+            lastDocumentId = documentId;
+            lastPage = 0;
+        }
+
+        void addPage(int page, int frequency) {
+            writeVarint(page - lastPage);
+            writeVarint(frequency);
+            lastPage = page;
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+    }
+
+    private static class PostingsReader {
+        private final byte[] data;
+        private int position;
+
+        PostingsReader(byte[] data) {
+            this.data = data;
+        }
+
+        boolean hasMore() {
+            return position < data.length;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a segment: a header with the magic number and document id range, the
+     * posting lists back to back, the term dictionary, and finally the dictionary offset.
+     */
+    private static class SegmentWriter {
+        final File file;
+        private final DataOutputStream out;
+        private final List<String> terms = new ArrayList<>();
+        private final List<int[]> entries = new ArrayList<>();
+        private long offset;
+
+        SegmentWriter(File file, int firstDocumentId, int lastDocumentId) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(firstDocumentId);
+            out.writeInt(lastDocumentId);
+            offset = out.size();
+        }
+
+        void addTerm(String term, int pageFrequency, PostingsWriter postings) throws IOException {
+            postings.writeTo(out);
+            terms.add(term);
+            entries.add(new int[]{pageFrequency, (int) offset, postings.size()});
+            offset += postings.size();
+        }
+
+        void close() throws IOException {
+            try {
+                long dictionaryOffset = offset;
+                out.writeInt(terms.size());
+                for (int i = 0; i < terms.size(); i++) {
+                    int[] entry = entries.get(i);
+                    out.writeUTF(terms.get(i));
+                    out.writeInt(entry[0]);
+                    out.writeInt(entry[1]);
+                    out.writeInt(entry[2]);
+                }
+                out.writeLong(dictionaryOffset);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    // An open segment: its dictionary in memory, posting lists read from disk on demand
+    private static class Segment {
+        final File file;
+        int firstDocumentId;
+        int lastDocumentId;
+        String[] terms;
+        int[] pageFrequencies;
+        int[] offsets;
+        int[] lengths;
+        private RandomAccessFile data;
+
+        private Segment(File file) {
+            this.file = file;
+        }
+
+        static Segment open(File file) throws IOException {
+            Segment segment = new Segment(file);
+            segment.data = new RandomAccessFile(file, "r");
+            try {
+                segment.readDictionary();
+            } catch (IOException e) {
+                segment.close();
+                throw e;
+            }
+            return segment;
+        }
+
+        private void readDictionary() throws IOException {
+            if (data.readInt() != SEGMENT_MAGIC) {
+                throw new IOException("Not an index segment: " + file);
+            }
+            firstDocumentId = data.readInt();
+            lastDocumentId = data.readInt();
+            data.seek(data.length() - 8);
+            long dictionaryOffset = data.readLong();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                long skipped = 0;
+                while (skipped < dictionaryOffset) {
+                    long count = in.skip(dictionaryOffset - skipped);
+                    if (count <= 0) {
+                        throw new IOException("Truncated segment: " + file);
+                    }
+                    skipped += count;
+                }
+                int count = in.readInt();
+                terms = new String[count];
+                pageFrequencies = new int[count];
+                offsets = new int[count];
+                lengths = new int[count];
+                for (int i = 0; i < count; i++) {
+                    terms[i] = in.readUTF();
+                    pageFrequencies[i] = in.readInt();
+                    offsets[i] = in.readInt();
+                    lengths[i] = in.readInt();
+                }
+            }
+        }
+
+        int find(String term) {
+            return Arrays.binarySearch(terms, term);
+        }
+
+        byte[] postings(int index) throws IOException {
+            byte[] bytes = new byte[lengths[index]];
+            data.seek(offsets[index]);
+            data.readFully(bytes);
+            return bytes;
+        }
+
+        void close() {
+            try {
+                data.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing " + file, e);
+            }
+        }
+
+        void delete() {
+            close();
+            if (!file.delete()) {
+                Log.w(TAG, "Could not delete " + file);
+            }
+        }
+    }
+}
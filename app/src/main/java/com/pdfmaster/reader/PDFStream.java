@@ -0,0 +1,22 @@
+package com.pdfmaster.reader;
+
+import java.util.Map;
+
+public class PDFStream {
+    private final Map<String, Object> dictionary;
+    private final long dataOffset;
+
+    public PDFStream(Map<String, Object> dictionary, long dataOffset) {
+        this.dictionary = dictionary;
+        this.dataOffset = dataOffset;
+    }
+
+    public Map<String, Object> getDictionary() { return dictionary; }
+
+    // Absolute file offset of the first byte after the "stream" keyword's end-of-line
+    public long getDataOffset() { return dataOffset; }
+
+    public Object get(String key) {
+        return dictionary.get(key);
+    }
+}
@@ -0,0 +1,248 @@
+package com.pdfmaster.reader;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Two-tier cache of extracted page text: an in-memory LRU of recent pages in front of
+ * files under the cache directory. Entries are keyed by a SHA-1 of the document's
+ * DocumentIdentity fingerprint, so an edited file is extracted again and a file opened
+ * through another URI finds the pages already extracted. The disk tier is trimmed, least
+ * recently used first, to a budget that can be changed with setMaxDiskBytes. One
+ * instance is shared by every extractor, so the budget covers the whole directory.
+ */
+public class PDFTextCache {
+
+    private static final String TAG = "PDFTextCache";
+    private static final String CACHE_DIR = "page_text";
+    private static final int MAX_MEMORY_CHARS = 512 * 1024;
+    public static final long DEFAULT_DISK_BYTES = 16L * 1024 * 1024;
+
+    private static PDFTextCache instance;
+
+    private Context context;
+    private long maxDiskBytes;
+    private final File directory;
+    private final LinkedHashMap<String, String> memory = new LinkedHashMap<>(32, 0.75f, true);
+    private long memoryChars;
+    // Size of the disk tier; -1 until the directory has been scanned
+    private long diskBytes = -1;
+    private boolean trimming;
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+
+    private PDFTextCache(Context context, long maxDiskBytes) {
+        this.context = context;
+        this.maxDiskBytes = maxDiskBytes;
+        this.directory = new File(context.getCacheDir(), CACHE_DIR);
+    }
+
+    public static synchronized PDFTextCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new PDFTextCache(context.getApplicationContext(), DEFAULT_DISK_BYTES);
+        }
+        return instance;
+    }
+
+    // Identifies the current contents of a document, whichever URI it is opened through
+    public String documentKey(Uri uri) {
+        // Fresh metadata, so a file changed since it was last seen is fingerprinted again
+        UriMetadataResolver.getInstance(context).refresh(uri);
+        return CacheFiles.sha1(DocumentIdentity.getInstance(context).getDocumentKey(uri));
+    }
+
+    // Disk reads run outside the lock, so pages in memory are served meanwhile
+    public String get(String documentKey, int page) {
+        String key = documentKey + "/" + page;
+        synchronized (this) {
+            String text = memory.get(key);
+            if (text != null) {
+                memoryHits++;
+                return text;
+            }
+        }
+        String text = null;
+        File file = pageFile(documentKey, page);
+        if (file.isFile()) {
+            try {
+                text = readFile(file);
+                CacheFiles.touch(file);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read " + file, e);
+            }
+        }
+        synchronized (this) {
+            if (text == null) {
+                misses++;
+                return null;
+            }
+            putInMemory(key, text);
+            diskHits++;
+            return text;
+        }
+    }
+
+    public void put(String documentKey, int page, String text) {
+        synchronized (this) {
+            putInMemory(documentKey + "/" + page, text);
+            if (maxDiskBytes <= 0) {
+                return;
+            }
+        }
+        File file = pageFile(documentKey, page);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Cannot create " + dir);
+            return;
+        }
+        // Named per thread, as two extractors may store the same page at once
+        File temp = new File(dir, page + "-" + Thread.currentThread().getId() + ".tmp");
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = new FileOutputStream(temp)) {
+            out.write(data);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + temp, e);
+            temp.delete();
+            return;
+        }
+        long previous = file.length();
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "Could not rename " + temp);
+            temp.delete();
+            return;
+        }
+        synchronized (this) {
+            if (diskBytes >= 0) {
+                diskBytes += data.length - previous;
+            }
+        }
+        trimDisk();
+    }
+
+    public synchronized void clear() {
+        memory.clear();
+        memoryChars = 0;
+        deleteRecursively(directory);
+        diskBytes = 0;
+    }
+
+    public synchronized long getMemoryHitCount() { return memoryHits; }
+    public synchronized long getDiskHitCount() { return diskHits; }
+    public synchronized long getMissCount() { return misses; }
+    public synchronized long getMaxDiskBytes() { return maxDiskBytes; }
+
+    // Trims straight away if the budget shrank; 0 or less keeps pages in memory only
+    public void setMaxDiskBytes(long maxDiskBytes) {
+        synchronized (this) {
+            this.maxDiskBytes = Math.max(0, maxDiskBytes);
+        }
+        trimDisk();
+    }
+
+    // Fraction of lookups served from either tier
+    public synchronized double getHitRatio() {
+        long lookups = memoryHits + diskHits + misses;
+        return lookups == 0 ? 0 : (double) (memoryHits + diskHits) / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PDFTextCache{memoryHits=" + memoryHits + ", diskHits=" + diskHits + ", misses=" + misses
+                + ", hitRatio=" + String.format(Locale.US, "%.2f", getHitRatio())
+                + ", diskBytes=" + diskBytes + "/" + maxDiskBytes + "}";
+    }
+
+    private void putInMemory(String key, String text) {
+        String previous = memory.put(key, text);
+        if (previous != null) {
+            memoryChars -= previous.length();
+        }
+        memoryChars += text.length();
+        Iterator<String> iterator = memory.values().iterator();
+        while (memoryChars > MAX_MEMORY_CHARS && memory.size() > 1 && iterator.hasNext()) {
+            memoryChars -= iterator.next().length();
+            iterator.remove();
+        }
+    }
+
+    // Deletes the least recently used page files once the disk tier is over its budget.
+    // The directory is scanned outside the lock, by one thread at a time.
+    private void trimDisk() {
+        long budget;
+        long before;
+        synchronized (this) {
+            if (trimming || (diskBytes >= 0 && diskBytes <= maxDiskBytes)) {
+                return;
+            }
+            trimming = true;
+            budget = maxDiskBytes;
+            before = diskBytes;
+        }
+        long remaining = CacheFiles.trim(listPageFiles(), budget, Collections.<File>emptySet(), this, directory);
+        synchronized (this) {
+            // Pages stored during the trim may be missing from the scan; count them too
+            diskBytes = before >= 0 ? remaining + Math.max(0, diskBytes - before) : remaining;
+            trimming = false;
+        }
+    }
+
+    private List<File> listPageFiles() {
+        List<File> files = new ArrayList<>();
+        File[] documents = directory.listFiles();
+        if (documents == null) {
+            return files;
+        }
+        for (File document : documents) {
+            File[] pages = document.listFiles();
+            if (pages != null) {
+                files.addAll(Arrays.asList(pages));
+            }
+        }
+        return files;
+    }
+
+    private File pageFile(String documentKey, int page) {
+        return new File(new File(directory, documentKey), page + ".txt");
+    }
+
+    private static String readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete " + file);
+        }
+    }
+}
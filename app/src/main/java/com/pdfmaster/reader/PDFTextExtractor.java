@@ -3,74 +3,164 @@ package com.pdfmaster.reader;
 import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
-import java.io.InputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class PDFTextExtractor {
 
     private static final String TAG = "PDFTextExtractor";
+    // Layouts kept in memory for the document last laid out
+    private static final int LAYOUT_CACHE_PAGES = 8;
     private Context context;
+    private Uri openUri;
+    private PDFDocument openDocument;
+    private PDFTextCache textCache;
+    private Uri keyUri;
+    private String documentKey;
+    private String layoutKey;
+    private final LinkedHashMap<Integer, PDFTextLayout> layouts =
+            new LinkedHashMap<Integer, PDFTextLayout>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, PDFTextLayout> eldest) {
+                    return size() > LAYOUT_CACHE_PAGES;
+                }
+            };
 
     public PDFTextExtractor(Context context) {
         this.context = context;
+        this.textCache = PDFTextCache.getInstance(context);
     }
 
     public String extractTextFromPage(Uri pdfUri, int pageNumber) {
-        try {
-            InputStream inputStream = context.getContentResolver().openInputStream(pdfUri);
-            if (inputStream != null) {
-                // Note: This is a basic implementation. For proper PDF text extraction,
-                // you would need a PDF library like Apache PDFBox or iText
-
-                byte[] buffer = new byte[1024];
-                StringBuilder content = new StringBuilder();
-                int bytesRead;
-                int totalBytesRead = 0;
-
-                // Read some bytes from the PDF to check if it contains readable text
-                while ((bytesRead = inputStream.read(buffer)) != -1 && totalBytesRead < 4096) {
-                    String chunk = new String(buffer, 0, bytesRead, "UTF-8");
-                    // Look for readable text patterns in PDF
-                    String cleanChunk = extractReadableText(chunk);
-                    if (!cleanChunk.isEmpty()) {
-                        content.append(cleanChunk).append(" ");
-                    }
-                    totalBytesRead += bytesRead;
-                }
+        String extractedText = extractPageText(pdfUri, pageNumber);
+        return extractedText.isEmpty() ? getDefaultPageText(pageNumber) : extractedText;
+    }
 
-                inputStream.close();
+    // Returns the page's text, or an empty string if it has none or cannot be read
+    public String extractPageText(Uri pdfUri, int pageNumber) {
+        try {
+            String key = documentKey(pdfUri);
+            String extractedText = textCache.get(key, pageNumber);
+            if (extractedText == null) {
+                PDFDocument document = openDocument(pdfUri);
+                extractedText = new PDFContentParser(document).extractText(document.getPage(pageNumber));
+                // Pages without text are cached too, so they are not parsed again
+                textCache.put(key, pageNumber, extractedText);
+            }
+            if (extractedText.isEmpty()) {
+                Log.d(TAG, "No text found on page " + (pageNumber + 1));
+            }
+            return extractedText;
+        } catch (Exception e) {
+            Log.e(TAG, "Error extracting text from PDF", e);
+            return "";
+        }
+    }
 
-                String extractedText = content.toString().trim();
-                if (extractedText.length() > 20) {
-                    // Limit text length for TTS
-                    if (extractedText.length() > 500) {
-                        extractedText = extractedText.substring(0, 500) + "...";
-                    }
-                    return "Reading from page " + (pageNumber + 1) + ": " + extractedText;
-                } else {
-                    return getDefaultPageText(pageNumber);
+    // Returns the page's text with character positions, or null if it cannot be read. The
+    // layout's text is the page text, so the text cache is filled along the way.
+    public PDFTextLayout extractPageLayout(Uri pdfUri, int pageNumber) {
+        try {
+            String key = documentKey(pdfUri);
+            synchronized (layouts) {
+                if (!key.equals(layoutKey)) {
+                    layouts.clear();
+                    layoutKey = key;
+                }
+                PDFTextLayout layout = layouts.get(pageNumber);
+                if (layout != null) {
+                    return layout;
+                }
+            }
+            PDFDocument document = openDocument(pdfUri);
+            PDFTextLayout layout = new PDFContentParser(document).extractLayout(document.getPage(pageNumber));
+            if (textCache.get(key, pageNumber) == null) {
+                textCache.put(key, pageNumber, layout.getText());
+            }
+            synchronized (layouts) {
+                if (key.equals(layoutKey)) {
+                    layouts.put(pageNumber, layout);
                 }
             }
+            return layout;
         } catch (Exception e) {
-            Log.e(TAG, "Error extracting text from PDF", e);
+            Log.e(TAG, "Error extracting text layout from PDF", e);
+            return null;
         }
-        return getDefaultPageText(pageNumber);
     }
 
-    private String extractReadableText(String rawText) {
-        StringBuilder readable = new StringBuilder();
-        String[] words = rawText.split("\\s+");
+    // Number of pages in the document, or 0 if it cannot be read
+    public int getPageCount(Uri pdfUri) {
+        try {
+            return openDocument(pdfUri).getPageCount();
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading page count", e);
+            return 0;
+        }
+    }
 
-        for (String word : words) {
-            // Filter out PDF control sequences and keep readable words
-            String cleanWord = word.replaceAll("[^\\p{L}\\p{N}\\p{P}\\s]", "").trim();
-            if (cleanWord.length() > 2 && cleanWord.matches(".*[a-zA-Z].*")) {
-                readable.append(cleanWord).append(" ");
-            }
+    // The key is looked up once per document rather than once per page
+    private synchronized String documentKey(Uri pdfUri) {
+        if (documentKey == null || !pdfUri.equals(keyUri)) {
+            documentKey = textCache.documentKey(pdfUri);
+            keyUri = pdfUri;
         }
+        return documentKey;
+    }
 
-        return readable.toString().trim();
+    // Keeps the last document open so consecutive pages reuse its parsed objects
+    private synchronized PDFDocument openDocument(Uri pdfUri) throws IOException {
+        if (openDocument != null && pdfUri.equals(openUri)) {
+            return openDocument;
+        }
+        close();
+        PDFRandomAccessSource source = PDFRandomAccessSource.open(context, pdfUri);
+        try {
+            openDocument = new PDFDocument(source);
+        } catch (IOException e) {
+            source.close();
+            throw e;
+        }
+        openUri = pdfUri;
+        return openDocument;
+    }
+
+    public synchronized PDFObjectCache getObjectCache() {
+        return openDocument != null ? openDocument.getObjectCache() : null;
+    }
+
+    public PDFTextCache getTextCache() {
+        return textCache;
+    }
+
+    public synchronized void close() {
+        Log.d(TAG, "Text cache: " + textCache);
+        keyUri = null;
+        documentKey = null;
+        synchronized (layouts) {
+            layouts.clear();
+            layoutKey = null;
+        }
+        if (openDocument != null) {
+            Log.d(TAG, "Closing " + openUri + ": " + openDocument.getObjectCache());
+            try {
+                openDocument.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing document", e);
+            }
+            openDocument = null;
+            openUri = null;
+        }
     }
 
     private String getDefaultPageText(int pageNumber) {
@@ -80,14 +170,126 @@ public class PDFTextExtractor {
     }
 
     public List<String> extractAllText(Uri pdfUri, int totalPages) {
-        List<String> allText = new ArrayList<>();
-        for (int i = 0; i < totalPages; i++) {
-            allText.add(extractTextFromPage(pdfUri, i));
+        final List<String> allText = new ArrayList<>();
+        ExtractionJob job = extractAllText(pdfUri, totalPages, new PageTextCallback() {
+            @Override
+            public void onPageText(int pageNumber, String text) {
+                allText.add(text);
+            }
+
+            @Override
+            public void onFinished(boolean cancelled) {
+            }
+        });
+        try {
+            job.await();
+        } catch (InterruptedException e) {
+            job.cancel();
+            Thread.currentThread().interrupt();
         }
         return allText;
     }
 
-    public String extractTextFromCurrentView(Uri pdfUri, int currentPage) {
-        return extractTextFromPage(pdfUri, currentPage);
+    /**
+     * Extracts every page on a pool sized to the CPU count. The workers share the one
+     * open document, so its cross-reference data and page tree are read only once.
+     * Results are delivered in page order on a background thread; pages that cannot be
+     * read get the same default text as extractTextFromPage.
+     */
+    public ExtractionJob extractAllText(Uri pdfUri, int totalPages, PageTextCallback callback) {
+        ExtractionJob job = new ExtractionJob(this, pdfUri, totalPages, callback);
+        job.start();
+        return job;
+    }
+
+    public interface PageTextCallback {
+        void onPageText(int pageNumber, String text);
+
+        void onFinished(boolean cancelled);
+    }
+
+    public static class ExtractionJob {
+        private final PDFTextExtractor extractor;
+        private final Uri pdfUri;
+        private final int totalPages;
+        private final PageTextCallback callback;
+        private final ExecutorService workers;
+        private final Thread coordinator;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile boolean cancelled;
+
+        ExtractionJob(PDFTextExtractor extractor, Uri pdfUri, int totalPages, PageTextCallback callback) {
+            this.extractor = extractor;
+            this.pdfUri = pdfUri;
+            this.totalPages = totalPages;
+            this.callback = callback;
+            int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), totalPages));
+            this.workers = Executors.newFixedThreadPool(threads);
+            this.coordinator = new Thread(this::run, "PDFTextExtractor-all");
+        }
+
+        void start() {
+            coordinator.start();
+        }
+
+        // Pages already being parsed finish; interrupting them would close a shared FileChannel
+        public void cancel() {
+            cancelled = true;
+            workers.shutdown();
+            coordinator.interrupt();
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public void await() throws InterruptedException {
+            finished.await();
+        }
+
+        private void run() {
+            // Bound the pages in flight so out-of-order results cannot pile up
+            int window = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+            List<Future<String>> pending = new ArrayList<>();
+            int submitted = 0;
+            try {
+                for (int page = 0; page < totalPages && !cancelled; page++) {
+                    while (submitted < totalPages && submitted < page + window) {
+                        final int pageNumber = submitted++;
+                        pending.add(workers.submit(() -> extractor.extractTextFromPage(pdfUri, pageNumber)));
+                    }
+                    String text = pending.get(page).get();
+                    pending.set(page, null);
+                    if (!cancelled) {
+                        callback.onPageText(page, text);
+                    }
+                }
+            } catch (InterruptedException | CancellationException | RejectedExecutionException e) {
+                cancelled = true;
+            } catch (Exception e) {
+                Log.e(TAG, "Error extracting document text", e);
+            } finally {
+                for (Future<String> future : pending) {
+                    if (future != null) {
+                        future.cancel(false);
+                    }
+                }
+                workers.shutdown();
+                awaitWorkers();
+                callback.onFinished(cancelled);
+                finished.countDown();
+            }
+        }
+
+        // Lets pages already in progress finish, so the document can be closed once await() returns
+        private void awaitWorkers() {
+            // Clear the interrupt left by cancel() before waiting
+            Thread.interrupted();
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted waiting for extraction workers", e);
+            }
+        }
     }
 }
@@ -0,0 +1,101 @@
+package com.pdfmaster.reader;
+
+import java.util.Arrays;
+
+/**
+ * A page's extracted text together with where each character was drawn. Boxes are
+ * kept in parallel arrays indexed by offset in the text rather than as an object per
+ * glyph. Coordinates are in points from the top left corner of the media box, with y
+ * growing downwards and any /Rotate ignored, so scaling by the rendered page size over
+ * getPageWidth() and getPageHeight() gives screen positions. Spaces and line breaks
+ * inserted between words have empty boxes.
+ *
+ * Characters shown by one text operator share a baseline and form a run; hits are
+ * mapped to one rectangle per run they touch.
+ */
+public class PDFTextLayout {
+
+    private final String text;
+    private final float[] lefts;
+    private final float[] tops;
+    private final float[] rights;
+    private final float[] bottoms;
+    private final int[] runStarts;
+    private final int runCount;
+    private final float pageWidth;
+    private final float pageHeight;
+
+    PDFTextLayout(String text, float[] lefts, float[] tops, float[] rights, float[] bottoms,
+                  int[] runStarts, int runCount, float pageWidth, float pageHeight) {
+        this.text = text;
+        this.lefts = lefts;
+        this.tops = tops;
+        this.rights = rights;
+        this.bottoms = bottoms;
+        this.runStarts = runStarts;
+        this.runCount = runCount;
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+    }
+
+    public String getText() { return text; }
+    public float getPageWidth() { return pageWidth; }
+    public float getPageHeight() { return pageHeight; }
+    public int getRunCount() { return runCount; }
+    public int getRunStart(int run) { return runStarts[run]; }
+    public int getRunEnd(int run) { return run + 1 < runCount ? runStarts[run + 1] : text.length(); }
+
+    public float getLeft(int index) { return lefts[index]; }
+    public float getTop(int index) { return tops[index]; }
+    public float getRight(int index) { return rights[index]; }
+    public float getBottom(int index) { return bottoms[index]; }
+
+    public boolean hasBox(int index) {
+        return rights[index] > lefts[index];
+    }
+
+    /**
+     * Rectangles covering text[start, end), one for each run the range touches, as
+     * consecutive left, top, right, bottom values.
+     */
+    public float[] getRectangles(int start, int end) {
+        start = Math.max(0, start);
+        end = Math.min(text.length(), end);
+        float[] rectangles = new float[16];
+        int count = 0;
+        int run = findRun(start);
+        int i = start;
+        while (i < end) {
+            int runEnd = Math.min(end, run >= 0 ? getRunEnd(run) : runCount > 0 ? runStarts[0] : end);
+            float left = Float.MAX_VALUE;
+            float top = Float.MAX_VALUE;
+            float right = -Float.MAX_VALUE;
+            float bottom = -Float.MAX_VALUE;
+            for (; i < runEnd; i++) {
+                if (hasBox(i)) {
+                    left = Math.min(left, lefts[i]);
+                    top = Math.min(top, tops[i]);
+                    right = Math.max(right, rights[i]);
+                    bottom = Math.max(bottom, bottoms[i]);
+                }
+            }
+            if (right > left) {
+                if (count + 4 > rectangles.length) {
+                    rectangles = Arrays.copyOf(rectangles, rectangles.length * 2);
+                }
+                rectangles[count++] = left;
+                rectangles[count++] = top;
+                rectangles[count++] = right;
+                rectangles[count++] = bottom;
+            }
+            run++;
+        }
+        return Arrays.copyOf(rectangles, count);
+    }
+
+    // The run containing the character at index, or -1 if it precedes every run
+    public int findRun(int index) {
+        int run = Arrays.binarySearch(runStarts, 0, runCount, index);
+        return run >= 0 ? run : -run - 2;
+    }
+}
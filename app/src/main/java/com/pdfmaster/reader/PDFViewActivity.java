@@ -2,31 +2,49 @@ package com.pdfmaster.reader;
 
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.speech.tts.TextToSpeech;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.ImageButton;
 import android.widget.LinearLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.PopupMenu;
+import androidx.appcompat.widget.SearchView;
 import androidx.appcompat.widget.Toolbar;
 
 import com.github.barteksc.pdfviewer.PDFView;
+import com.github.barteksc.pdfviewer.listener.OnDrawListener;
 import com.github.barteksc.pdfviewer.listener.OnPageChangeListener;
 import com.github.barteksc.pdfviewer.listener.OnLoadCompleteListener;
 import com.github.barteksc.pdfviewer.util.FitPolicy;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import android.provider.DocumentsContract;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.OnInitListener {
 
+    private static final float SPEECH_RATE = 0.8f; // Slightly slower for better comprehension
+
     private PDFView pdfView;
     private Uri pdfUri;
     private TextToSpeech textToSpeech;
@@ -35,12 +53,32 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
     private LinearLayout actionButtonsContainer;
     private boolean buttonsVisible = true;
     private Toolbar toolbar;
+    // Null until the document is identified
     private BookmarkManager bookmarkManager;
+    // Registry id of the open document; 0 until it is identified
+    private int documentId;
+    private final ExecutorService identifyExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private PDFTextExtractor textExtractor;
+    private SpeechAudioCache speechAudioCache;
+    private ReadAloudManager readAloudManager;
+    private DocumentSearchManager documentSearchManager;
+    private LinearLayout searchBar;
+    private TextView searchStatus;
+    private ImageButton searchPrevious, searchNext;
+    private String searchQuery = "";
+    // Pages with matches for the current query, in page order
+    private final List<Integer> searchHitPages = new ArrayList<>();
+    private int searchMatchCount;
+    private boolean searchRunning;
+    // Where the matches are on hit pages drawn so far, as fractions of the page size; null while being found
+    private final Map<Integer, float[]> searchHighlights = new HashMap<>();
+    private final Paint highlightPaint = new Paint();
     private FileManager fileManager;
     private FavoriteManager favoriteManager;
-    private GlobalBookmarkManager globalBookmarkManager;
     private String currentFileName;
+    // Everything learned about the document while it is open, recorded when the viewer pauses
+    private OpenSessionRecorder openSession;
     private int currentPage = 0;
     private int totalPages = 0;
 
@@ -68,6 +106,12 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
         fabShare = findViewById(R.id.fab_share);
         fabToggleControls = findViewById(R.id.fab_toggle_controls);
         actionButtonsContainer = findViewById(R.id.action_buttons_container);
+        searchBar = findViewById(R.id.search_bar);
+        searchStatus = findViewById(R.id.search_status);
+        searchPrevious = findViewById(R.id.search_previous);
+        searchNext = findViewById(R.id.search_next);
+
+        highlightPaint.setColor(Color.argb(96, 255, 213, 0));
 
         fabToggleControls.setAlpha(0.4f);
         fabToggleControls.setScaleX(0.7f);
@@ -86,12 +130,30 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
         fileManager = new FileManager(this);
         textExtractor = new PDFTextExtractor(this);
         textToSpeech = new TextToSpeech(this, this);
+        speechAudioCache = new SpeechAudioCache(this, SPEECH_RATE, SpeechAudioCache.DEFAULT_DISK_BYTES);
+        readAloudManager = new ReadAloudManager(textToSpeech, textExtractor, speechAudioCache, new ReadAloudManager.Listener() {
+            @Override
+            public void onPageStarted(int page) {
+                // Follow the speech through the document
+                if (page != currentPage) {
+                    pdfView.jumpTo(page);
+                }
+            }
+
+            @Override
+            public void onReadingFinished() {
+                isReading = false;
+                fabReadAloud.setImageResource(R.drawable.ic_play);
+            }
+        });
+        documentSearchManager = new DocumentSearchManager(textExtractor);
         favoriteManager = new FavoriteManager(this);
-        globalBookmarkManager = new GlobalBookmarkManager(this);
 
         fabBookmark.setOnClickListener(v -> showBookmarksDialog());
         fabReadAloud.setOnClickListener(v -> toggleTextToSpeech());
         fabShare.setOnClickListener(v -> sharePDF());
+        searchPrevious.setOnClickListener(v -> jumpToSearchHit(false));
+        searchNext.setOnClickListener(v -> jumpToSearchHit(true));
 
         fabToggleControls.setOnClickListener(v -> toggleActionButtons());
     }
@@ -106,6 +168,7 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
             }
 
             currentFileName = fileManager.getFileName(pdfUri);
+            openSession = new OpenSessionRecorder(this, pdfUri, currentFileName);
 
             try {
                 pdfView.fromUri(pdfUri)
@@ -121,6 +184,7 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
                             public void onPageChanged(int page, int pageCount) {
                                 currentPage = page;
                                 totalPages = pageCount;
+                                openSession.setLastPage(page);
                                 updateBookmarkIcon();
                                 updateToolbarTitle();
                             }
@@ -130,19 +194,22 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
                             public void loadComplete(int nbPages) {
                                 totalPages = nbPages;
                                 updateToolbarTitle();
-                                // Update the file in recent files with page count
-                                updateFilePageCount(nbPages);
+                                openSession.setPageCount(nbPages);
+                                PDFSearchIndex.getInstance(PDFViewActivity.this).indexInBackground(pdfUri);
+                                if (!searchQuery.isEmpty()) {
+                                    startSearch(searchQuery);
+                                }
+                            }
+                        })
+                        .onDrawAll(new OnDrawListener() {
+                            @Override
+                            public void onLayerDrawn(Canvas canvas, float pageWidth, float pageHeight, int displayedPage) {
+                                drawSearchHighlights(canvas, pageWidth, pageHeight, displayedPage);
                             }
                         })
                         .load();
 
-                // Initialize bookmark manager
-                bookmarkManager = new BookmarkManager(this, pdfUri.toString());
-
-                globalBookmarkManager.registerFile(pdfUri.toString());
-
-                // Add to recent files
-                fileManager.addToRecentFiles(pdfUri, currentFileName);
+                identifyDocument();
 
             } catch (Exception e) {
                 e.printStackTrace();
@@ -155,6 +222,32 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
         }
     }
 
+    // Identifying the document may read and fingerprint it and write the registry, so it runs
+    // in the background; bookmarks, favorites and the session record take the id once known
+    private void identifyDocument() {
+        final Uri uri = pdfUri;
+        identifyExecutor.execute(() -> {
+            // The file may have changed since its metadata was last looked up
+            UriMetadataResolver.getInstance(this).refresh(uri);
+            int id = DocumentIdentity.getInstance(this).getDocumentId(uri);
+            // Loads the document's bookmarks and the favorites here rather than on the UI thread
+            BookmarkManager bookmarks = id != 0 ? new BookmarkManager(this, id) : null;
+            if (id != 0) {
+                favoriteManager.preload();
+            }
+            mainHandler.post(() -> {
+                documentId = id;
+                openSession.setDocumentId(id);
+                if (isDestroyed()) {
+                    return;
+                }
+                bookmarkManager = bookmarks;
+                updateBookmarkIcon();
+                invalidateOptionsMenu();
+            });
+        });
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
@@ -174,14 +267,158 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.pdf_view_menu, menu);
+        MenuItem searchItem = menu.findItem(R.id.menu_search);
+        if (searchItem != null) {
+            setupSearchView(searchItem);
+        }
         return true;
     }
 
+    private void setupSearchView(MenuItem searchItem) {
+        final SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint("Search in document");
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                jumpToSearchHit(true);
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                startSearch(newText);
+                return true;
+            }
+        });
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                searchBar.setVisibility(View.VISIBLE);
+                updateSearchStatus();
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                startSearch("");
+                searchBar.setVisibility(View.GONE);
+                return true;
+            }
+        });
+    }
+
+    // Restarts the search on every change to the query; hits arrive while later pages are scanned
+    private void startSearch(String query) {
+        searchQuery = query.trim();
+        searchHitPages.clear();
+        searchMatchCount = 0;
+        searchHighlights.clear();
+        pdfView.invalidate();
+        if (searchQuery.isEmpty() || pdfUri == null) {
+            documentSearchManager.cancel();
+            searchRunning = false;
+            updateSearchStatus();
+            return;
+        }
+        searchRunning = true;
+        updateSearchStatus();
+        if (totalPages == 0) {
+            // Still loading; loadComplete starts the search for the query typed so far
+            documentSearchManager.cancel();
+            return;
+        }
+        documentSearchManager.search(pdfUri, totalPages, currentPage, searchQuery, new DocumentSearchManager.Listener() {
+            @Override
+            public void onPageMatched(int page, int matchCount) {
+                int index = Collections.binarySearch(searchHitPages, page);
+                searchHitPages.add(-index - 1, page);
+                searchMatchCount += matchCount;
+                // Show the first hit straight away
+                if (searchHitPages.size() == 1 && page != currentPage) {
+                    pdfView.jumpTo(page);
+                } else if (Math.abs(page - currentPage) <= 1) {
+                    // It may already be on screen, drawn before it was known to match
+                    pdfView.invalidate();
+                }
+                updateSearchStatus();
+            }
+
+            @Override
+            public void onSearchFinished(boolean complete) {
+                searchRunning = false;
+                updateSearchStatus();
+            }
+        });
+    }
+
+    private void updateSearchStatus() {
+        String status;
+        if (searchQuery.isEmpty()) {
+            status = "";
+        } else if (searchMatchCount == 0) {
+            status = searchRunning ? "Searching..." : "No matches";
+        } else {
+            status = searchMatchCount + (searchMatchCount == 1 ? " match" : " matches") + " on "
+                    + searchHitPages.size() + (searchHitPages.size() == 1 ? " page" : " pages")
+                    + (searchRunning ? ", searching..." : "");
+        }
+        searchStatus.setText(status);
+        searchPrevious.setEnabled(!searchHitPages.isEmpty());
+        searchNext.setEnabled(!searchHitPages.isEmpty());
+    }
+
+    // Called for every page on screen, with the canvas at the page's top left corner. A hit
+    // page's highlights are looked up the first time it is drawn and drawn once they arrive.
+    private void drawSearchHighlights(Canvas canvas, float pageWidth, float pageHeight, int page) {
+        if (searchQuery.isEmpty() || Collections.binarySearch(searchHitPages, page) < 0) {
+            return;
+        }
+        if (!searchHighlights.containsKey(page)) {
+            searchHighlights.put(page, null);
+            documentSearchManager.highlight(pdfUri, page, searchQuery, (hitPage, rectangles) -> {
+                searchHighlights.put(hitPage, rectangles);
+                pdfView.invalidate();
+            });
+            return;
+        }
+        float[] rectangles = searchHighlights.get(page);
+        if (rectangles == null) {
+            return;
+        }
+        for (int i = 0; i + 3 < rectangles.length; i += 4) {
+            canvas.drawRect(rectangles[i] * pageWidth, rectangles[i + 1] * pageHeight,
+                    rectangles[i + 2] * pageWidth, rectangles[i + 3] * pageHeight, highlightPaint);
+        }
+    }
+
+    // Moves to the nearest page with matches after (or before) the current one, wrapping round
+    private void jumpToSearchHit(boolean forward) {
+        if (searchHitPages.isEmpty()) {
+            if (!searchQuery.isEmpty() && !searchRunning) {
+                Toast.makeText(this, "No matches", Toast.LENGTH_SHORT).show();
+            }
+            return;
+        }
+        int index = Collections.binarySearch(searchHitPages, currentPage);
+        int target;
+        if (forward) {
+            index = index >= 0 ? index + 1 : -index - 1;
+            target = searchHitPages.get(index < searchHitPages.size() ? index : 0);
+        } else {
+            index = index >= 0 ? index - 1 : -index - 2;
+            target = searchHitPages.get(index >= 0 ? index : searchHitPages.size() - 1);
+        }
+        pdfView.jumpTo(target);
+    }
+
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         MenuItem favoriteItem = menu.findItem(R.id.menu_favorite);
         if (favoriteItem != null && pdfUri != null) {
-            if (favoriteManager.isFavorite(pdfUri.toString())) {
+            // Favorites are stored by document id, which identifyDocument() is still looking up
+            favoriteItem.setEnabled(documentId != 0);
+            if (favoriteManager.isFavorite(documentId)) {
                 favoriteItem.setTitle("Remove from Favorites");
                 favoriteItem.setIcon(R.drawable.ic_favorite_filled);
             } else {
@@ -223,6 +460,11 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
             return;
         }
 
+        // The menu item stays disabled until then
+        if (documentId == 0) {
+            return;
+        }
+
         if (favoriteManager == null) {
             favoriteManager = new FavoriteManager(this);
         }
@@ -232,11 +474,11 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
         }
 
         try {
-            if (favoriteManager.isFavorite(pdfUri.toString())) {
-                favoriteManager.removeFromFavorites(pdfUri.toString());
+            if (favoriteManager.isFavorite(documentId)) {
+                favoriteManager.removeFromFavorites(documentId);
                 Toast.makeText(this, "Removed from favorites", Toast.LENGTH_SHORT).show();
             } else {
-                favoriteManager.addToFavorites(pdfUri.toString(), currentFileName);
+                favoriteManager.addToFavorites(documentId, pdfUri.toString(), currentFileName);
                 Toast.makeText(this, "Added to favorites", Toast.LENGTH_SHORT).show();
             }
             // Refresh menu to update favorite icon
@@ -250,7 +492,7 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
     private void showBookmarksDialog() {
         try {
             if (bookmarkManager != null && pdfUri != null) {
-                BookmarksDialog dialog = BookmarksDialog.newInstance(pdfUri.toString(), currentPage, pageNumber -> {
+                BookmarksDialog dialog = BookmarksDialog.newInstance(documentId, currentPage, pageNumber -> {
                     pdfView.jumpTo(pageNumber);
                 });
                 dialog.show(getSupportFragmentManager(), "Bookmarks");
@@ -286,13 +528,6 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
         }
     }
 
-    private void updateFilePageCount(int pageCount) {
-        // Update the recent files entry with page count information
-        if (pdfUri != null && currentFileName != null) {
-            fileManager.addToRecentFiles(pdfUri, currentFileName, pageCount);
-        }
-    }
-
     private void sharePDF() {
         if (pdfUri != null) {
             Intent shareIntent = new Intent(Intent.ACTION_SEND);
@@ -309,18 +544,18 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
     }
 
     private void startReading() {
-        if (textToSpeech != null) {
-            String textToRead = textExtractor.extractTextFromCurrentView(pdfUri, currentPage);
-            textToSpeech.speak(textToRead, TextToSpeech.QUEUE_FLUSH, null, null);
+        if (readAloudManager != null && pdfUri != null) {
+            // Text is extracted in the background and reading continues page after page
+            readAloudManager.start(pdfUri, currentPage, totalPages);
             isReading = true;
             fabReadAloud.setImageResource(R.drawable.ic_stop);
-            Toast.makeText(this, "Reading page " + (currentPage + 1), Toast.LENGTH_SHORT).show();
+            Toast.makeText(this, "Reading from page " + (currentPage + 1), Toast.LENGTH_SHORT).show();
         }
     }
 
     private void stopReading() {
-        if (textToSpeech != null && textToSpeech.isSpeaking()) {
-            textToSpeech.stop();
+        if (readAloudManager != null) {
+            readAloudManager.stop();
         }
         isReading = false;
         fabReadAloud.setImageResource(R.drawable.ic_play);
@@ -334,6 +569,7 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
                         if (fileManager != null && pdfUri != null && newName != null && !newName.trim().isEmpty()) {
                             if (fileManager.renameFile(pdfUri, newName)) {
                                 currentFileName = newName.endsWith(".pdf") ? newName : newName + ".pdf";
+                                openSession.setFileName(currentFileName);
                                 updateToolbarTitle();
                                 Toast.makeText(this, "File renamed successfully", Toast.LENGTH_SHORT).show();
                             } else {
@@ -460,17 +696,60 @@ public class PDFViewActivity extends AppCompatActivity implements TextToSpeech.O
                 Toast.makeText(this, "TTS language not supported", Toast.LENGTH_SHORT).show();
             } else {
                 // TTS is ready
-                textToSpeech.setSpeechRate(0.8f); // Slightly slower for better comprehension
+                textToSpeech.setSpeechRate(SPEECH_RATE);
             }
         }
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (openSession != null) {
+            openSession.record();
+        }
+    }
+
+    // Closes the extractor only once the managers' threads have stopped using it, waiting
+    // for the pages in progress off the UI thread
+    private void closeExtractorInBackground() {
+        final PDFTextExtractor extractor = textExtractor;
+        final ReadAloudManager readAloud = readAloudManager;
+        final DocumentSearchManager search = documentSearchManager;
+        new Thread(() -> {
+            try {
+                if (readAloud != null) {
+                    readAloud.awaitTermination();
+                }
+                if (search != null) {
+                    search.awaitTermination();
+                }
+                extractor.close();
+            } catch (InterruptedException e) {
+                Log.w("PDFViewActivity", "Interrupted waiting to close the extractor", e);
+            }
+        }, "PDFViewActivity-close").start();
+    }
+
     @Override
     protected void onDestroy() {
+        // Lets an identification in progress finish, so a pending session record is written
+        identifyExecutor.shutdown();
+        if (readAloudManager != null) {
+            readAloudManager.shutdown();
+        }
+        if (documentSearchManager != null) {
+            documentSearchManager.shutdown();
+        }
+        if (speechAudioCache != null) {
+            speechAudioCache.shutdown();
+        }
         if (textToSpeech != null) {
             textToSpeech.stop();
             textToSpeech.shutdown();
         }
+        if (textExtractor != null) {
+            closeExtractorInBackground();
+        }
         super.onDestroy();
     }
 }
@@ -0,0 +1,297 @@
+package com.pdfmaster.reader;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.util.Log;
+import java.io.File;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a document aloud from a given page to the end. Each page is split into
+ * sentence-sized utterances queued with QUEUE_ADD. While one page is spoken, the
+ * next is extracted in the background and queued behind it, so speech flows from
+ * page to page without gaps. Utterance progress reports which page is being read.
+ *
+ * The pages after that are rendered to audio files ahead of time through a
+ * SpeechAudioCache, on a thread of their own so rendering never holds up the next
+ * page. Sentences found there are played from file instead of being synthesized
+ * live, and the file is kept in the cache until it has played.
+ */
+public class ReadAloudManager {
+
+    private static final String TAG = "ReadAloudManager";
+    private static final String UTTERANCE_PREFIX = "read";
+    // Audio files are registered with the engine under this and the file name rather than
+    // the sentence, since registrations cannot be removed and the sentence may later need
+    // to be synthesized again
+    private static final String AUDIO_PREFIX = "audio:";
+    // Pages without text get a short pause so progress still advances through them
+    private static final long EMPTY_PAGE_PAUSE_MS = 300;
+    // Pages beyond the one being spoken that are rendered to audio ahead of time
+    private static final int PRERENDER_PAGES = 3;
+
+    public interface Listener {
+        void onPageStarted(int page);
+
+        void onReadingFinished();
+    }
+
+    private TextToSpeech textToSpeech;
+    private PDFTextExtractor textExtractor;
+    private SpeechAudioCache audioCache;
+    private Listener listener;
+    private final ExecutorService extractionExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService prerenderExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Uri pdfUri;
+    private int totalPages;
+    private boolean reading;
+    // Incremented on every start and stop so callbacks from an earlier run are ignored
+    private volatile int session;
+    private int startPage;
+    private int speakingPage;
+    private int queuedPage;
+    private int prerenderedPage;
+    private Future<?> pendingFetch;
+    // Cached audio queued for playback, by utterance id; released once it has played
+    private final Map<String, File> queuedAudio = new HashMap<>();
+
+    public ReadAloudManager(TextToSpeech textToSpeech, PDFTextExtractor textExtractor, SpeechAudioCache audioCache,
+                            Listener listener) {
+        this.textToSpeech = textToSpeech;
+        this.textExtractor = textExtractor;
+        this.audioCache = audioCache;
+        this.listener = listener;
+        textToSpeech.setOnUtteranceProgressListener(new ProgressListener());
+    }
+
+    public boolean isReading() {
+        return reading;
+    }
+
+    public void start(Uri uri, int page, int pageCount) {
+        stop();
+        pdfUri = uri;
+        totalPages = Math.max(pageCount, page + 1);
+        reading = true;
+        startPage = page;
+        speakingPage = page;
+        queuedPage = page - 1;
+        // The first two pages are queued straight away, too soon to be rendered
+        prerenderedPage = page + 1;
+        fetchNextPage();
+        prerenderAhead();
+    }
+
+    public void stop() {
+        session++;
+        reading = false;
+        if (pendingFetch != null) {
+            pendingFetch.cancel(false);
+            pendingFetch = null;
+        }
+        textToSpeech.stop();
+        if (audioCache != null) {
+            audioCache.cancel();
+            for (File audio : queuedAudio.values()) {
+                audioCache.release(audio);
+            }
+        }
+        queuedAudio.clear();
+    }
+
+    // Stops reading and both background threads without waiting for the pages in progress
+    public void shutdown() {
+        stop();
+        extractionExecutor.shutdownNow();
+        prerenderExecutor.shutdownNow();
+    }
+
+    // Returns once both threads have stopped after shutdown(), so the extractor can then be
+    // closed without a page fetch reopening the document behind it. Blocks, so not for the UI thread.
+    public void awaitTermination() throws InterruptedException {
+        extractionExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        prerenderExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    // Keeps exactly one page queued behind the one being spoken
+    private void fetchNextPage() {
+        if (!reading || pendingFetch != null || queuedPage >= speakingPage + 1 || queuedPage + 1 >= totalPages) {
+            return;
+        }
+        final int page = queuedPage + 1;
+        final int fetchSession = session;
+        final Uri uri = pdfUri;
+        // The first page explains why nothing can be read; later empty pages are skipped quietly
+        final boolean explainEmpty = page == startPage;
+        pendingFetch = extractionExecutor.submit(() -> {
+            final String text = explainEmpty
+                    ? textExtractor.extractTextFromPage(uri, page)
+                    : textExtractor.extractPageText(uri, page);
+            mainHandler.post(() -> {
+                if (fetchSession == session) {
+                    pendingFetch = null;
+                    queuePage(page, text);
+                    fetchNextPage();
+                }
+            });
+        });
+    }
+
+    // Hands the text of the next few pages to the audio cache while earlier pages are spoken
+    private void prerenderAhead() {
+        if (audioCache == null) {
+            return;
+        }
+        final int fetchSession = session;
+        final Uri uri = pdfUri;
+        int lastPage = Math.min(speakingPage + PRERENDER_PAGES, totalPages - 1);
+        while (reading && prerenderedPage < lastPage) {
+            final int page = ++prerenderedPage;
+            prerenderExecutor.submit(() -> {
+                if (fetchSession != session) {
+                    return;
+                }
+                List<String> utterances = splitIntoUtterances(textExtractor.extractPageText(uri, page));
+                if (fetchSession == session) {
+                    audioCache.prerender(utterances);
+                }
+            });
+        }
+    }
+
+    private void queuePage(int page, String text) {
+        List<String> utterances = splitIntoUtterances(text);
+        if (utterances.isEmpty()) {
+            textToSpeech.playSilentUtterance(EMPTY_PAGE_PAUSE_MS, TextToSpeech.QUEUE_ADD, utteranceId(page, 0, 1));
+        }
+        for (int i = 0; i < utterances.size(); i++) {
+            String utterance = utterances.get(i);
+            String utteranceId = utteranceId(page, i, utterances.size());
+            File audio = audioCache != null ? audioCache.acquire(utterance) : null;
+            if (audio != null) {
+                // The engine plays text registered with addSpeech from the file
+                String name = AUDIO_PREFIX + audio.getName();
+                textToSpeech.addSpeech(name, audio);
+                queuedAudio.put(utteranceId, audio);
+                textToSpeech.speak(name, TextToSpeech.QUEUE_ADD, null, utteranceId);
+            } else {
+                textToSpeech.speak(utterance, TextToSpeech.QUEUE_ADD, null, utteranceId);
+            }
+        }
+        queuedPage = page;
+    }
+
+    private void onUtteranceStarted(int page, int index) {
+        if (index != 0) {
+            return;
+        }
+        speakingPage = page;
+        listener.onPageStarted(page);
+        fetchNextPage();
+        prerenderAhead();
+    }
+
+    private void releaseAudio(String utteranceId) {
+        File audio = queuedAudio.remove(utteranceId);
+        if (audio != null) {
+            audioCache.release(audio);
+        }
+    }
+
+    private void onUtteranceFinished(int page, int index, int count) {
+        if (index == count - 1 && page == totalPages - 1) {
+            reading = false;
+            listener.onReadingFinished();
+        }
+    }
+
+    private String utteranceId(int page, int index, int count) {
+        return UTTERANCE_PREFIX + ":" + session + ":" + page + ":" + index + ":" + count;
+    }
+
+    // Sentences, with any longer than the engine accepts cut at word boundaries
+    static List<String> splitIntoUtterances(String text) {
+        List<String> utterances = new ArrayList<>();
+        int maxLength = TextToSpeech.getMaxSpeechInputLength();
+        BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.getDefault());
+        sentences.setText(text);
+        int start = sentences.first();
+        for (int end = sentences.next(); end != BreakIterator.DONE; start = end, end = sentences.next()) {
+            String sentence = text.substring(start, end).trim();
+            while (sentence.length() > maxLength) {
+                int cut = sentence.lastIndexOf(' ', maxLength);
+                if (cut <= 0) {
+                    cut = maxLength;
+                }
+                utterances.add(sentence.substring(0, cut));
+                sentence = sentence.substring(cut).trim();
+            }
+            if (!sentence.isEmpty()) {
+                utterances.add(sentence);
+            }
+        }
+        return utterances;
+    }
+
+    // Callbacks arrive on a TextToSpeech binder thread; state is only touched on the main thread
+    private class ProgressListener extends UtteranceProgressListener {
+        @Override
+        public void onStart(String utteranceId) {
+            post(utteranceId, true);
+        }
+
+        @Override
+        public void onDone(String utteranceId) {
+            post(utteranceId, false);
+        }
+
+        @Override
+        public void onError(String utteranceId) {
+            Log.w(TAG, "Utterance failed: " + utteranceId);
+            post(utteranceId, false);
+        }
+
+        private void post(String utteranceId, final boolean started) {
+            if (utteranceId == null || !utteranceId.startsWith(UTTERANCE_PREFIX + ":")) {
+                return;
+            }
+            String[] parts = utteranceId.split(":");
+            if (parts.length != 5) {
+                return;
+            }
+            final int utteranceSession = Integer.parseInt(parts[1]);
+            final int page = Integer.parseInt(parts[2]);
+            final int index = Integer.parseInt(parts[3]);
+            final int count = Integer.parseInt(parts[4]);
+            mainHandler.post(() -> {
+                if (utteranceSession != session) {
+                    return;
+                }
+                if (!started) {
+                    releaseAudio(utteranceId);
+                }
+                if (!reading) {
+                    return;
+                }
+                if (started) {
+                    onUtteranceStarted(page, index);
+                } else {
+                    onUtteranceFinished(page, index, count);
+                }
+            });
+        }
+    }
+}
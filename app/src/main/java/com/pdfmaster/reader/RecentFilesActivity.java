@@ -3,18 +3,31 @@ package com.pdfmaster.reader;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class RecentFilesActivity extends AppCompatActivity {
+public class RecentFilesActivity extends AppCompatActivity implements FileAccessChecker.Listener {
+
+    private static final int PAGE_SIZE = 50;
 
     private RecyclerView recyclerView;
     private RecentFilesAdapter adapter;
-    private List<PDFFile> recentFiles;
     private FileManager fileManager;
+    private final ExecutorService loadExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private boolean loading;
+    private boolean allLoaded;
+    // Bumped when the list is reloaded from the top, so pages still loading for the old one are dropped
+    private int generation;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -23,7 +36,6 @@ public class RecentFilesActivity extends AppCompatActivity {
 
         initViews();
         setupToolbar();
-        loadRecentFiles();
     }
 
     private void initViews() {
@@ -37,21 +49,61 @@ public class RecentFilesActivity extends AppCompatActivity {
         }
 
         fileManager = new FileManager(this);
+
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
+        adapter = new RecentFilesAdapter(new ArrayList<>(), this::onFileClick, this::onFileOptionsClick);
+        recyclerView.setAdapter(adapter);
+
+        // Fetch the next page once the user scrolls within half a page of the end
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView view, int dx, int dy) {
+                if (layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - PAGE_SIZE / 2) {
+                    loadPage(false);
+                }
+            }
+        });
     }
 
     private void setupToolbar() {
         // Toolbar is already set in initViews()
     }
 
-    private void loadRecentFiles() {
-        recentFiles = fileManager.getRecentFiles();
+    // Loads the page after the last file shown, or the first page to replace the list
+    private void loadPage(final boolean fromStart) {
+        if (fromStart) {
+            generation++;
+            allLoaded = false;
+        } else if (loading || allLoaded) {
+            return;
+        }
+        loading = true;
+        final int requested = generation;
+        final PDFFile after = fromStart ? null : adapter.getLastFile();
+        loadExecutor.execute(() -> {
+            final List<PDFFile> page = fileManager.getRecentFilesPage(after, PAGE_SIZE);
+            mainHandler.post(() -> {
+                if (isDestroyed() || requested != generation) {
+                    return;
+                }
+                loading = false;
+                allLoaded = page.size() < PAGE_SIZE;
+                if (fromStart) {
+                    adapter.updateFiles(page);
+                } else {
+                    adapter.appendFiles(page);
+                }
+                // The list shows stored details straight away; files found missing drop out as probes finish
+                fileManager.checkRecentFilesInBackground(page, this);
+            });
+        });
+    }
 
-        if (adapter == null) {
-            adapter = new RecentFilesAdapter(recentFiles, this::onFileClick, this::onFileOptionsClick);
-            recyclerView.setLayoutManager(new LinearLayoutManager(this));
-            recyclerView.setAdapter(adapter);
-        } else {
-            adapter.updateFiles(recentFiles);
+    @Override
+    public void onAccessChecked(String fileUri, boolean accessible) {
+        if (!accessible && adapter != null) {
+            adapter.removeFile(fileUri);
         }
     }
 
@@ -75,6 +127,14 @@ public class RecentFilesActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
-        loadRecentFiles();
+        // Files opened from here move to the top, so start again from the newest
+        loadPage(true);
+    }
+
+    @Override
+    protected void onDestroy() {
+        loadExecutor.shutdownNow();
+        fileManager.cancelAccessChecks(this);
+        super.onDestroy();
     }
 }
\ No newline at end of file
@@ -57,6 +57,26 @@ public class RecentFilesAdapter extends RecyclerView.Adapter<RecentFilesAdapter.
         notifyDataSetChanged();
     }
 
+    public void appendFiles(List<PDFFile> page) {
+        int start = files.size();
+        files.addAll(page);
+        notifyItemRangeInserted(start, page.size());
+    }
+
+    public PDFFile getLastFile() {
+        return files.isEmpty() ? null : files.get(files.size() - 1);
+    }
+
+    public void removeFile(String path) {
+        for (int i = 0; i < files.size(); i++) {
+            if (files.get(i).getPath().equals(path)) {
+                files.remove(i);
+                notifyItemRemoved(i);
+                return;
+            }
+        }
+    }
+
     class ViewHolder extends RecyclerView.ViewHolder {
         private TextView textFileName, textFileSize, textFilePages, textFileDate;
         private ImageButton buttonOptions;
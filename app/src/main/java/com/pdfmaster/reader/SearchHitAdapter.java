@@ -0,0 +1,60 @@
+package com.pdfmaster.reader;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SearchHitAdapter extends RecyclerView.Adapter<SearchHitAdapter.HitViewHolder> {
+
+    private List<PDFSearchIndex.Hit> hits = new ArrayList<>();
+    private OnHitClickListener listener;
+
+    public interface OnHitClickListener {
+        void onHitClick(PDFSearchIndex.Hit hit);
+    }
+
+    public SearchHitAdapter(OnHitClickListener listener) {
+        this.listener = listener;
+    }
+
+    @NonNull
+    @Override
+    public HitViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_search_hit, parent, false);
+        return new HitViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull HitViewHolder holder, int position) {
+        PDFSearchIndex.Hit hit = hits.get(position);
+        holder.fileNameText.setText(hit.getFileName());
+        holder.pageText.setText("Page " + (hit.getPageNumber() + 1));
+        holder.itemView.setOnClickListener(v -> listener.onHitClick(hit));
+    }
+
+    @Override
+    public int getItemCount() {
+        return hits.size();
+    }
+
+    public void setHits(List<PDFSearchIndex.Hit> hits) {
+        this.hits = hits;
+        notifyDataSetChanged();
+    }
+
+    static class HitViewHolder extends RecyclerView.ViewHolder {
+        private TextView fileNameText;
+        private TextView pageText;
+
+        public HitViewHolder(@NonNull View itemView) {
+            super(itemView);
+            fileNameText = itemView.findViewById(R.id.text_file_name);
+            pageText = itemView.findViewById(R.id.text_page_number);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.pdfmaster.reader;
+
+import android.content.Context;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.util.Log;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Pre-renders utterances to audio files under the cache directory so they can be
+ * played back without the engine synthesizing them live. Synthesis runs on its own
+ * TextToSpeech instance, so stopping playback does not drop queued renders and the
+ * other way round. Files are named by a digest of the text and voice settings and are
+ * trimmed, least recently used first, to a byte budget; files acquired for playback
+ * are kept until they are released.
+ */
+public class SpeechAudioCache {
+
+    private static final String TAG = "SpeechAudioCache";
+    private static final String CACHE_DIR = "speech_audio";
+    private static final String AUDIO_SUFFIX = ".wav";
+    private static final String TEMP_SUFFIX = ".tmp";
+    public static final long DEFAULT_DISK_BYTES = 64L * 1024 * 1024;
+
+    private Context context;
+    private final long maxDiskBytes;
+    private final float speechRate;
+    private final File directory;
+    private TextToSpeech synthesizer;
+    private boolean ready;
+    // Renders requested but not finished, by file key; held back until the engine is ready
+    private final LinkedHashMap<String, String> requested = new LinkedHashMap<>();
+    // Files queued for playback, with how many times each was acquired; trimming skips them
+    private final Map<File, Integer> pinned = new HashMap<>();
+    // Size of the cache directory; -1 until it has been scanned
+    private long diskBytes = -1;
+    private boolean trimming;
+
+    public SpeechAudioCache(Context context, float speechRate, long maxDiskBytes) {
+        this.context = context;
+        this.speechRate = speechRate;
+        this.maxDiskBytes = maxDiskBytes;
+        this.directory = new File(context.getCacheDir(), CACHE_DIR);
+        synthesizer = new TextToSpeech(context, this::onInit);
+        synthesizer.setOnUtteranceProgressListener(new SynthesisListener());
+    }
+
+    private synchronized void onInit(int status) {
+        if (status != TextToSpeech.SUCCESS) {
+            Log.w(TAG, "Synthesis engine unavailable: " + status);
+            requested.clear();
+            return;
+        }
+        // Match the playback voice so cached audio sounds the same as live speech
+        synthesizer.setLanguage(Locale.getDefault());
+        synthesizer.setSpeechRate(speechRate);
+        ready = true;
+        for (Map.Entry<String, String> entry : requested.entrySet()) {
+            synthesize(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the rendered audio for text, or null if it has not been rendered yet. The
+     * file is not trimmed until release() is called for it, so it can be queued for
+     * playback and still be there when its turn comes.
+     */
+    public File acquire(String text) {
+        File file = audioFile(key(text));
+        // Pinned before looking, so a trim cannot delete it once found; the file system is
+        // checked outside the lock
+        synchronized (this) {
+            Integer count = pinned.get(file);
+            pinned.put(file, count == null ? 1 : count + 1);
+        }
+        if (!file.isFile()) {
+            release(file);
+            return null;
+        }
+        CacheFiles.touch(file);
+        return file;
+    }
+
+    public synchronized void release(File file) {
+        Integer count = pinned.get(file);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            pinned.put(file, count - 1);
+        } else {
+            pinned.remove(file);
+        }
+    }
+
+    // Queues renders for any of the texts that are neither cached nor already requested
+    public void prerender(List<String> texts) {
+        if (maxDiskBytes <= 0) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Cannot create " + directory);
+            return;
+        }
+        // Looked up on disk before taking the lock
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (String text : texts) {
+            String key = key(text);
+            if (!audioFile(key).isFile()) {
+                missing.put(key, text);
+            }
+        }
+        synchronized (this) {
+            for (Map.Entry<String, String> entry : missing.entrySet()) {
+                if (requested.containsKey(entry.getKey())) {
+                    continue;
+                }
+                requested.put(entry.getKey(), entry.getValue());
+                if (ready) {
+                    synthesize(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    // Drops renders that have not finished; audio already on disk is kept
+    public void cancel() {
+        synchronized (this) {
+            if (requested.isEmpty()) {
+                return;
+            }
+            requested.clear();
+            if (ready) {
+                synthesizer.stop();
+            }
+        }
+        File[] temps = directory.listFiles((dir, name) -> name.endsWith(TEMP_SUFFIX));
+        if (temps != null) {
+            for (File temp : temps) {
+                temp.delete();
+            }
+        }
+    }
+
+    public synchronized void shutdown() {
+        cancel();
+        pinned.clear();
+        ready = false;
+        synthesizer.shutdown();
+    }
+
+    private void synthesize(String key, String text) {
+        int result = synthesizer.synthesizeToFile(text, null, tempFile(key), key);
+        if (result != TextToSpeech.SUCCESS) {
+            Log.w(TAG, "Could not queue synthesis for " + key);
+            requested.remove(key);
+        }
+    }
+
+    private void onSynthesisDone(String key) {
+        File temp = tempFile(key);
+        boolean cancelled;
+        synchronized (this) {
+            cancelled = requested.remove(key) == null;
+        }
+        if (cancelled) {
+            // Cancelled while the engine was writing
+            temp.delete();
+            return;
+        }
+        File file = audioFile(key);
+        long length = temp.length();
+        if (length == 0 || !temp.renameTo(file)) {
+            Log.w(TAG, "Could not store audio for " + key);
+            temp.delete();
+            return;
+        }
+        synchronized (this) {
+            if (diskBytes >= 0) {
+                diskBytes += length;
+            }
+        }
+        trimDisk();
+    }
+
+    private void onSynthesisFailed(String key) {
+        synchronized (this) {
+            requested.remove(key);
+        }
+        tempFile(key).delete();
+    }
+
+    // Deletes the least recently used audio files once the cache is over its budget. The
+    // directory is scanned outside the lock, by one thread at a time; pinned files are
+    // checked under it as each file is deleted.
+    private void trimDisk() {
+        long before;
+        synchronized (this) {
+            if (trimming || (diskBytes >= 0 && diskBytes <= maxDiskBytes)) {
+                return;
+            }
+            trimming = true;
+            before = diskBytes;
+        }
+        long remaining = CacheFiles.trim(listAudioFiles(), maxDiskBytes, pinned.keySet(), this, directory);
+        synchronized (this) {
+            // Audio stored during the trim may be missing from the scan; count it too
+            diskBytes = before >= 0 ? remaining + Math.max(0, diskBytes - before) : remaining;
+            trimming = false;
+        }
+    }
+
+    private List<File> listAudioFiles() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(AUDIO_SUFFIX));
+        return files == null ? new ArrayList<File>() : new ArrayList<>(Arrays.asList(files));
+    }
+
+    private File audioFile(String key) {
+        return new File(directory, key + AUDIO_SUFFIX);
+    }
+
+    private File tempFile(String key) {
+        return new File(directory, key + TEMP_SUFFIX);
+    }
+
+    private String key(String text) {
+        return CacheFiles.sha1(Locale.getDefault() + "|" + speechRate + "|" + text);
+    }
+
+    private class SynthesisListener extends UtteranceProgressListener {
+        @Override
+        public void onStart(String utteranceId) {
+        }
+
+        @Override
+        public void onDone(String utteranceId) {
+            onSynthesisDone(utteranceId);
+        }
+
+        @Override
+        public void onError(String utteranceId) {
+            Log.w(TAG, "Synthesis failed: " + utteranceId);
+            onSynthesisFailed(utteranceId);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.pdfmaster.reader;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.util.Log;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Looks up a document's display name, size and modification date with one provider
+ * query, asking only for those columns, or from the file itself for file:// URIs. Results are kept for the most recently used
+ * URIs and shared by every manager, so opening a file or listing bookmarks does not
+ * query the provider again for each detail.
+ */
+public class UriMetadataResolver {
+
+    private static final String TAG = "UriMetadataResolver";
+    private static final int MAX_ENTRIES = 128;
+    private static final String[] PROJECTION = {
+            OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE, DocumentsContract.Document.COLUMN_LAST_MODIFIED};
+
+    private static UriMetadataResolver instance;
+
+    private Context context;
+    private final LinkedHashMap<Uri, Metadata> entries = new LinkedHashMap<Uri, Metadata>(32, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Uri, Metadata> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private UriMetadataResolver(Context context) {
+        this.context = context;
+    }
+
+    public static synchronized UriMetadataResolver getInstance(Context context) {
+        if (instance == null) {
+            instance = new UriMetadataResolver(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // Returns the remembered metadata, querying the provider only the first time
+    public Metadata get(Uri uri) {
+        synchronized (entries) {
+            Metadata metadata = entries.get(uri);
+            if (metadata != null) {
+                return metadata;
+            }
+        }
+        return refresh(uri);
+    }
+
+    // Queries the provider even if the metadata is remembered, for callers that must see changes
+    public Metadata refresh(Uri uri) {
+        Metadata metadata = query(uri);
+        synchronized (entries) {
+            entries.put(uri, metadata);
+        }
+        return metadata;
+    }
+
+    public void invalidate(Uri uri) {
+        synchronized (entries) {
+            entries.remove(uri);
+        }
+    }
+
+    private Metadata query(Uri uri) {
+        String displayName = null;
+        long size = -1;
+        long lastModified = -1;
+        if ("content".equals(uri.getScheme())) {
+            try (Cursor cursor = queryColumns(uri)) {
+                if (cursor != null && cursor.moveToFirst()) {
+                    int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+                    int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                    int modifiedIndex = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                    if (nameIndex != -1 && !cursor.isNull(nameIndex)) {
+                        displayName = cursor.getString(nameIndex);
+                    }
+                    if (sizeIndex != -1 && !cursor.isNull(sizeIndex)) {
+                        size = cursor.getLong(sizeIndex);
+                    }
+                    if (modifiedIndex != -1 && !cursor.isNull(modifiedIndex)) {
+                        lastModified = cursor.getLong(modifiedIndex);
+                    }
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Could not query metadata for " + uri, e);
+            }
+        } else if ("file".equals(uri.getScheme()) && uri.getPath() != null) {
+            File file = new File(uri.getPath());
+            if (file.isFile()) {
+                displayName = file.getName();
+                size = file.length();
+                // 0 means the date could not be read
+                long modified = file.lastModified();
+                lastModified = modified > 0 ? modified : -1;
+            }
+        }
+        return new Metadata(displayName, size, lastModified);
+    }
+
+    private Cursor queryColumns(Uri uri) {
+        try {
+            return context.getContentResolver().query(uri, PROJECTION, null, null, null);
+        } catch (IllegalArgumentException e) {
+            // Some providers reject columns they do not know, such as the modification date
+            return context.getContentResolver().query(uri, null, null, null, null);
+        }
+    }
+
+    public static class Metadata {
+        private final String displayName;
+        private final long size;
+        private final long lastModified;
+
+        Metadata(String displayName, long size, long lastModified) {
+            this.displayName = displayName;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        // Null when the provider did not report one
+        public String getDisplayName() { return displayName; }
+        // -1 when unknown
+        public long getSize() { return size; }
+        // -1 when unknown
+        public long getLastModified() { return lastModified; }
+    }
+}
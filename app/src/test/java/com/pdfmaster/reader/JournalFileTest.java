@@ -0,0 +1,186 @@
+package com.pdfmaster.reader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the library journal's record format and file handling on the host JVM:
+ * records read back exactly as written, a tail cut short by a crash is dropped, and
+ * appends from many threads each land whole and in their thread's order.
+ */
+public class JournalFileTest {
+
+    private static final int THREADS = 8;
+    private static final int PER_THREAD = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsReadBackAsWritten() throws Exception {
+        JournalFile journal = new JournalFile(folder.newFile("library.journal"));
+        List<JournalFile.Change> written = new ArrayList<>();
+        written.add(new JournalFile.Change(1, 42, "content://docs/a.pdf", 12, "a.pdf", 1700000000000L, 1 << 20, 0));
+        written.add(new JournalFile.Change(8, 42, "", 7, null, 0, 0, 0));
+        written.add(new JournalFile.Change(3, 0, "", 0, "", 0, 0, 0));
+        written.add(new JournalFile.Change(10, Integer.MAX_VALUE, "content://docs/über 文件.pdf", -1,
+                "Kapitel | über", Long.MAX_VALUE, Long.MIN_VALUE, 99));
+        for (JournalFile.Change change : written) {
+            journal.append(change);
+        }
+
+        List<JournalFile.Change> read = journal.readAll();
+        assertEquals(written.size(), read.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertSameChange(written.get(i), read.get(i));
+        }
+    }
+
+    @Test
+    public void truncatedTailIsDropped() throws Exception {
+        File file = folder.newFile("library.journal");
+        JournalFile journal = new JournalFile(file);
+        for (int i = 0; i < 3; i++) {
+            journal.append(new JournalFile.Change(7, 1, "", i, "page " + i, i, 0, 0));
+        }
+        long complete = file.length();
+        int lastRecord = JournalFile.encode(new JournalFile.Change(7, 1, "", 2, "page 2", 2, 0, 0)).length;
+
+        // Every length a crash could leave the last record at
+        for (long length = complete - 1; length > complete - lastRecord; length--) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(length);
+            }
+            List<JournalFile.Change> read = new JournalFile(file).readAll();
+            assertEquals("cut to " + length, 2, read.size());
+            assertEquals(1, read.get(1).page);
+        }
+    }
+
+    @Test
+    public void damagedRecordEndsTheJournal() throws Exception {
+        File file = folder.newFile("library.journal");
+        JournalFile journal = new JournalFile(file);
+        for (int i = 0; i < 3; i++) {
+            journal.append(new JournalFile.Change(7, 1, "", i, "page " + i, i, 0, 0));
+        }
+        int record = JournalFile.encode(new JournalFile.Change(7, 1, "", 0, "page 0", 0, 0, 0)).length;
+
+        // Flip a payload byte of the second record; it and everything after it goes
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(record + 6);
+            int b = raf.read();
+            raf.seek(record + 6);
+            raf.write(b ^ 0xff);
+        }
+        List<JournalFile.Change> read = journal.readAll();
+        assertEquals(1, read.size());
+        assertEquals(0, read.get(0).page);
+
+        // A length no record could have
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(0);
+            raf.writeInt(-5);
+        }
+        assertTrue(journal.readAll().isEmpty());
+    }
+
+    @Test
+    public void truncateEmptiesTheFileForFurtherAppends() throws Exception {
+        File file = folder.newFile("library.journal");
+        JournalFile journal = new JournalFile(file);
+        journal.append(new JournalFile.Change(5, 3, "", 0, "a.pdf", 1, 0, 0));
+        journal.truncate();
+        assertEquals(0, file.length());
+        assertTrue(journal.readAll().isEmpty());
+
+        journal.append(new JournalFile.Change(6, 3, "", 0, null, 0, 0, 0));
+        List<JournalFile.Change> read = journal.readAll();
+        assertEquals(1, read.size());
+        assertEquals(6, read.get(0).type);
+    }
+
+    @Test
+    public void concurrentAppendsKeepEachThreadsOrder() throws Exception {
+        final JournalFile journal = new JournalFile(folder.newFile("library.journal"));
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            tasks.add(() -> {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    // Titles vary in length so torn or interleaved writes would misalign records
+                    journal.append(new JournalFile.Change(7, thread + 1, "", i, repeat('x', i % 37), i, 0, 0));
+                }
+                return null;
+            });
+        }
+        runTogether(tasks);
+
+        List<JournalFile.Change> read = journal.readAll();
+        assertEquals(THREADS * PER_THREAD, read.size());
+        int[] next = new int[THREADS];
+        for (JournalFile.Change change : read) {
+            int thread = change.documentId - 1;
+            assertEquals("thread " + thread, next[thread], change.page);
+            assertEquals(repeat('x', change.page % 37), change.text);
+            next[thread]++;
+        }
+        for (int t = 0; t < THREADS; t++) {
+            assertEquals(PER_THREAD, next[t]);
+        }
+    }
+
+    private static void assertSameChange(JournalFile.Change expected, JournalFile.Change actual) {
+        assertEquals(expected.type, actual.type);
+        assertEquals(expected.documentId, actual.documentId);
+        assertEquals(expected.uri, actual.uri);
+        assertEquals(expected.page, actual.page);
+        assertEquals(expected.text, actual.text);
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.size, actual.size);
+        assertEquals(expected.lastPage, actual.lastPage);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    // Starts every task at the same moment and rethrows the first failure
+    private static void runTogether(List<Callable<Void>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (final Callable<Void> task : tasks) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.pdfmaster.reader;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress checks that the shared in-memory bookmark and favorite state loses nothing
+ * when many threads change it at once, run on the host JVM.
+ */
+public class LibraryConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int PER_THREAD = 2000;
+
+    @Test
+    public void pageBookmarksKeepEveryConcurrentChange() throws Exception {
+        final BookmarkManager.PageBookmarks bookmarks = new BookmarkManager.PageBookmarks();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            tasks.add(() -> {
+                // Pages interleave across threads so every insert shifts the others' entries
+                for (int i = 0; i < PER_THREAD; i++) {
+                    int page = i * THREADS + thread;
+                    bookmarks.put(page, "page " + page, page);
+                    if (i % 3 == 0) {
+                        bookmarks.remove(page);
+                    }
+                }
+                return null;
+            });
+        }
+        tasks.add(() -> {
+            // Readers must always see a sorted list that agrees with the bit set
+            for (int i = 0; i < 200; i++) {
+                int previous = -1;
+                for (BookmarkManager.Bookmark bookmark : bookmarks.toList()) {
+                    assertTrue(bookmark.getPageNumber() > previous);
+                    assertEquals("page " + bookmark.getPageNumber(), bookmark.getTitle());
+                    previous = bookmark.getPageNumber();
+                }
+            }
+            return null;
+        });
+        runTogether(tasks);
+
+        List<BookmarkManager.Bookmark> list = bookmarks.toList();
+        int expected = 0;
+        for (int page = 0; page < THREADS * PER_THREAD; page++) {
+            boolean kept = (page / THREADS) % 3 != 0;
+            assertEquals("page " + page, kept, bookmarks.contains(page));
+            if (kept) {
+                assertEquals(page, list.get(expected).getPageNumber());
+                expected++;
+            }
+        }
+        assertEquals(expected, list.size());
+    }
+
+    @Test
+    public void favoritesKeepEveryConcurrentChange() throws Exception {
+        final FavoriteManager.FavoriteSet favorites = new FavoriteManager.FavoriteSet();
+        final int shared = Integer.MAX_VALUE;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            tasks.add(() -> {
+                for (int i = 0; i < PER_THREAD / 4; i++) {
+                    // Ids interleave across threads so every insert shifts the others' entries
+                    int documentId = i * THREADS + thread + 1;
+                    favorites.put(documentId, new FavoriteManager.FavoriteFile("content://docs/" + documentId, "file " + i, i));
+                    // Every thread also re-adds one shared document, which must end up once
+                    favorites.put(shared, new FavoriteManager.FavoriteFile("content://docs/shared", "shared", i));
+                    if (i % 2 == 0) {
+                        favorites.remove(documentId);
+                    }
+                }
+                return null;
+            });
+        }
+        tasks.add(() -> {
+            for (int i = 0; i < 200; i++) {
+                Set<String> seen = new HashSet<>();
+                for (FavoriteManager.FavoriteFile file : favorites.toList()) {
+                    assertTrue("listed twice: " + file.getFileUri(), seen.add(file.getFileUri()));
+                }
+            }
+            return null;
+        });
+        runTogether(tasks);
+
+        List<FavoriteManager.FavoriteFile> list = favorites.toList();
+        Set<String> uris = new HashSet<>();
+        for (FavoriteManager.FavoriteFile file : list) {
+            uris.add(file.getFileUri());
+        }
+        assertEquals(list.size(), uris.size());
+        assertTrue(favorites.contains(shared));
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < PER_THREAD / 4; i++) {
+                int documentId = i * THREADS + t + 1;
+                assertEquals("document " + documentId, i % 2 != 0, favorites.contains(documentId));
+                assertEquals("document " + documentId, i % 2 != 0, uris.contains("content://docs/" + documentId));
+            }
+        }
+        assertEquals(THREADS * PER_THREAD / 8 + 1, list.size());
+    }
+
+    // Starts every task at the same moment and rethrows the first failure
+    private static void runTogether(List<Callable<Void>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (final Callable<Void> task : tasks) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
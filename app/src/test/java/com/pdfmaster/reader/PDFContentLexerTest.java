@@ -0,0 +1,188 @@
+package com.pdfmaster.reader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tokenizer checks plus an allocation benchmark, run on the host JVM.
+ */
+public class PDFContentLexerTest {
+
+    private static final int MEGABYTE = 1024 * 1024;
+    // Lexer construction allocates its window; everything else should be reused
+    private static final long MAX_BYTES_ALLOCATED_PER_MB = 64 * 1024;
+
+    @Test
+    public void tokenizesOperandsAndOperators() throws IOException {
+        PDFContentLexer lexer = lexer("BT /F1 12 Tf (a\\(b\\)\\101) Tj [(x) -250.5 <4142>] TJ /A#20B Do ET % end");
+
+        assertEquals(PDFContentLexer.OPERATOR, lexer.next());
+        assertEquals(PDFContentLexer.operator("BT"), lexer.getOperator());
+        assertEquals(PDFContentLexer.NAME, lexer.next());
+        assertEquals("F1", string(lexer));
+        assertEquals(PDFContentLexer.NUMBER, lexer.next());
+        assertEquals(12, lexer.getNumber(), 0);
+        assertEquals(PDFContentLexer.OPERATOR, lexer.next());
+        assertEquals(PDFContentLexer.operator("Tf"), lexer.getOperator());
+        assertEquals(PDFContentLexer.STRING, lexer.next());
+        assertEquals("a(b)A", string(lexer));
+        assertEquals(PDFContentLexer.OPERATOR, lexer.next());
+        assertEquals(PDFContentLexer.ARRAY_START, lexer.next());
+        assertEquals(PDFContentLexer.STRING, lexer.next());
+        assertEquals(PDFContentLexer.NUMBER, lexer.next());
+        assertEquals(-250.5, lexer.getNumber(), 1e-9);
+        assertEquals(PDFContentLexer.STRING, lexer.next());
+        assertEquals("AB", string(lexer));
+        assertEquals(PDFContentLexer.ARRAY_END, lexer.next());
+        assertEquals(PDFContentLexer.OPERATOR, lexer.next());
+        assertEquals(PDFContentLexer.operator("TJ"), lexer.getOperator());
+        assertEquals(PDFContentLexer.NAME, lexer.next());
+        assertEquals("A B", string(lexer));
+        assertEquals(PDFContentLexer.OPERATOR, lexer.next());
+        assertEquals(PDFContentLexer.OPERATOR, lexer.next());
+        assertTrue(lexer.operatorEquals("ET"));
+        assertEquals(PDFContentLexer.END, lexer.next());
+    }
+
+    @Test
+    public void parsesNumbersAsPrimitives() throws IOException {
+        PDFContentLexer lexer = lexer("-1.5 .25 +3 0 -.002 17.");
+        double[] expected = {-1.5, 0.25, 3, 0, -0.002, 17};
+        for (double value : expected) {
+            assertEquals(PDFContentLexer.NUMBER, lexer.next());
+            assertEquals(value, lexer.getNumber(), 1e-9);
+        }
+        assertEquals(PDFContentLexer.END, lexer.next());
+    }
+
+    @Test
+    public void tokensSurviveWindowRefills() throws IOException {
+        String content = "<< /MCID 3 >> BDC (split string) Tj 123.75 TL EMC";
+        PDFContentLexer lexer = new PDFContentLexer(new TrickleInputStream(content.getBytes(StandardCharsets.ISO_8859_1)));
+        assertEquals(PDFContentLexer.DICT_START, lexer.next());
+        assertEquals(PDFContentLexer.NAME, lexer.next());
+        assertEquals(PDFContentLexer.NUMBER, lexer.next());
+        assertEquals(PDFContentLexer.DICT_END, lexer.next());
+        assertEquals(PDFContentLexer.OPERATOR, lexer.next());
+        assertEquals(PDFContentLexer.STRING, lexer.next());
+        assertEquals("split string", string(lexer));
+        assertEquals(PDFContentLexer.OPERATOR, lexer.next());
+        assertEquals(PDFContentLexer.NUMBER, lexer.next());
+        assertEquals(123.75, lexer.getNumber(), 1e-9);
+        assertEquals(PDFContentLexer.OPERATOR, lexer.next());
+        assertEquals(PDFContentLexer.OPERATOR, lexer.next());
+        assertTrue(lexer.operatorEquals("EMC"));
+        assertEquals(PDFContentLexer.END, lexer.next());
+    }
+
+    @Test
+    public void skipsInlineImageData() throws IOException {
+        PDFContentLexer lexer = lexer("BI /W 2 /H 1 ID \u0001EI\u00ff\n EI (after) Tj");
+        assertEquals(PDFContentLexer.OPERATOR, lexer.next());
+        lexer.skipInlineImage();
+        assertEquals(PDFContentLexer.STRING, lexer.next());
+        assertEquals("after", string(lexer));
+    }
+
+    @Test
+    public void allocationPerMegabyteIsBounded() throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        byte[] content = buildContentStream(4 * MEGABYTE);
+        ByteArrayInputStream[] streams = new ByteArrayInputStream[8];
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = new ByteArrayInputStream(content);
+        }
+        // Warm up so the JIT and buffer growth do not count against the measured runs
+        long tokens = 0;
+        for (int i = 0; i < 4; i++) {
+            tokens += lexAll(streams[i]);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 4; i < streams.length; i++) {
+            tokens += lexAll(streams[i]);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        double megabytes = 4.0 * content.length / MEGABYTE;
+        long perMegabyte = (long) (allocated / megabytes);
+        assertTrue("No tokens lexed", tokens > 0);
+        assertTrue("Allocated " + perMegabyte + " bytes per MB", perMegabyte < MAX_BYTES_ALLOCATED_PER_MB);
+    }
+
+    private static long lexAll(InputStream in) throws IOException {
+        PDFContentLexer lexer = new PDFContentLexer(in);
+        long count = 0;
+        int token;
+        while ((token = lexer.next()) != PDFContentLexer.END) {
+            if (token == PDFContentLexer.OPERATOR && lexer.getOperator() == PDFContentLexer.operator("BI")) {
+                lexer.skipInlineImage();
+            }
+            count++;
+        }
+        return count;
+    }
+
+    // Typical text-heavy page content repeated up to the requested size
+    private static byte[] buildContentStream(int size) {
+        StringBuilder content = new StringBuilder(size + 512);
+        int line = 0;
+        while (content.length() < size) {
+            content.append("BT /F1 11.04 Tf 1 0 0 1 72.024 ").append(700 - line % 50 * 13.8).append(" Tm\n")
+                    .append("[(The quick brown fox )-250(jumps over the \\(lazy\\) dog)] TJ\n")
+                    .append("0 -13.8 Td <4f6e65207477> Tj T* (line ").append(line).append(") ' ET\n")
+                    .append("q 0.5 0 0 0.5 10 10 cm /Im1 Do Q % comment\n");
+            line++;
+        }
+        return content.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static PDFContentLexer lexer(String content) {
+        return new PDFContentLexer(new ByteArrayInputStream(content.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    private static String string(PDFContentLexer lexer) {
+        return new String(lexer.getStringBuffer(), 0, lexer.getStringLength(), StandardCharsets.ISO_8859_1);
+    }
+
+    // Returns one byte per read so every token crosses a window boundary
+    private static class TrickleInputStream extends InputStream {
+        private final byte[] data;
+        private int position;
+
+        TrickleInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int len) {
+            if (position >= data.length) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            buffer[offset] = data[position++];
+            return 1;
+        }
+    }
+}